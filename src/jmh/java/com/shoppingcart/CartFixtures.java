@@ -0,0 +1,70 @@
+package com.shoppingcart;
+
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.model.Price;
+import com.shoppingcart.repository.CartRepository;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Carts and a repository stub shared by the benchmarks.
+ */
+public final class CartFixtures {
+    public static final Instant START = Instant.parse("2025-07-24T00:00:00Z");
+    public static final int OFFERS = 10;
+
+    private CartFixtures() {
+    }
+
+    /**
+     * A cart whose items cycle through {@link #OFFERS} offers and all actions, one item per minute from {@link #START}.
+     */
+    public static Cart cart(String customerId, int items) {
+        Item.Action[] actions = Item.Action.values();
+        List<Item> cartItems = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            Price price = new Price();
+            price.setType(i % 2 == 0 ? Price.PriceType.ONE_TIME : Price.PriceType.RECURRING);
+            price.setValue(BigDecimal.valueOf(1_999 + i, 2));
+            price.setRecurrences(i % 2 == 0 ? null : 12);
+            Item item = new Item();
+            item.setOfferId("offer-" + i % OFFERS);
+            item.setAction(actions[i % actions.length]);
+            item.setActionTimestamp(START.plusSeconds(60L * i));
+            item.setPrices(List.of(price));
+            cartItems.add(item);
+        }
+        Cart cart = new Cart();
+        cart.setId("cart-" + customerId);
+        cart.setCustomerId(customerId);
+        cart.setItems(cartItems);
+        return cart;
+    }
+
+    public static List<Cart> carts(int carts, int itemsPerCart) {
+        List<Cart> result = new ArrayList<>(carts);
+        for (int c = 0; c < carts; c++) {
+            result.add(cart("customer-" + c, itemsPerCart));
+        }
+        return result;
+    }
+
+    /**
+     * A repository that answers {@code findCartsByItemDynamic} with the given carts and supports nothing else.
+     */
+    public static CartRepository repositoryReturning(List<Cart> carts) {
+        return (CartRepository) Proxy.newProxyInstance(CartRepository.class.getClassLoader(),
+            new Class<?>[]{CartRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "findCartsByItemDynamic" -> carts;
+                case "toString" -> "stubCartRepository";
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+    }
+}
@@ -0,0 +1,113 @@
+package com.shoppingcart.config;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.shoppingcart.CartFixtures;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the response logging filter per response, for the JSON of a cart of the given size. Log records go
+ * through an async appender into a no-op sink, like in production minus the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseLoggingFilterBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int itemsPerCart;
+
+    @Param({"OFF", "BUFFERED", "STREAMING"})
+    public ResponseLoggingProperties.Mode mode;
+
+    private ResponseLoggingFilter filter;
+    private HttpServlet servlet;
+    private AsyncAppender asyncAppender;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+        byte[] body = objectMapper.writeValueAsBytes(CartFixtures.cart("customer-1", itemsPerCart));
+        servlet = new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                response.setContentType("application/json");
+                response.setCharacterEncoding("UTF-8");
+                response.getOutputStream().write(body);
+            }
+        };
+        ResponseLoggingProperties properties = new ResponseLoggingProperties();
+        properties.setMode(mode);
+        filter = new ResponseLoggingFilter(properties);
+        routeFilterLogsToAsyncNoOpAppender();
+    }
+
+    @TearDown
+    public void tearDown() {
+        asyncAppender.stop();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse filter() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/carts/customer-1");
+        MockHttpServletResponse response = new DiscardingResponse();
+        filter.doFilter(request, response, new MockFilterChain(servlet));
+        return response;
+    }
+
+    private void routeFilterLogsToAsyncNoOpAppender() {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        AppenderBase<ILoggingEvent> sink = new AppenderBase<>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                event.getFormattedMessage();
+            }
+        };
+        sink.setContext(context);
+        sink.start();
+        asyncAppender = new AsyncAppender();
+        asyncAppender.setContext(context);
+        asyncAppender.setNeverBlock(true);
+        asyncAppender.addAppender(sink);
+        asyncAppender.start();
+        ch.qos.logback.classic.Logger filterLogger = context.getLogger(ResponseLoggingFilter.class);
+        filterLogger.detachAndStopAllAppenders();
+        filterLogger.setAdditive(false);
+        filterLogger.setLevel(Level.INFO);
+        filterLogger.addAppender(asyncAppender);
+    }
+
+    // MockHttpServletResponse copies byte by byte, which would dominate the measurement
+    private static class DiscardingResponse extends MockHttpServletResponse {
+        private final ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override public void write(int b) {}
+            @Override public void write(byte[] b, int off, int len) {}
+            @Override public boolean isReady() { return true; }
+            @Override public void setWriteListener(WriteListener listener) {}
+        };
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return outputStream;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.shoppingcart.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.shoppingcart.CartFixtures;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization and deserialization of a cart, with the object mapper configured as Spring Boot does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CartJsonBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int itemsPerCart;
+
+    private ObjectMapper objectMapper;
+    private Cart cart;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+        cart = CartFixtures.cart("customer-1", itemsPerCart);
+        json = objectMapper.writeValueAsBytes(cart);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(cart);
+    }
+
+    @Benchmark
+    public Cart deserialize() throws IOException {
+        return objectMapper.readValue(json, Cart.class);
+    }
+}
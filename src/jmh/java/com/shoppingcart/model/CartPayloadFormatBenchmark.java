@@ -0,0 +1,59 @@
+package com.shoppingcart.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.shoppingcart.CartFixtures;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and parsing of a cart as JSON, CBOR and Smile, with the mappers configured as the message
+ * converters are. The encoded size is reported once per trial as {@code payloadBytes} in the log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CartPayloadFormatBenchmark {
+    @Param({"json", "cbor", "smile"})
+    public String format;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int itemsPerCart;
+
+    private ObjectMapper objectMapper;
+    private Cart cart;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        JsonFactory factory = switch (format) {
+            case "json" -> new JsonFactory();
+            case "cbor" -> new CBORFactory();
+            case "smile" -> new SmileFactory();
+            default -> throw new IllegalArgumentException("Unknown format " + format);
+        };
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+            .factory(factory)
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+        cart = CartFixtures.cart("customer-1", itemsPerCart);
+        payload = objectMapper.writeValueAsBytes(cart);
+        System.out.printf("payloadBytes format=%s itemsPerCart=%d: %d%n", format, itemsPerCart, payload.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(cart);
+    }
+
+    @Benchmark
+    public Cart deserialize() throws IOException {
+        return objectMapper.readValue(payload, Cart.class);
+    }
+}
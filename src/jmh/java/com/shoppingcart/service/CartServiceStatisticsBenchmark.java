@@ -0,0 +1,60 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.CartFixtures;
+import com.shoppingcart.config.CartMetrics;
+import com.shoppingcart.util.ResilienceProperties;
+import com.shoppingcart.util.ResilienceUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The in-memory stream pipelines of the legacy statistics methods over {@value #CARTS} carts already loaded
+ * from the repository, so only the filtering and counting is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CartServiceStatisticsBenchmark {
+    private static final int CARTS = 20;
+    private static final String OFFER_ID = "offer-3";
+    private static final String ACTION = "ADD";
+
+    @Param({"10", "100", "1000", "10000"})
+    public int itemsPerCart;
+
+    private CartService cartService;
+    private Instant from;
+    private Instant to;
+
+    @Setup
+    public void setUp() {
+        ResilienceProperties properties = new ResilienceProperties();
+        properties.setInitialWaitMs(1);
+        properties.setMultiplier(1.0);
+        properties.setMaxAttempts(1);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        cartService = new CartService(CartFixtures.repositoryReturning(CartFixtures.carts(CARTS, itemsPerCart)), null,
+            new ResilienceUtils(properties, meterRegistry), new CartMetrics(meterRegistry), null, null, null, null, null);
+        // The first half of every cart's items
+        from = CartFixtures.START.minusSeconds(1);
+        to = CartFixtures.START.plusSeconds(30L * itemsPerCart);
+    }
+
+    @Benchmark
+    public long countOffersSold() {
+        return cartService.countOffersSold(OFFER_ID, ACTION, from, to);
+    }
+
+    @Benchmark
+    public long countUniqueCustomers() {
+        return cartService.countUniqueCustomers(OFFER_ID, ACTION, from, to);
+    }
+
+    @Benchmark
+    public long countTotalItems() {
+        return cartService.countTotalItems(OFFER_ID, ACTION, from, to);
+    }
+}
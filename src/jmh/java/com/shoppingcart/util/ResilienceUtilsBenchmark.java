@@ -0,0 +1,52 @@
+package com.shoppingcart.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cost of the resilience decorators around a trivial call: circuit breaker, retry and bulkhead on the calling
+ * thread, and the same plus a time limiter, which moves the call onto the time limiter's executor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResilienceUtilsBenchmark {
+    private ResilienceUtils resilienceUtils;
+    private final Supplier<Integer> call = () -> 42;
+
+    @Setup
+    public void setUp() {
+        ResilienceProperties properties = new ResilienceProperties();
+        properties.setInitialWaitMs(1);
+        properties.setMultiplier(1.0);
+        properties.setMaxAttempts(3);
+        ResilienceProperties.Policy statistics = new ResilienceProperties.Policy();
+        statistics.setTimeout(Duration.ofSeconds(10));
+        properties.getOperations().put(ResilienceUtils.Operation.STATISTICS.getPolicyName(), statistics);
+        resilienceUtils = new ResilienceUtils(properties, new SimpleMeterRegistry());
+    }
+
+    @TearDown
+    public void tearDown() {
+        resilienceUtils.shutdown();
+    }
+
+    @Benchmark
+    public Integer undecorated() {
+        return call.get();
+    }
+
+    @Benchmark
+    public Integer decorated() {
+        return resilienceUtils.callWithResilience(ResilienceUtils.Operation.CART_READ, call);
+    }
+
+    @Benchmark
+    public Integer decoratedWithTimeLimiter() {
+        return resilienceUtils.callWithResilience(ResilienceUtils.Operation.STATISTICS, call);
+    }
+}
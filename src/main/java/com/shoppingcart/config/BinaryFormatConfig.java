@@ -0,0 +1,31 @@
+package com.shoppingcart.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Reads and writes request and response bodies as CBOR ({@code application/cbor}) and Smile
+ * ({@code application/x-jackson-smile}) when the client asks for them with {@code Content-Type} or {@code Accept};
+ * JSON stays the default. Binary bodies write prices as binary decimals and strings length-prefixed, and Smile
+ * writes repeated field names as back references, so large carts are smaller and cheaper to parse. The mappers are built from Spring Boot's builder, with the same
+ * {@code spring.jackson} settings and modules as the JSON mapper, and replace the converters Spring MVC would
+ * otherwise register with its own defaults.
+ */
+@Configuration
+public class BinaryFormatConfig {
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+}
@@ -0,0 +1,14 @@
+package com.shoppingcart.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Enables the read-through cart cache. The cache provider, size and TTL are configured under
+ * {@code spring.cache}; hit, miss and eviction counts are published as {@code cache.*} metrics.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String CART_CACHE = "carts";
+}
@@ -0,0 +1,27 @@
+package com.shoppingcart.config;
+
+import com.shoppingcart.model.Cart;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records items per cart and document size for every cart saved to MongoDB. Reads are not measured: statistics
+ * scans, archive streams and compaction pages would pay for an encoding per cart, and projected loads would skew
+ * the distributions. Atomic appends are recorded by the repository.
+ */
+@Component
+public class CartDocumentMetricsListener extends AbstractMongoEventListener<Cart> {
+    private final CartMetrics cartMetrics;
+
+    public CartDocumentMetricsListener(CartMetrics cartMetrics) {
+        this.cartMetrics = cartMetrics;
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Cart> event) {
+        if (event.getDocument() != null) {
+            cartMetrics.recordCart(CartMetrics.SAVE, event.getSource(), event.getDocument());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.shoppingcart.config;
+
+import com.mongodb.MongoClientSettings;
+import com.shoppingcart.model.Cart;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cart specific meters, next to the timers Spring Boot registers for HTTP requests ({@code http.server.requests}),
+ * repository calls ({@code spring.data.repository.invocations}) and Mongo commands ({@code mongodb.driver.commands}).
+ * <ul>
+ *     <li>{@code cart.items}: items per cart, tagged with the write ({@code save} or {@code append})</li>
+ *     <li>{@code cart.document.bytes}: BSON size of the written cart documents, tagged the same way</li>
+ *     <li>{@code cart.statistics.items}: items examined by statistics queries ({@code stage=scanned}) and the ones
+ *     matching the offer, action and period ({@code stage=matched}), tagged with the query path</li>
+ *     <li>{@code cart.write.batch.items}: items appended to a cart by one combined update</li>
+ * </ul>
+ */
+@Component
+public class CartMetrics {
+    public static final String SAVE = "save";
+    public static final String APPEND = "append";
+    public static final String AGGREGATION = "aggregation";
+    public static final String LEGACY = "legacy";
+
+    private static final Codec<Document> DOCUMENT_CODEC = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+    private final MeterRegistry meterRegistry;
+
+    public CartMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Records the items of the cart and the size of its mapped document. The size is measured by encoding the
+     * document once more, the driver does not expose the size of the BSON it sent.
+     */
+    public void recordCart(String event, Cart cart, Document document) {
+        recordCart(event, cart.getItems() != null ? cart.getItems().size() : 0, bsonSize(document));
+    }
+
+    public void recordCart(String event, int items, int bytes) {
+        DistributionSummary.builder("cart.items")
+            .description("Items per cart")
+            .tag("event", event)
+            .publishPercentileHistogram()
+            .register(meterRegistry)
+            .record(items);
+        DistributionSummary.builder("cart.document.bytes")
+            .description("BSON size of cart documents")
+            .baseUnit("bytes")
+            .tag("event", event)
+            .publishPercentileHistogram()
+            .register(meterRegistry)
+            .record(bytes);
+    }
+
+    private static int bsonSize(Document document) {
+        try (BasicOutputBuffer buffer = new BasicOutputBuffer(); BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            DOCUMENT_CODEC.encode(writer, document, EncoderContext.builder().build());
+            return buffer.getPosition();
+        }
+    }
+
+    public void recordWriteBatch(int items) {
+        DistributionSummary.builder("cart.write.batch.items")
+            .description("Items appended to a cart by one update")
+            .register(meterRegistry)
+            .record(items);
+    }
+
+    public void recordStatisticsScan(String query, long scanned, long matched) {
+        statisticsItems(query, "scanned").increment(scanned);
+        statisticsItems(query, "matched").increment(matched);
+    }
+
+    private Counter statisticsItems(String query, String stage) {
+        return Counter.builder("cart.statistics.items")
+            .description("Cart items examined by statistics queries")
+            .tag("query", query)
+            .tag("stage", stage)
+            .register(meterRegistry);
+    }
+}
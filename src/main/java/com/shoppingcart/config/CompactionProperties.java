@@ -0,0 +1,24 @@
+package com.shoppingcart.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "compaction")
+public class CompactionProperties {
+    // Compact carts in the background once they hold more than threshold items
+    private boolean enabled = false;
+    private int threshold = 200;
+    // A cart is compacted in the background again only after growing by this many items since the last time
+    private int regrowth = 50;
+    // Superseded items younger than this stay in the cart
+    private Duration minAge = Duration.ofDays(7);
+    // Carts read per page by the scheduled compaction
+    private int batchSize = 100;
+    // Schedule of the compaction of all carts over the threshold, "-" for none
+    private String cron = "-";
+}
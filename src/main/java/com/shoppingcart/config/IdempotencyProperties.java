@@ -0,0 +1,19 @@
+package com.shoppingcart.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "idempotency")
+public class IdempotencyProperties {
+    // When enabled, cart creations and item adds sent with an Idempotency-Key are answered once per key
+    private boolean enabled = true;
+    // How long a response is replayed for; retries after that are executed again
+    private Duration ttl = Duration.ofHours(24);
+    // Most responses kept, the least recently used are dropped first
+    private long maximumSize = 100_000;
+}
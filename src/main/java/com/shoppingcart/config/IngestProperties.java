@@ -0,0 +1,15 @@
+package com.shoppingcart.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ingest")
+public class IngestProperties {
+    // Carts written per unordered bulk insert
+    private int batchSize = 1000;
+    // Failed records listed in the response, further failures are only counted
+    private int maxReportedErrors = 1000;
+}
@@ -0,0 +1,148 @@
+package com.shoppingcart.config;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver.IndexDefinitionHolder;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Creates or verifies the indexes declared with {@code @Indexed}/{@code @CompoundIndex} on the documents.
+ * Spring Data's automatic index creation is off by default, so without this the hot cart queries
+ * would fall back to collection scans.
+ */
+@Component
+@Profile("!in-memory")
+public class MongoIndexManager {
+    private static final Logger logger = LoggerFactory.getLogger(MongoIndexManager.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoIndexProperties properties;
+
+    @Autowired
+    public MongoIndexManager(MongoTemplate mongoTemplate, MongoIndexProperties properties) {
+        this.mongoTemplate = mongoTemplate;
+        this.properties = properties;
+    }
+
+    /**
+     * Outcome of an index verification, one {@code collection.index} entry per index.
+     *
+     * @param created    declared indexes that were missing and have been created
+     * @param missing    declared indexes that are missing and were not created
+     * @param unexpected indexes in the database that are not declared on any document
+     * @param unused     indexes that have not served any operation since the server started tracking them
+     */
+    public record IndexReport(List<String> created, List<String> missing, List<String> unexpected, List<String> unused) {
+        public boolean isHealthy() {
+            return missing.isEmpty();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void verifyOnStartup() {
+        if (!properties.isVerifyOnStartup()) {
+            return;
+        }
+        try {
+            IndexReport report = verify();
+            logger.info("Mongo index verification: created={}, missing={}, unexpected={}, unused={}",
+                report.created(), report.missing(), report.unexpected(), report.unused());
+            if (!report.isHealthy()) {
+                logger.warn("Missing Mongo indexes {}, queries using them will scan the whole collection", report.missing());
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Mongo index verification failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Compares the declared indexes of every mapped document with the database, creating the missing ones
+     * when {@code mongo-indexes.create-missing} is set.
+     *
+     * @return the verification report
+     */
+    public IndexReport verify() {
+        List<String> created = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        List<String> unexpected = new ArrayList<>();
+        List<String> unused = new ArrayList<>();
+        IndexResolver resolver = IndexResolver.create(mongoTemplate.getConverter().getMappingContext());
+
+        for (MongoPersistentEntity<?> entity : mongoTemplate.getConverter().getMappingContext().getPersistentEntities()) {
+            if (!entity.isAnnotationPresent(org.springframework.data.mongodb.core.mapping.Document.class)) {
+                continue;
+            }
+            String collection = entity.getCollection();
+            List<Document> existing = mongoTemplate.getCollection(collection).listIndexes().into(new ArrayList<>());
+            List<String> declaredKeys = new ArrayList<>();
+
+            for (IndexDefinition definition : resolver.resolveIndexFor(entity.getType())) {
+                String keys = keysOf(definition.getIndexKeys());
+                declaredKeys.add(keys);
+                boolean unique = Boolean.TRUE.equals(definition.getIndexOptions().get("unique"));
+                boolean present = existing.stream().anyMatch(index -> keys.equals(keysOf(index.get("key", Document.class)))
+                    && unique == Boolean.TRUE.equals(index.get("unique")));
+                if (present) {
+                    continue;
+                }
+                String name = collection + "." + definition.getIndexOptions().getOrDefault("name", keys);
+                if (properties.isCreateMissing()) {
+                    IndexDefinition toCreate = definition instanceof IndexDefinitionHolder holder ? holder.getIndexDefinition() : definition;
+                    mongoTemplate.indexOps(collection).ensureIndex(toCreate);
+                    created.add(name);
+                } else {
+                    missing.add(name);
+                }
+            }
+
+            for (Document index : existing) {
+                String keys = keysOf(index.get("key", Document.class));
+                if (!"_id_".equals(index.getString("name")) && !declaredKeys.contains(keys)) {
+                    unexpected.add(collection + "." + index.getString("name"));
+                }
+            }
+            unused.addAll(unusedIndexes(collection));
+        }
+        return new IndexReport(created, missing, unexpected, unused);
+    }
+
+    private List<String> unusedIndexes(String collection) {
+        List<Document> stats = mongoTemplate.getCollection(collection)
+            .aggregate(List.of(new Document("$indexStats", new Document())))
+            .into(new ArrayList<>());
+        return stats.stream()
+            .filter(stat -> !"_id_".equals(stat.getString("name")))
+            .filter(stat -> {
+                Document accesses = stat.get("accesses", Document.class);
+                return accesses != null && ((Number) accesses.get("ops")).longValue() == 0;
+            })
+            .map(stat -> collection + "." + stat.getString("name"))
+            .collect(Collectors.toList());
+    }
+
+    // Order sensitive representation of index keys, e.g. "items.offerId:1,items.action:1"
+    private static String keysOf(Document keys) {
+        return keys.entrySet().stream()
+            .map(MongoIndexManager::keyOf)
+            .collect(Collectors.joining(","));
+    }
+
+    private static String keyOf(Map.Entry<String, Object> key) {
+        Object direction = key.getValue() instanceof Number number ? number.intValue() : key.getValue();
+        return key.getKey() + ":" + direction;
+    }
+}
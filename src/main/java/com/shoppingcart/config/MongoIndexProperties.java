@@ -0,0 +1,15 @@
+package com.shoppingcart.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "mongo-indexes")
+public class MongoIndexProperties {
+    // Compare the indexes declared on the documents with the ones in the database at startup
+    private boolean verifyOnStartup = true;
+    // Create declared indexes that are missing; when false they are only reported
+    private boolean createMissing = true;
+}
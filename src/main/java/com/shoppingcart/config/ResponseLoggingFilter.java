@@ -1,22 +1,53 @@
 package com.shoppingcart.config;
 
 import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Logs response bodies. See {@link ResponseLoggingProperties.Mode} for the available modes; the log records
+ * are handed to an asynchronous appender (logback-spring.xml) so file I/O stays off the request thread.
+ */
 @Component
 public class ResponseLoggingFilter implements Filter {
     private static final Logger logger = LoggerFactory.getLogger(ResponseLoggingFilter.class);
 
+    private final ResponseLoggingProperties properties;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final List<MediaType> textContentTypes;
+
+    @Autowired
+    public ResponseLoggingFilter(ResponseLoggingProperties properties) {
+        this.properties = properties;
+        this.textContentTypes = MediaType.parseMediaTypes(properties.getTextContentTypes());
+    }
+
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
             throws IOException, ServletException {
+        switch (properties.getMode()) {
+            case BUFFERED -> doFilterBuffered(request, response, chain);
+            case STREAMING -> doFilterStreaming(request, response, chain);
+            default -> chain.doFilter(request, response);
+        }
+    }
+
+    private void doFilterBuffered(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
         HttpServletResponse httpServletResponse = (HttpServletResponse) response;
         BufferedResponseWrapper responseWrapper = new BufferedResponseWrapper(httpServletResponse);
         chain.doFilter(request, responseWrapper);
@@ -27,12 +58,63 @@ public class ResponseLoggingFilter implements Filter {
         out.write(responseData);
         out.flush();
     }
+
+    private void doFilterStreaming(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpServletRequest = (HttpServletRequest) request;
+        if (!logger.isInfoEnabled() || !isSampled(httpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        TeeResponseWrapper responseWrapper = new TeeResponseWrapper((HttpServletResponse) response, this);
+        try {
+            chain.doFilter(request, responseWrapper);
+        } finally {
+            responseWrapper.flushWriter();
+            logger.info("RESPONSE {} {} status={} bytes={} body={}",
+                httpServletRequest.getMethod(), httpServletRequest.getRequestURI(),
+                responseWrapper.getStatus(), responseWrapper.getBytesWritten(), responseWrapper.describeBody());
+        }
+    }
+
+    private boolean isSampled(HttpServletRequest request) {
+        if (!properties.getIncludePaths().isEmpty()) {
+            String path = request.getRequestURI();
+            if (properties.getIncludePaths().stream().noneMatch(pattern -> pathMatcher.match(pattern, path))) {
+                return false;
+            }
+        }
+        double sampleRate = properties.getSampleRate();
+        return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Decides, at the first body write, whether the body of this response is captured at all.
+     */
+    boolean isCapturable(HttpServletResponse response) {
+        long contentLength = response.getHeader("Content-Length") != null
+            ? Long.parseLong(response.getHeader("Content-Length")) : -1;
+        if (contentLength > properties.getSkipBodiesLargerThan()) {
+            return false;
+        }
+        String contentType = response.getContentType();
+        if (contentType == null) {
+            return false;
+        }
+        MediaType mediaType = MediaType.parseMediaType(contentType);
+        return textContentTypes.stream().anyMatch(type -> type.includes(mediaType));
+    }
+
+    int getMaxBodyBytes() {
+        return properties.getMaxBodyBytes();
+    }
 }
 
 class BufferedResponseWrapper extends jakarta.servlet.http.HttpServletResponseWrapper {
     private final ByteArrayOutputStream output = new ByteArrayOutputStream();
     private final ServletOutputStream servletOutputStream = new ServletOutputStream() {
         @Override public void write(int b) { output.write(b); }
+        @Override public void write(byte[] b, int off, int len) { output.write(b, off, len); }
         @Override public boolean isReady() { return true; }
         @Override public void setWriteListener(WriteListener listener) {}
     };
@@ -62,3 +144,105 @@ class BufferedResponseWrapper extends jakarta.servlet.http.HttpServletResponseWr
         return output.toByteArray();
     }
 }
+
+/**
+ * Passes the body straight through to the client and keeps a copy of at most the first
+ * {@code maxBodyBytes} bytes.
+ */
+class TeeResponseWrapper extends jakarta.servlet.http.HttpServletResponseWrapper {
+    private final ResponseLoggingFilter filter;
+    private byte[] captured;
+    private int capturedLength;
+    private long bytesWritten;
+    // null until the first write decides whether the body is captured
+    private Boolean capturing;
+    private ServletOutputStream teeOutputStream;
+    private PrintWriter printWriter;
+
+    TeeResponseWrapper(HttpServletResponse response, ResponseLoggingFilter filter) {
+        super(response);
+        this.filter = filter;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (teeOutputStream == null) {
+            ServletOutputStream delegate = super.getOutputStream();
+            teeOutputStream = new ServletOutputStream() {
+                @Override public void write(int b) throws IOException {
+                    delegate.write(b);
+                    capture(b);
+                }
+                @Override public void write(byte[] b, int off, int len) throws IOException {
+                    delegate.write(b, off, len);
+                    capture(b, off, len);
+                }
+                @Override public void flush() throws IOException { delegate.flush(); }
+                @Override public boolean isReady() { return delegate.isReady(); }
+                @Override public void setWriteListener(WriteListener listener) { delegate.setWriteListener(listener); }
+            };
+        }
+        return teeOutputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (printWriter == null) {
+            printWriter = new PrintWriter(new OutputStreamWriter(getOutputStream(), Charset.forName(getCharacterEncoding())));
+        }
+        return printWriter;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        flushWriter();
+        super.flushBuffer();
+    }
+
+    void flushWriter() {
+        if (printWriter != null) {
+            printWriter.flush();
+        }
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    String describeBody() {
+        if (bytesWritten == 0) {
+            return "<empty>";
+        }
+        if (!Boolean.TRUE.equals(capturing)) {
+            return "<skipped " + getContentType() + ">";
+        }
+        String body = new String(captured, 0, capturedLength, Charset.forName(getCharacterEncoding()));
+        return bytesWritten > capturedLength ? body + "...(truncated)" : body;
+    }
+
+    private void capture(int b) {
+        bytesWritten++;
+        if (isCapturing() && capturedLength < captured.length) {
+            captured[capturedLength++] = (byte) b;
+        }
+    }
+
+    private void capture(byte[] b, int off, int len) {
+        bytesWritten += len;
+        if (isCapturing() && capturedLength < captured.length) {
+            int toCopy = Math.min(len, captured.length - capturedLength);
+            System.arraycopy(b, off, captured, capturedLength, toCopy);
+            capturedLength += toCopy;
+        }
+    }
+
+    private boolean isCapturing() {
+        if (capturing == null) {
+            capturing = filter.isCapturable((HttpServletResponse) getResponse());
+            if (capturing) {
+                captured = new byte[filter.getMaxBodyBytes()];
+            }
+        }
+        return capturing;
+    }
+}
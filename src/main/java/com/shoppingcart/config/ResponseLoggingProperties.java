@@ -0,0 +1,34 @@
+package com.shoppingcart.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "response-logging")
+public class ResponseLoggingProperties {
+    private Mode mode = Mode.BUFFERED;
+    // Fraction of matching requests whose response is logged, 0.0 - 1.0 (STREAMING only)
+    private double sampleRate = 1.0;
+    // Ant style path patterns to log, all paths when empty (STREAMING only)
+    private List<String> includePaths = new ArrayList<>();
+    // At most this many body bytes are copied into the log record (STREAMING only)
+    private int maxBodyBytes = 2048;
+    // Bodies declaring a larger Content-Length are not captured at all (STREAMING only)
+    private long skipBodiesLargerThan = 1024 * 1024;
+    // Content types whose bodies are logged, anything else is treated as binary (STREAMING only)
+    private List<String> textContentTypes = new ArrayList<>(List.of("application/json", "application/*+json", "text/*"));
+
+    public enum Mode {
+        // Response bodies are not logged
+        OFF,
+        // The whole body is buffered, logged and then written to the client
+        BUFFERED,
+        // The body is streamed to the client while at most maxBodyBytes are copied for logging
+        STREAMING
+    }
+}
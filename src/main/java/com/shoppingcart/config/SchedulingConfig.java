@@ -0,0 +1,12 @@
+package com.shoppingcart.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables {@code @Scheduled} background jobs, such as the cart compaction.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,47 @@
+package com.shoppingcart.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "statistics")
+public class StatisticsProperties {
+    private Rollups rollups = new Rollups();
+    private Trending trending = new Trending();
+    private Cache cache = new Cache();
+
+    @Data
+    public static class Rollups {
+        // When enabled, rollups are maintained on every cart write and used to answer statistics queries
+        private boolean enabled = false;
+        // Width of a rollup bucket; changing it requires a rebuild
+        private Duration bucketSize = Duration.ofHours(1);
+        // Number of carts accumulated in memory before a rebuild flushes its increments
+        private int rebuildBatchSize = 500;
+    }
+
+    @Data
+    public static class Trending {
+        // Width of a time slot; every slot keeps its own heavy hitter summary per action
+        private Duration slotSize = Duration.ofMinutes(1);
+        // Longest window that can be queried, older slots are dropped
+        private Duration maxWindow = Duration.ofHours(1);
+        // Offers counted per slot and action; offers with more than 1/capacity of a slot's items are always kept
+        private int capacity = 200;
+    }
+
+    @Data
+    public static class Cache {
+        // When enabled, statistics results are cached per offer, action and period
+        private boolean enabled = true;
+        private long maximumSize = 10_000;
+        // Periods ending before now - settle-time are complete and kept for completed-ttl, others for live-ttl
+        private Duration settleTime = Duration.ofMinutes(1);
+        private Duration completedTtl = Duration.ofHours(1);
+        private Duration liveTtl = Duration.ofSeconds(5);
+    }
+}
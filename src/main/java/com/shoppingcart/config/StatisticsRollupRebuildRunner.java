@@ -0,0 +1,30 @@
+package com.shoppingcart.config;
+
+import com.shoppingcart.service.StatisticsRollupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebuilds the statistics rollups from the stored carts when the application is started with
+ * {@code --rebuild-statistics-rollups}, e.g. after enabling rollups on an existing database.
+ */
+@Component
+public class StatisticsRollupRebuildRunner implements ApplicationRunner {
+    static final String REBUILD_OPTION = "rebuild-statistics-rollups";
+
+    private final StatisticsRollupService statisticsRollupService;
+
+    @Autowired
+    public StatisticsRollupRebuildRunner(StatisticsRollupService statisticsRollupService) {
+        this.statisticsRollupService = statisticsRollupService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (args.containsOption(REBUILD_OPTION)) {
+            statisticsRollupService.rebuild();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.shoppingcart.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "write-coalescing")
+public class WriteCoalescingProperties {
+    // Combine item additions to the same cart that arrive while a previous one is written into one update
+    private boolean enabled = true;
+    // Most items written by one update
+    private int maxBatchSize = 100;
+    // How long the first writer waits for more items before writing; 0 only combines items queued behind a write
+    private Duration linger = Duration.ZERO;
+}
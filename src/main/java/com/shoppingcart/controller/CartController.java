@@ -1,66 +1,260 @@
 package com.shoppingcart.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shoppingcart.dto.CartItemPage;
+import com.shoppingcart.dto.CartSummary;
+import com.shoppingcart.dto.HistogramInterval;
+import com.shoppingcart.dto.IngestResult;
+import com.shoppingcart.dto.ItemQuery;
+import com.shoppingcart.dto.StatisticsBucket;
+import com.shoppingcart.dto.StatisticsHistogram;
 import com.shoppingcart.dto.StatisticsResponse;
+import com.shoppingcart.dto.TrendingOffers;
 import com.shoppingcart.model.Cart;
 import com.shoppingcart.model.Item;
+import com.shoppingcart.service.CartIngestService;
 import com.shoppingcart.service.CartService;
+import com.shoppingcart.service.IdempotencyStore;
+import com.shoppingcart.service.StatisticsCache;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api/carts")
 public class CartController {
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+
     private final CartService cartService;
+    private final CartIngestService cartIngestService;
+    private final IdempotencyStore idempotencyStore;
+    private final StatisticsCache statisticsCache;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public CartController(CartService cartService) {
+    public CartController(CartService cartService, CartIngestService cartIngestService,
+                          IdempotencyStore idempotencyStore, StatisticsCache statisticsCache,
+                          ObjectMapper objectMapper) {
         this.cartService = cartService;
+        this.cartIngestService = cartIngestService;
+        this.idempotencyStore = idempotencyStore;
+        this.statisticsCache = statisticsCache;
+        this.objectMapper = objectMapper;
     }
 
+    // Without item parameters the whole cart is returned from the cart cache. A request whose If-None-Match
+    // matches the ETag gets a 304, the body is not written.
     @GetMapping("/{customerId}")
-    public ResponseEntity<Cart> getCart(@PathVariable String customerId) {
-        Cart cart = cartService.getCartByCustomerId(customerId)
+    public ResponseEntity<Cart> getCart(
+            @PathVariable String customerId,
+            @RequestParam(required = false) Integer offset,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String offerId,
+            @RequestParam(required = false) String action,
+            @RequestParam(required = false) Set<String> fields) {
+        if (offset == null && limit == null && offerId == null && action == null && fields == null) {
+            Cart cart = cartService.getCartByCustomerId(customerId)
+                .orElseThrow(() -> new java.util.NoSuchElementException("Cart not found for customerId: " + customerId));
+            return okWithETag(cart).body(cart);
+        }
+        ItemQuery query = new ItemQuery(offset != null ? offset : 0, limit, offerId,
+            action != null ? Item.Action.valueOf(action) : null, fields);
+        CartItemPage page = cartService.getCartItemPage(customerId, query)
+            .orElseThrow(() -> new java.util.NoSuchElementException("Cart not found for customerId: " + customerId));
+        return okWithETag(page.cart())
+            .header(TOTAL_COUNT_HEADER, String.valueOf(page.matchingItems()))
+            .body(page.cart());
+    }
+
+    @GetMapping("/{customerId}/summary")
+    public ResponseEntity<CartSummary> getCartSummary(@PathVariable String customerId) {
+        CartSummary summary = cartService.getCartSummary(customerId)
             .orElseThrow(() -> new java.util.NoSuchElementException("Cart not found for customerId: " + customerId));
-        return ResponseEntity.ok(cart);
+        return ResponseEntity.ok(summary);
     }
 
+    // A retry with the same Idempotency-Key gets the stored response instead of a 409
     @PostMapping
-    public ResponseEntity<Cart> saveCart(@Valid @RequestBody Cart cart) {
-        Cart saved = cartService.saveCart(cart);
-        return ResponseEntity.ok(saved);
+    public ResponseEntity<Cart> saveCart(
+            @Valid @RequestBody Cart cart,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        IdempotencyStore.Result saved = idempotencyStore.execute(IdempotencyStore.SAVE_CART, cart.getCustomerId(),
+            idempotencyKey, cart, () -> cartService.saveCart(cart));
+        return idempotent(saved);
     }
 
+    // Body is streamed to the ingest service, not bound to a List<Cart>
+    @PostMapping(path = "/bulk", consumes = {"application/x-ndjson", MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<IngestResult> ingestCarts(HttpServletRequest request) throws IOException {
+        IngestResult result = cartIngestService.ingest(request.getInputStream());
+        return ResponseEntity.ok(result);
+    }
+
+    // With If-Match the cart is only deleted at that version, otherwise 409
     @DeleteMapping("/{customerId}")
-    public ResponseEntity<Void> deleteCart(@PathVariable String customerId) {
-        cartService.deleteCartByCustomerId(customerId);
+    public ResponseEntity<Void> deleteCart(
+            @PathVariable String customerId,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        cartService.deleteCartByCustomerId(customerId, expectedVersion(ifMatch));
         return ResponseEntity.noContent().build();
     }
 
+    // With If-Match the item is only added at that version, otherwise 409. A retry with the same
+    // Idempotency-Key gets the stored response and does not append the item again.
     @PutMapping("/{customerId}/items")
-    public ResponseEntity<Cart> addItemToCart(@PathVariable String customerId, @RequestBody Item item) {
-        Cart updatedCart = cartService.addItemToCart(customerId, item);
-        return ResponseEntity.ok(updatedCart);
+    public ResponseEntity<Cart> addItemToCart(
+            @PathVariable String customerId,
+            @RequestBody Item item,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        Long expectedVersion = expectedVersion(ifMatch);
+        IdempotencyStore.Result updated = idempotencyStore.execute(IdempotencyStore.ADD_ITEM, customerId,
+            idempotencyKey, item, () -> cartService.addItemToCart(customerId, item, expectedVersion));
+        return idempotent(updated);
+    }
+
+    private static ResponseEntity<Cart> idempotent(IdempotencyStore.Result result) {
+        ResponseEntity.BodyBuilder builder = okWithETag(result.cart());
+        if (result.replayed()) {
+            builder.header(IDEMPOTENT_REPLAYED_HEADER, "true");
+        }
+        return builder.body(result.cart());
     }
 
-    // Statistics endpoint
+    // The ETag is the cart version; carts stored before versioning get one on their next write
+    private static ResponseEntity.BodyBuilder okWithETag(Cart cart) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        return cart.getVersion() != null ? builder.eTag(String.valueOf(cart.getVersion())) : builder;
+    }
+
+    // A single strong ETag; "*" matches any existing cart
+    private static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.equals("*")) {
+            return null;
+        }
+        if (!ifMatch.matches("\"\\d{1,18}\"")) {
+            throw new IllegalArgumentException("If-Match must be a single strong ETag: " + ifMatch);
+        }
+        return Long.valueOf(ifMatch.substring(1, ifMatch.length() - 1));
+    }
+
+    // Statistics endpoint; approximate=true estimates the unique customers and reports the error bound
     @GetMapping("/statistics")
     public ResponseEntity<StatisticsResponse> getStatistics(
             @RequestParam String offerId,
             @RequestParam String action,
             @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "false") boolean approximate) {
+        Instant fromTime = from != null ? from : Instant.EPOCH;
+        Instant toTime = to != null ? to : statisticsCache.liveEnd();
+        StatisticsResponse response = approximate
+            ? cartService.getApproximateStatistics(offerId, action, fromTime, toTime)
+            : cartService.getStatistics(offerId, action, fromTime, toTime);
+        return ResponseEntity.ok(response);
+    }
+
+    // Batch statistics, one result per offer and action from a single grouped query
+    @GetMapping("/statistics/batch")
+    public ResponseEntity<List<StatisticsResponse>> getBatchStatistics(
+            @RequestParam List<String> offerIds,
+            @RequestParam List<String> actions,
+            @RequestParam(required = false) Instant from,
             @RequestParam(required = false) Instant to) {
         Instant fromTime = from != null ? from : Instant.EPOCH;
-        Instant toTime = to != null ? to : Instant.now();
-        long count = cartService.countOffersSold(offerId, action, fromTime, toTime);
-        long uniqueCustomers = cartService.countUniqueCustomers(offerId, action, fromTime, toTime);
-        long totalItems = cartService.countTotalItems(offerId, action, fromTime, toTime);
-        StatisticsResponse response = new StatisticsResponse(
-            offerId, action, fromTime, toTime, count, uniqueCustomers, totalItems
-        );
+        Instant toTime = to != null ? to : statisticsCache.liveEnd();
+        List<StatisticsResponse> response = cartService.getStatistics(offerIds, actions, fromTime, toTime);
+        return ResponseEntity.ok(response);
+    }
+
+    // Offers with the most items of an action in a recent window, counted in memory on the write path
+    @GetMapping("/statistics/trending")
+    public ResponseEntity<TrendingOffers> getTrendingOffers(
+            @RequestParam String action,
+            @RequestParam(defaultValue = "15m") String window,
+            @RequestParam(defaultValue = "10") int limit) {
+        TrendingOffers response = cartService.getTrendingOffers(Item.Action.valueOf(action).name(),
+            DurationStyle.detectAndParse(window), limit);
         return ResponseEntity.ok(response);
     }
+
+    // Statistics per minute, hour, day or week, aligned to the timezone; empty buckets are included.
+    // from is required, the epoch default of the other statistics endpoints would exceed the bucket limit
+    @GetMapping("/statistics/histogram")
+    public ResponseEntity<StatisticsHistogram> getStatisticsHistogram(
+            @RequestParam String offerId,
+            @RequestParam String action,
+            @RequestParam Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "hour") String interval,
+            @RequestParam(defaultValue = "UTC") String timezone) {
+        ZoneId zone;
+        try {
+            zone = ZoneId.of(timezone);
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Unsupported timezone: " + timezone);
+        }
+        Instant toTime = to != null ? to : statisticsCache.liveEnd();
+        StatisticsHistogram histogram = cartService.getStatisticsHistogram(offerId, action, from, toTime,
+            HistogramInterval.of(interval), zone);
+        return ResponseEntity.ok(histogram);
+    }
+
+    // Statistics export, one row per offer, action and bucket written as it is read from the cursor
+    @GetMapping("/statistics/export")
+    public void exportStatistics(
+            @RequestParam(required = false) String offerId,
+            @RequestParam(required = false) String action,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "1h") String bucket,
+            @RequestParam(defaultValue = "ndjson") String format,
+            HttpServletResponse response) throws IOException {
+        boolean csv = switch (format) {
+            case "csv" -> true;
+            case "ndjson" -> false;
+            default -> throw new IllegalArgumentException("Unsupported export format: " + format);
+        };
+        Duration bucketSize = DurationStyle.detectAndParse(bucket);
+        Instant fromTime = from != null ? from : Instant.EPOCH;
+        Instant toTime = to != null ? to : statisticsCache.liveEnd();
+
+        try (Stream<StatisticsBucket> rows = cartService.streamStatistics(offerId, action, fromTime, toTime, bucketSize)) {
+            response.setContentType(csv ? "text/csv" : "application/x-ndjson");
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+            if (csv) {
+                writer.write(StatisticsBucket.CSV_HEADER);
+                writer.write('\n');
+            }
+            for (Iterator<StatisticsBucket> it = rows.iterator(); it.hasNext(); ) {
+                StatisticsBucket row = it.next();
+                writer.write(csv ? row.toCsvRow() : objectMapper.writeValueAsString(row));
+                writer.write('\n');
+            }
+            writer.flush();
+        }
+    }
 }
@@ -0,0 +1,14 @@
+package com.shoppingcart.dto;
+
+import com.shoppingcart.model.Cart;
+
+/**
+ * A cart holding only the requested page of its items.
+ *
+ * @param cart          the cart, with the page of items
+ * @param matchingItems the number of items matching the filter, over all pages
+ */
+public record CartItemPage(
+    Cart cart,
+    int matchingItems
+) {}
@@ -0,0 +1,14 @@
+package com.shoppingcart.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * Totals of a cart, for pages that do not need its items.
+ */
+public record CartSummary(
+    String customerId,
+    int offerCount,
+    BigDecimal oneTimeTotal,
+    BigDecimal recurringTotal,
+    BigDecimal total
+) {}
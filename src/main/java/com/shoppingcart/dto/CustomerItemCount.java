@@ -0,0 +1,9 @@
+package com.shoppingcart.dto;
+
+/**
+ * Number of matching items a single customer contributes to a statistics query.
+ */
+public record CustomerItemCount(
+    String customerId,
+    long itemCount
+) {}
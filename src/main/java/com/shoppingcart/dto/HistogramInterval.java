@@ -0,0 +1,65 @@
+package com.shoppingcart.dto;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Bucket width of a statistics histogram. Buckets start at local minute, hour, day or week (Monday) boundaries of
+ * a timezone, so daily buckets follow daylight saving time, like {@code $dateTrunc} with a timezone.
+ */
+public enum HistogramInterval {
+    MINUTE(ChronoUnit.MINUTES),
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS),
+    WEEK(ChronoUnit.WEEKS);
+
+    public static final DayOfWeek FIRST_DAY_OF_WEEK = DayOfWeek.MONDAY;
+
+    private final ChronoUnit unit;
+
+    HistogramInterval(ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is not an interval name, in any case
+     */
+    public static HistogramInterval of(String value) {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported histogram interval: " + value + ", supported are "
+                + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * The {@code $dateTrunc} unit.
+     */
+    public String unit() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Start of the bucket holding the instant.
+     */
+    public Instant truncate(Instant instant, ZoneId zone) {
+        if (this == WEEK) {
+            return instant.atZone(zone).truncatedTo(ChronoUnit.DAYS)
+                .with(TemporalAdjusters.previousOrSame(FIRST_DAY_OF_WEEK)).toInstant();
+        }
+        return instant.atZone(zone).truncatedTo(unit).toInstant();
+    }
+
+    /**
+     * Start of the bucket following the one starting at {@code bucket}.
+     */
+    public Instant next(Instant bucket, ZoneId zone) {
+        return bucket.atZone(zone).plus(1, unit).toInstant();
+    }
+}
@@ -0,0 +1,21 @@
+package com.shoppingcart.dto;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk cart ingestion. Every record that is not listed in {@code errors} (and not beyond
+ * {@code maxReportedErrors}) has been inserted.
+ */
+public record IngestResult(
+    long received,
+    long inserted,
+    long failed,
+    List<RecordError> errors
+) {
+    /**
+     * @param index      zero based position of the record in the payload
+     * @param customerId the customer id of the record, if it could be read
+     * @param message    why the record was rejected
+     */
+    public record RecordError(long index, String customerId, String message) {}
+}
@@ -0,0 +1,45 @@
+package com.shoppingcart.dto;
+
+import com.shoppingcart.model.Item;
+
+import java.util.Set;
+
+/**
+ * Which items of a cart to return, and which of their fields.
+ *
+ * @param offset   matching items to skip
+ * @param limit    maximum number of items, or {@code null} for all
+ * @param offerId  only items of this offer, or {@code null} for all offers
+ * @param action   only items with this action, or {@code null} for all actions
+ * @param fields   item fields to return, or {@code null} for all fields
+ */
+public record ItemQuery(
+    int offset,
+    Integer limit,
+    String offerId,
+    Item.Action action,
+    Set<String> fields
+) {
+    public static final Set<String> ITEM_FIELDS =
+        Set.of(Item.Fields.offerId, Item.Fields.action, Item.Fields.prices, Item.Fields.actionTimestamp);
+
+    public ItemQuery {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative: " + offset);
+        }
+        if (limit != null && limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        if (fields != null && !ITEM_FIELDS.containsAll(fields)) {
+            throw new IllegalArgumentException("Unknown item fields " + fields + ", supported are " + ITEM_FIELDS);
+        }
+    }
+
+    public boolean isFiltered() {
+        return offerId != null || action != null;
+    }
+
+    public boolean isPaged() {
+        return offset > 0 || limit != null;
+    }
+}
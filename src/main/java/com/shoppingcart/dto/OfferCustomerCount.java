@@ -0,0 +1,10 @@
+package com.shoppingcart.dto;
+
+/**
+ * Number of distinct customers of one offer and action, a row of the rollup customer count.
+ */
+public record OfferCustomerCount(
+    String offerId,
+    String action,
+    long customers
+) {}
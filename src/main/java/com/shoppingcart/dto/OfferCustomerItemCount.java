@@ -0,0 +1,11 @@
+package com.shoppingcart.dto;
+
+/**
+ * Number of matching items a single customer contributes to the statistics of one offer and action.
+ */
+public record OfferCustomerItemCount(
+    String offerId,
+    String action,
+    String customerId,
+    long itemCount
+) {}
@@ -0,0 +1,12 @@
+package com.shoppingcart.dto;
+
+/**
+ * Statistics of one offer and action over a period, a row of the batch statistics query.
+ */
+public record OfferStatistics(
+    String offerId,
+    String action,
+    long count,
+    long uniqueCustomers,
+    long totalItems
+) {}
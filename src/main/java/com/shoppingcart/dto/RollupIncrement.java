@@ -0,0 +1,15 @@
+package com.shoppingcart.dto;
+
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * Change to apply to a single statistics rollup bucket.
+ */
+public record RollupIncrement(
+    String offerId,
+    String action,
+    Instant bucket,
+    long itemCount,
+    Set<String> customerIds
+) {}
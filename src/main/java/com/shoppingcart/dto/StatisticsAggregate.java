@@ -0,0 +1,13 @@
+package com.shoppingcart.dto;
+
+/**
+ * Result of the server-side statistics aggregation. Only these three numbers leave the database,
+ * no matter how many carts or items match.
+ */
+public record StatisticsAggregate(
+    long count,
+    long uniqueCustomers,
+    long totalItems
+) {
+    public static final StatisticsAggregate EMPTY = new StatisticsAggregate(0, 0, 0);
+}
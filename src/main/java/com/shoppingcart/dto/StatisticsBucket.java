@@ -0,0 +1,29 @@
+package com.shoppingcart.dto;
+
+import java.time.Instant;
+
+/**
+ * Statistics of one offer and action within one time bucket, a row of the statistics export.
+ */
+public record StatisticsBucket(
+    String offerId,
+    String action,
+    Instant bucket,
+    long count,
+    long uniqueCustomers,
+    long totalItems
+) {
+    public static final String CSV_HEADER = "offerId,action,bucket,count,uniqueCustomers,totalItems";
+
+    public String toCsvRow() {
+        return csvValue(offerId) + "," + csvValue(action) + "," + bucket + "," + count + "," + uniqueCustomers + "," + totalItems;
+    }
+
+    // RFC 4180 quoting, ids are free text
+    private static String csvValue(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
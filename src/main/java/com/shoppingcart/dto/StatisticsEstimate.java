@@ -0,0 +1,12 @@
+package com.shoppingcart.dto;
+
+/**
+ * Statistics with exact item counts and the number of unique customers estimated from HyperLogLog sketches.
+ * The exact number lies within {@code uniqueCustomersErrorBound} of the estimate with about 95% probability.
+ */
+public record StatisticsEstimate(
+    long count,
+    long uniqueCustomers,
+    long uniqueCustomersErrorBound,
+    long totalItems
+) {}
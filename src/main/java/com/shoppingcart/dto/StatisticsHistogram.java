@@ -0,0 +1,29 @@
+package com.shoppingcart.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Statistics of one offer and action per time bucket. Every bucket overlapping the period is present, buckets
+ * without items have zero counts. The first and last buckets may start before {@code from} or end after
+ * {@code to}; only items inside the period are counted.
+ */
+public record StatisticsHistogram(
+    String offerId,
+    String action,
+    Instant from,
+    Instant to,
+    HistogramInterval interval,
+    String timezone,
+    List<Bucket> buckets
+) {
+    // Bounds the response, a 90 day histogram with hourly buckets has 2160
+    public static final int MAX_BUCKETS = 10_000;
+
+    public record Bucket(
+        Instant start,
+        long count,
+        long uniqueCustomers,
+        long totalItems
+    ) {}
+}
@@ -1,7 +1,13 @@
 package com.shoppingcart.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.time.Instant;
 
+/**
+ * Statistics of one offer and action. {@code uniqueCustomersErrorBound} is only present when the unique customers
+ * were estimated: the exact number lies within that many customers of the estimate with about 95% probability.
+ */
 public record StatisticsResponse(
     String offerId,
     String action,
@@ -9,5 +15,11 @@ public record StatisticsResponse(
     Instant to,
     long count,
     long uniqueCustomers,
-    long totalItems
-) {}
+    long totalItems,
+    @JsonInclude(JsonInclude.Include.NON_NULL) Long uniqueCustomersErrorBound
+) {
+    public StatisticsResponse(String offerId, String action, Instant from, Instant to, long count,
+                              long uniqueCustomers, long totalItems) {
+        this(offerId, action, from, to, count, uniqueCustomers, totalItems, null);
+    }
+}
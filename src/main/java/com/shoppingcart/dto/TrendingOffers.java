@@ -0,0 +1,24 @@
+package com.shoppingcart.dto;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The offers with the most items of an action in a recent window, highest first. Counts are estimates: an offer's
+ * exact count lies between {@code count - error} and {@code count}. The window starts at the start of its first
+ * time slot, so {@code from} may be up to one slot earlier than {@code to - window}.
+ */
+public record TrendingOffers(
+    String action,
+    Duration window,
+    Instant from,
+    Instant to,
+    List<Offer> offers
+) {
+    public record Offer(
+        String offerId,
+        long count,
+        long error
+    ) {}
+}
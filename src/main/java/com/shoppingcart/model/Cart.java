@@ -1,6 +1,10 @@
 package com.shoppingcart.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
@@ -9,6 +13,8 @@ import lombok.Data;
 import lombok.experimental.FieldNameConstants;
 
 @Document(collection = "carts")
+// Serves the $elemMatch of the statistics queries
+@CompoundIndex(name = "items_offer_action_timestamp", def = "{'items.offerId': 1, 'items.action': 1, 'items.actionTimestamp': 1}")
 @Data
 @FieldNameConstants
 public class Cart {
@@ -16,8 +22,18 @@ public class Cart {
     private String id;
 
     @NotNull
+    @Indexed(unique = true)
     private String customerId;
 
     @NotEmpty
     private List<Item> items;
+
+    // Computed by the server, ignored in requests
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private CartTotals totals;
+
+    // Incremented on every write, serves as the ETag; null for carts stored before versioning until their next write
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
 }
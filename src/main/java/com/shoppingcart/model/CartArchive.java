@@ -0,0 +1,34 @@
+package com.shoppingcart.model;
+
+import lombok.Data;
+import lombok.experimental.FieldNameConstants;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Item history moved out of a cart by one compaction. Shaped like a {@link Cart}, so the statistics queries
+ * run unchanged over both collections.
+ */
+@Document(collection = CartArchive.COLLECTION)
+// Serves the $elemMatch of the statistics queries, like the index on the carts
+@CompoundIndex(name = "items_offer_action_timestamp", def = "{'items.offerId': 1, 'items.action': 1, 'items.actionTimestamp': 1}")
+@Data
+@FieldNameConstants
+public class CartArchive {
+    public static final String COLLECTION = "cart_archive";
+
+    @Id
+    private String id;
+
+    @Indexed
+    private String customerId;
+
+    private Instant archivedAt;
+
+    private List<Item> items;
+}
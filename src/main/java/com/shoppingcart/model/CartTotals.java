@@ -0,0 +1,97 @@
+package com.shoppingcart.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldNameConstants;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Price totals of the effective items of a cart: the last entry per offer, unless it is a {@code DELETE}.
+ * Maintained by the server on every write, so they can be read without the items.
+ */
+@Data
+@FieldNameConstants
+public class CartTotals {
+    // Offers in the cart
+    private int offerCount;
+
+    // Sum of the ONE_TIME prices
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal oneTime = BigDecimal.ZERO;
+
+    // Sum of the RECURRING prices times their recurrences
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal recurring = BigDecimal.ZERO;
+
+    // Contribution of each offer, what MODIFY and DELETE entries replace
+    @JsonIgnore
+    private List<OfferTotal> offers = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @FieldNameConstants
+    public static class OfferTotal {
+        private String offerId;
+
+        @Field(targetType = FieldType.DECIMAL128)
+        private BigDecimal oneTime;
+
+        @Field(targetType = FieldType.DECIMAL128)
+        private BigDecimal recurring;
+
+        /**
+         * A recurring price without recurrences counts once.
+         */
+        public static OfferTotal of(Item item) {
+            BigDecimal oneTime = BigDecimal.ZERO;
+            BigDecimal recurring = BigDecimal.ZERO;
+            if (item.getPrices() != null) {
+                for (Price price : item.getPrices()) {
+                    if (price.getType() == null || price.getValue() == null) {
+                        continue;
+                    }
+                    if (price.getType() == Price.PriceType.RECURRING) {
+                        int recurrences = price.getRecurrences() != null ? price.getRecurrences() : 1;
+                        recurring = recurring.add(price.getValue().multiply(BigDecimal.valueOf(recurrences)));
+                    } else {
+                        oneTime = oneTime.add(price.getValue());
+                    }
+                }
+            }
+            return new OfferTotal(item.getOfferId(), oneTime, recurring);
+        }
+    }
+
+    public static CartTotals of(List<Item> items) {
+        CartTotals totals = new CartTotals();
+        if (items != null) {
+            items.forEach(totals::apply);
+        }
+        return totals;
+    }
+
+    /**
+     * Applies an item appended to the cart: it replaces the offer's contribution, or removes it for a {@code DELETE}.
+     */
+    public void apply(Item item) {
+        offers.removeIf(offer -> offer.getOfferId() != null && offer.getOfferId().equals(item.getOfferId()));
+        if (item.getAction() != Item.Action.DELETE) {
+            offers.add(OfferTotal.of(item));
+        }
+        offerCount = offers.size();
+        oneTime = offers.stream().map(OfferTotal::getOneTime).reduce(BigDecimal.ZERO, BigDecimal::add);
+        recurring = offers.stream().map(OfferTotal::getRecurring).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    public BigDecimal getTotal() {
+        return oneTime.add(recurring);
+    }
+}
@@ -1,5 +1,6 @@
 package com.shoppingcart.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
@@ -10,6 +11,8 @@ import java.util.List;
 
 @Data
 @FieldNameConstants
+// Fields left out by an item projection are omitted
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Item {
     @NotNull
     private String offerId;
@@ -0,0 +1,38 @@
+package com.shoppingcart.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.Instant;
+import java.util.Map;
+import lombok.Data;
+import lombok.experimental.FieldNameConstants;
+
+/**
+ * Pre-aggregated statistics for one (offerId, action, time bucket) combination,
+ * maintained on the cart write path. The customers of the bucket are kept in {@link StatisticsRollupCustomer}s.
+ */
+@Document(collection = "statistics_rollups")
+@CompoundIndex(name = "offer_action_bucket", def = "{'offerId': 1, 'action': 1, 'bucket': 1}")
+@Data
+@FieldNameConstants
+public class StatisticsRollup {
+    @Id
+    private String id;
+
+    private String offerId;
+
+    private String action;
+
+    // Start of the bucket, inclusive
+    private Instant bucket;
+
+    private long itemCount;
+
+    // HyperLogLog registers of the customer ids, see HyperLogLog#toSparse; customers of deleted carts stay counted
+    private Map<String, Integer> customerSketch;
+
+    public static String idOf(String offerId, String action, Instant bucket) {
+        return offerId + "|" + action + "|" + bucket.toEpochMilli();
+    }
+}
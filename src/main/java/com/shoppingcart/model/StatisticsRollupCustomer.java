@@ -0,0 +1,34 @@
+package com.shoppingcart.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.Instant;
+import lombok.Data;
+import lombok.experimental.FieldNameConstants;
+
+/**
+ * A customer with items in one {@link StatisticsRollup} bucket. Kept as one small document per customer and bucket
+ * instead of an array in the bucket, so a bucket of a popular offer does not grow towards the document size limit.
+ */
+@Document(collection = "statistics_rollup_customers")
+@CompoundIndex(name = "offer_action_bucket_customer", def = "{'offerId': 1, 'action': 1, 'bucket': 1, 'customerId': 1}")
+@Data
+@FieldNameConstants
+public class StatisticsRollupCustomer {
+    @Id
+    private String id;
+
+    private String offerId;
+
+    private String action;
+
+    // Start of the bucket, inclusive
+    private Instant bucket;
+
+    private String customerId;
+
+    public static String idOf(String offerId, String action, Instant bucket, String customerId) {
+        return StatisticsRollup.idOf(offerId, action, bucket) + "|" + customerId;
+    }
+}
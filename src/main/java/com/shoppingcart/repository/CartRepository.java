@@ -3,7 +3,11 @@ package com.shoppingcart.repository;
 import com.shoppingcart.model.Cart;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface CartRepository extends MongoRepository<Cart, String>, CartRepositoryCustom {
     Optional<Cart> findByCustomerId(String customerId);
+
+    // Cursor-backed, the caller must close the stream
+    Stream<Cart> streamAllBy();
 }
@@ -1,9 +1,142 @@
 package com.shoppingcart.repository;
 
+import com.shoppingcart.dto.CartItemPage;
+import com.shoppingcart.dto.CustomerItemCount;
+import com.shoppingcart.dto.HistogramInterval;
+import com.shoppingcart.dto.ItemQuery;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.OfferStatistics;
+import com.shoppingcart.dto.StatisticsAggregate;
+import com.shoppingcart.dto.StatisticsBucket;
 import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.CartTotals;
+import com.shoppingcart.model.Item;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface CartRepositoryCustom {
+    /**
+     * Atomically appends an item to the cart of the given customer and applies it to the cart totals,
+     * if the cart has totals. The cart version is incremented.
+     *
+     * @param expectedVersion only append if the cart is at this version, {@code null} to append to any version
+     * @return the updated cart, or {@code null} if the customer has no cart or it is not at the expected version
+     */
+    default Cart appendItem(String customerId, Item item, Long expectedVersion) {
+        return appendItems(customerId, List.of(item), expectedVersion);
+    }
+
+    /**
+     * Atomically appends the items, in order, with a single update; the totals end up as if the items had been
+     * appended one by one, the version is incremented once.
+     *
+     * @param expectedVersion only append if the cart is at this version, {@code null} to append to any version
+     * @return the updated cart, or {@code null} if the customer has no cart or it is not at the expected version
+     */
+    Cart appendItems(String customerId, List<Item> items, Long expectedVersion);
+
+    /**
+     * The cart of the given customer with only the requested items and item fields. Filtering, paging and
+     * projection of the items run in the database.
+     */
+    Optional<CartItemPage> findItemPage(String customerId, ItemQuery query);
+
+    /**
+     * The cart of the given customer without its items, for reading the totals.
+     */
+    Optional<Cart> findWithoutItems(String customerId);
+
+    /**
+     * Sets the totals of a cart stored without them, unless items have been added since {@code cart} was read.
+     * The cart version is incremented.
+     *
+     * @param cart the cart as read, with its items
+     * @return whether the totals were set
+     */
+    boolean initTotals(Cart cart, CartTotals totals);
+
+    /**
+     * Inserts the carts with one unordered bulk write; a failing cart does not stop the others.
+     *
+     * @return error messages keyed by the position of the failed cart in {@code carts}
+     */
+    Map<Integer, String> bulkInsert(List<Cart> carts);
+
+    /**
+     * Carts with a matching item. The archived history of a customer is returned as further carts with the same
+     * customerId, so counting over the items of all returned carts counts archived items too.
+     */
     List<Cart> findCartsByItemDynamic(String offerId, String action, Instant from, Instant to);
+
+    StatisticsAggregate aggregateStatistics(String offerId, String action, Instant from, Instant to);
+
+    List<CustomerItemCount> aggregateItemCountsByCustomer(String offerId, String action, Instant from, Instant to);
+
+    /**
+     * Like {@link #aggregateItemCountsByCustomer(String, String, Instant, Instant)}, with the rows read from a
+     * server-side cursor, so the stream must be closed.
+     */
+    Stream<CustomerItemCount> streamItemCountsByCustomer(String offerId, String action, Instant from, Instant to);
+
+    /**
+     * Statistics of every combination of the given offers and actions, computed by one aggregation over the carts
+     * with a matching item. Combinations without matching items have no row.
+     */
+    List<OfferStatistics> aggregateStatistics(Collection<String> offerIds, Collection<String> actions, Instant from,
+                                              Instant to);
+
+    /**
+     * Like {@link #aggregateStatistics(Collection, Collection, Instant, Instant)}, per customer.
+     */
+    List<OfferCustomerItemCount> aggregateItemCountsByCustomer(Collection<String> offerIds, Collection<String> actions,
+                                                               Instant from, Instant to);
+
+    /**
+     * Streams per offer, action and time bucket statistics of the items in the period, ordered by offer, action
+     * and bucket. Buckets are aligned to UTC. The rows are read from a server-side cursor, so the stream must be closed.
+     *
+     * @param offerId    restricts the rows to one offer, or {@code null} for all offers
+     * @param action     restricts the rows to one action, or {@code null} for all actions
+     * @param bucketSize a whole number of seconds, minutes, hours or days
+     */
+    Stream<StatisticsBucket> streamStatisticsBuckets(String offerId, String action, Instant from, Instant to, Duration bucketSize);
+
+    /**
+     * Statistics of one offer and action per bucket of the given interval in the given timezone, ordered by bucket.
+     * Buckets without items have no row.
+     */
+    List<StatisticsBucket> aggregateHistogram(String offerId, String action, Instant from, Instant to,
+                                              HistogramInterval interval, ZoneId zone);
+
+    /**
+     * Page of the carts holding more than the given number of items, ordered by id.
+     *
+     * @param afterId id of the last cart of the previous page, or {@code null} for the first page
+     */
+    List<Cart> findCartsWithMoreItemsThan(int itemCount, String afterId, int limit);
+
+    /**
+     * Replaces the items of a cart with {@code items} and moves {@code archived} to the archive, unless items
+     * have been added since {@code cart} was read. The cart version is incremented.
+     *
+     * @param cart the cart as read before computing the compaction
+     * @return whether the cart was compacted
+     */
+    boolean compactItems(Cart cart, List<Item> items, List<Item> archived);
+
+    /**
+     * Removes the archived history of a customer.
+     *
+     * @return the removed items
+     */
+    List<Item> deleteArchivedItems(String customerId);
+
+    // The archived history, one cart per compaction; the caller must close the stream
+    Stream<Cart> streamArchivedCarts();
 }
@@ -1,30 +1,546 @@
 package com.shoppingcart.repository;
 
+import com.mongodb.client.result.UpdateResult;
+import com.shoppingcart.config.CartMetrics;
+import com.shoppingcart.dto.CartItemPage;
+import com.shoppingcart.dto.CustomerItemCount;
+import com.shoppingcart.dto.HistogramInterval;
+import com.shoppingcart.dto.ItemQuery;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.OfferStatistics;
+import com.shoppingcart.dto.StatisticsAggregate;
+import com.shoppingcart.dto.StatisticsBucket;
 import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.CartArchive;
+import com.shoppingcart.model.CartTotals;
 import com.shoppingcart.model.Item;
 import lombok.experimental.FieldNameConstants;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.util.TypeInformation;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.aggregation.BooleanOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.SetOperation;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.aggregation.UnionWithOperation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.unwind;
 
 @FieldNameConstants
 public class CartRepositoryImpl implements CartRepositoryCustom {
+    private static final String ITEM_COUNT = "itemCount";
+    private static final String BUCKET = "bucket";
+    private static final String ITEM = "item";
+    private static final String ITEMS_SCANNED = "itemsScanned";
+    private static final String LITERAL = "$literal";
+    private static final String MATCHING_ITEMS = "matchingItems";
 
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private CartMetrics cartMetrics;
+
+    /**
+     * Single round trip; concurrent appends for the same customer are serialised by the server
+     * instead of overwriting each other. The item is appended and the totals are updated by one update
+     * pipeline: the offer's contribution is replaced (or removed for a DELETE) and the sums are recomputed
+     * from the contributions, without reading the items. Carts stored before totals were maintained get
+     * a plain $push; their totals are set on the first summary read. MongoTemplate increments the version
+     * of both updates, with an expected version it is part of the query.
+     */
+    @Override
+    public Cart appendItems(String customerId, List<Item> items, Long expectedVersion) {
+        FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true);
+        Query withTotals = new Query(cartAtVersion(customerId, expectedVersion)
+            .and(Cart.Fields.totals).exists(true));
+        Cart updated = mongoTemplate.findAndModify(withTotals, appendWithTotals(items), options, Cart.class);
+        if (updated == null) {
+            Query query = new Query(cartAtVersion(customerId, expectedVersion));
+            Update update = new Update().push(Cart.Fields.items).each(items.toArray());
+            updated = mongoTemplate.findAndModify(query, update, options, Cart.class);
+        }
+        if (updated != null) {
+            // Like a save, the appended cart is measured once mapped back to a document
+            Document document = new Document();
+            mongoTemplate.getConverter().write(updated, document);
+            cartMetrics.recordCart(CartMetrics.APPEND, updated, document);
+        }
+        return updated;
+    }
+
+    private static Criteria cartAtVersion(String customerId, Long expectedVersion) {
+        Criteria criteria = Criteria.where(Cart.Fields.customerId).is(customerId);
+        return expectedVersion != null ? criteria.and(Cart.Fields.version).is(expectedVersion) : criteria;
+    }
+
+    // The stages are rendered as is, values are converted here
+    private AggregationUpdate appendWithTotals(List<Item> items) {
+        List<Object> itemDocuments = new ArrayList<>(items.size());
+        // The last item per offer decides its contribution, offers ordered by their last item like CartTotals#apply
+        Map<String, Item> lastItems = new LinkedHashMap<>();
+        for (Item item : items) {
+            itemDocuments.add(new Document(LITERAL,
+                mongoTemplate.getConverter().convertToMongoType(item, TypeInformation.of(Item.class))));
+            lastItems.remove(item.getOfferId());
+            lastItems.put(item.getOfferId(), item);
+        }
+        List<Object> contributions = new ArrayList<>();
+        for (Item item : lastItems.values()) {
+            if (item.getAction() != Item.Action.DELETE) {
+                CartTotals.OfferTotal offer = CartTotals.OfferTotal.of(item);
+                contributions.add(new Document(LITERAL,
+                    new Document(CartTotals.OfferTotal.Fields.offerId, offer.getOfferId())
+                        .append(CartTotals.OfferTotal.Fields.oneTime, new Decimal128(offer.getOneTime()))
+                        .append(CartTotals.OfferTotal.Fields.recurring, new Decimal128(offer.getRecurring()))));
+            }
+        }
+        String offers = totalsField(CartTotals.Fields.offers);
+        Document otherOffers = new Document("$filter", new Document("input", new Document("$ifNull", List.of("$" + offers, List.of())))
+            .append("as", "offer")
+            .append("cond", new Document("$not", List.of(new Document("$in", List.of(
+                "$$offer." + CartTotals.OfferTotal.Fields.offerId,
+                new Document(LITERAL, new ArrayList<>(lastItems.keySet()))))))));
+        Document append = new Document(Cart.Fields.items, new Document("$concatArrays",
+                List.of(new Document("$ifNull", List.of("$" + Cart.Fields.items, List.of())), itemDocuments)))
+            .append(offers, new Document("$concatArrays", List.of(otherOffers, contributions)));
+        Document sums = new Document(totalsField(CartTotals.Fields.offerCount), new Document("$size", "$" + offers))
+            .append(totalsField(CartTotals.Fields.oneTime),
+                new Document("$sum", "$" + offers + "." + CartTotals.OfferTotal.Fields.oneTime))
+            .append(totalsField(CartTotals.Fields.recurring),
+                new Document("$sum", "$" + offers + "." + CartTotals.OfferTotal.Fields.recurring));
+        // Set explicitly, the increment MongoTemplate adds would leave the version of unversioned carts null
+        return AggregationUpdate.from(List.of(stage("$set", append), stage("$set", sums)))
+            .set(SetOperation.set(Cart.Fields.version).toValue(ArithmeticOperators.Add.valueOf(
+                ConditionalOperators.ifNull(Cart.Fields.version).then(0)).add(1)));
+    }
+
+    private static AggregationOperation stage(String operator, Document document) {
+        return context -> new Document(operator, document);
+    }
+
+    private static String totalsField(String field) {
+        return Cart.Fields.totals + "." + field;
+    }
+
+    /**
+     * Filters the items with $filter, counts the matches, then pages them with $slice and projects the requested
+     * fields with $map, so only the page leaves the server. The offers of the totals are left out as well.
+     */
+    @Override
+    public Optional<CartItemPage> findItemPage(String customerId, ItemQuery query) {
+        String items = "$" + Cart.Fields.items;
+        Object filtered = new Document("$ifNull", List.of(items, List.of()));
+        if (query.isFiltered()) {
+            List<Document> conditions = new ArrayList<>();
+            if (query.offerId() != null) {
+                conditions.add(new Document("$eq", List.of("$$" + ITEM + "." + Item.Fields.offerId,
+                    new Document(LITERAL, query.offerId()))));
+            }
+            if (query.action() != null) {
+                conditions.add(new Document("$eq", List.of("$$" + ITEM + "." + Item.Fields.action,
+                    new Document(LITERAL, query.action().name()))));
+            }
+            filtered = new Document("$filter", new Document("input", filtered)
+                .append("as", ITEM)
+                .append("cond", new Document("$and", conditions)));
+        }
+        Object page = items;
+        if (query.isPaged()) {
+            int limit = query.limit() != null ? query.limit() : Integer.MAX_VALUE;
+            page = new Document("$slice", List.of(items, query.offset(), limit));
+        }
+        if (query.fields() != null) {
+            Document fields = new Document();
+            query.fields().forEach(field -> fields.append(field, "$$" + ITEM + "." + field));
+            page = new Document("$map", new Document("input", page).append("as", ITEM).append("in", fields));
+        }
+        Document matching = new Document(Cart.Fields.customerId, 1)
+            .append(Cart.Fields.version, 1)
+            .append(Cart.Fields.items, filtered)
+            .append(totalsField(CartTotals.Fields.offerCount), 1)
+            .append(totalsField(CartTotals.Fields.oneTime), 1)
+            .append(totalsField(CartTotals.Fields.recurring), 1);
+        Document paged = new Document(Cart.Fields.customerId, 1)
+            .append(Cart.Fields.version, 1)
+            .append(Cart.Fields.items, page)
+            .append(MATCHING_ITEMS, new Document("$size", items))
+            .append(Cart.Fields.totals, 1);
+        Aggregation aggregation = Aggregation.newAggregation(
+            match(Criteria.where(Cart.Fields.customerId).is(customerId)),
+            stage("$project", matching),
+            stage("$project", paged));
+        Document result = mongoTemplate.aggregate(aggregation, mongoTemplate.getCollectionName(Cart.class), Document.class)
+            .getUniqueMappedResult();
+        if (result == null) {
+            return Optional.empty();
+        }
+        Cart cart = mongoTemplate.getConverter().read(Cart.class, result);
+        return Optional.of(new CartItemPage(cart, result.get(MATCHING_ITEMS, Number.class).intValue()));
+    }
+
+    @Override
+    public Optional<Cart> findWithoutItems(String customerId) {
+        Query query = new Query(Criteria.where(Cart.Fields.customerId).is(customerId));
+        query.fields().exclude(Cart.Fields.items);
+        return Optional.ofNullable(mongoTemplate.findOne(query, Cart.class));
+    }
+
+    @Override
+    public boolean initTotals(Cart cart, CartTotals totals) {
+        Query query = new Query(Criteria.where(Cart.Fields.id).is(cart.getId())
+            .and(Cart.Fields.items).size(cart.getItems() != null ? cart.getItems().size() : 0)
+            .and(Cart.Fields.totals).exists(false));
+        return mongoTemplate.updateFirst(query, new Update().set(Cart.Fields.totals, totals), Cart.class)
+            .getModifiedCount() > 0;
+    }
+
+    @Override
+    public Map<Integer, String> bulkInsert(List<Cart> carts) {
+        if (carts.isEmpty()) {
+            return Map.of();
+        }
+        // Unlike MongoTemplate.insert, bulk inserts do not initialise the version
+        carts.stream().filter(cart -> cart.getVersion() == null).forEach(cart -> cart.setVersion(0L));
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Cart.class);
+        bulk.insert(carts);
+        try {
+            bulk.execute();
+            return Map.of();
+        } catch (BulkOperationException e) {
+            Map<Integer, String> failures = new HashMap<>();
+            e.getErrors().forEach(error -> failures.put(error.getIndex(), error.getMessage()));
+            return failures;
+        }
+    }
+
     @Override
     public List<Cart> findCartsByItemDynamic(String offerId, String action, Instant from, Instant to) {
-        Criteria criteria = Criteria.where(Cart.Fields.items)
+        Query query = new Query(itemElemMatch(offerId, action, from, to));
+        List<Cart> carts = new ArrayList<>(mongoTemplate.find(query, Cart.class));
+        carts.addAll(mongoTemplate.find(query, Cart.class, CartArchive.COLLECTION));
+        return carts;
+    }
+
+    /**
+     * Computes count, unique customers and total items in a single pipeline:
+     * the carts and the archived history are pre-filtered with the same $elemMatch as
+     * {@link #findCartsByItemDynamic}, the matching items of each document are counted with $filter and the
+     * counts are grouped twice (per customer, then globally) so no customer id set is ever materialised.
+     * The size of each document is summed alongside, for the scanned versus matched items metric.
+     */
+    @Override
+    public StatisticsAggregate aggregateStatistics(String offerId, String action, Instant from, Instant to) {
+        BooleanOperators.And matches = BooleanOperators.And.and(
+            ComparisonOperators.valueOf(ITEM + "." + Item.Fields.offerId).equalToValue(offerId),
+            ComparisonOperators.valueOf(ITEM + "." + Item.Fields.action).equalToValue(action),
+            ComparisonOperators.valueOf(ITEM + "." + Item.Fields.actionTimestamp).greaterThanValue(Date.from(from)),
+            ComparisonOperators.valueOf(ITEM + "." + Item.Fields.actionTimestamp).lessThanValue(Date.from(to)));
+        List<AggregationOperation> itemCounts = List.of(
+            match(itemElemMatch(offerId, action, from, to)),
+            project(Cart.Fields.customerId)
+                .and(ArrayOperators.Size.lengthOfArray(
+                    ArrayOperators.Filter.filter(Cart.Fields.items).as(ITEM).by(matches))).as(ITEM_COUNT)
+                .and(ArrayOperators.Size.lengthOfArray(Cart.Fields.items)).as(ITEMS_SCANNED));
+        List<AggregationOperation> operations = withArchive(itemCounts);
+        operations.add(group(Cart.Fields.customerId).sum(ITEM_COUNT).as(ITEM_COUNT).sum(ITEMS_SCANNED).as(ITEMS_SCANNED));
+        operations.add(group().sum(ITEM_COUNT).as("count").count().as("uniqueCustomers").sum(ITEMS_SCANNED).as(ITEMS_SCANNED));
+        TypedAggregation<Cart> aggregation = Aggregation.newAggregation(Cart.class, operations);
+        Document result = mongoTemplate.aggregate(aggregation, Document.class).getUniqueMappedResult();
+        if (result == null) {
+            return StatisticsAggregate.EMPTY;
+        }
+        long count = result.get("count", Number.class).longValue();
+        cartMetrics.recordStatisticsScan(CartMetrics.AGGREGATION, result.get(ITEMS_SCANNED, Number.class).longValue(), count);
+        return new StatisticsAggregate(count, result.get("uniqueCustomers", Number.class).longValue(), count);
+    }
+
+    @Override
+    public List<CustomerItemCount> aggregateItemCountsByCustomer(String offerId, String action, Instant from, Instant to) {
+        return mongoTemplate.aggregate(itemCountsByCustomer(offerId, action, from, to), CustomerItemCount.class)
+            .getMappedResults();
+    }
+
+    // The grouping may spill to disk; only a cursor batch of the rows is held here at a time
+    @Override
+    public Stream<CustomerItemCount> streamItemCountsByCustomer(String offerId, String action, Instant from, Instant to) {
+        TypedAggregation<Cart> aggregation = itemCountsByCustomer(offerId, action, from, to)
+            .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        return mongoTemplate.aggregateStream(aggregation, CustomerItemCount.class);
+    }
+
+    private static TypedAggregation<Cart> itemCountsByCustomer(String offerId, String action, Instant from, Instant to) {
+        List<AggregationOperation> operations = withArchive(matchingItems(offerId, action, from, to));
+        operations.add(group(Cart.Fields.customerId).count().as(ITEM_COUNT));
+        operations.add(project(ITEM_COUNT).and(Cart.Fields.customerId).previousOperation());
+        return Aggregation.newAggregation(Cart.class, operations);
+    }
+
+    /**
+     * One pass over the carts and the archived history holding an item of any of the offers: the matching items
+     * are unwound and grouped per offer, action and customer, then per offer and action.
+     */
+    @Override
+    public List<OfferStatistics> aggregateStatistics(Collection<String> offerIds, Collection<String> actions,
+                                                     Instant from, Instant to) {
+        List<AggregationOperation> operations = itemCountsByOfferAndCustomer(offerIds, actions, from, to);
+        operations.add(group(Item.Fields.offerId, Item.Fields.action)
+            .sum(ITEM_COUNT).as("count")
+            .count().as("uniqueCustomers"));
+        operations.add(project(Item.Fields.offerId, Item.Fields.action, "count", "uniqueCustomers")
+            .and("count").as("totalItems")
+            .andExclude("_id"));
+        TypedAggregation<Cart> aggregation = Aggregation.newAggregation(Cart.class, operations);
+        return mongoTemplate.aggregate(aggregation, OfferStatistics.class).getMappedResults();
+    }
+
+    @Override
+    public List<OfferCustomerItemCount> aggregateItemCountsByCustomer(Collection<String> offerIds,
+                                                                      Collection<String> actions, Instant from, Instant to) {
+        List<AggregationOperation> operations = itemCountsByOfferAndCustomer(offerIds, actions, from, to);
+        operations.add(project(Item.Fields.offerId, Item.Fields.action, Cart.Fields.customerId, ITEM_COUNT)
+            .andExclude("_id"));
+        TypedAggregation<Cart> aggregation = Aggregation.newAggregation(Cart.class, operations);
+        return mongoTemplate.aggregate(aggregation, OfferCustomerItemCount.class).getMappedResults();
+    }
+
+    private static List<AggregationOperation> itemCountsByOfferAndCustomer(Collection<String> offerIds,
+                                                                           Collection<String> actions, Instant from, Instant to) {
+        List<AggregationOperation> operations = withArchive(List.of(
+            match(Criteria.where(Cart.Fields.items).elemMatch(itemCriteria("", offerIds, actions, from, to))),
+            unwind(Cart.Fields.items),
+            match(itemCriteria(Cart.Fields.items + ".", offerIds, actions, from, to)),
+            project(Cart.Fields.customerId)
+                .and(itemField(Item.Fields.offerId)).as(Item.Fields.offerId)
+                .and(itemField(Item.Fields.action)).as(Item.Fields.action)));
+        operations.add(group(Item.Fields.offerId, Item.Fields.action, Cart.Fields.customerId).count().as(ITEM_COUNT));
+        return operations;
+    }
+
+    /**
+     * Truncates every matching item timestamp to its bucket with $dateTrunc, groups per bucket and customer and then
+     * per bucket, like {@link #aggregateStatistics} does for a single period, over the carts and the archive. The grouping runs in the database
+     * (spilling to disk when needed) and the rows are read through a cursor, so memory here does not grow with
+     * the number of buckets.
+     */
+    @Override
+    public Stream<StatisticsBucket> streamStatisticsBuckets(String offerId, String action, Instant from, Instant to,
+                                                            Duration bucketSize) {
+        Criteria itemCriteria = itemCriteria(offerId, action, from, to);
+        List<AggregationOperation> operations = withArchive(List.of(
+            match(Criteria.where(Cart.Fields.items).elemMatch(itemCriteria)),
+            unwind(Cart.Fields.items),
+            match(itemCriteria(itemField(Item.Fields.offerId), itemField(Item.Fields.action),
+                itemField(Item.Fields.actionTimestamp), offerId, action, from, to)),
+            project(Cart.Fields.customerId)
+                .and(itemField(Item.Fields.offerId)).as(Item.Fields.offerId)
+                .and(itemField(Item.Fields.action)).as(Item.Fields.action)
+                .and(truncate(itemField(Item.Fields.actionTimestamp), bucketSize)).as(BUCKET)));
+        operations.add(group(Item.Fields.offerId, Item.Fields.action, BUCKET,
+            Cart.Fields.customerId).count().as(ITEM_COUNT));
+        operations.add(group(Item.Fields.offerId, Item.Fields.action, BUCKET)
+            .sum(ITEM_COUNT).as("count")
+            .count().as("uniqueCustomers"));
+        operations.add(project(Item.Fields.offerId, Item.Fields.action, BUCKET,
+                "count", "uniqueCustomers")
+            .and("count").as("totalItems")
+            .andExclude("_id"));
+        operations.add(sort(Sort.by(Item.Fields.offerId, Item.Fields.action, BUCKET)));
+        TypedAggregation<Cart> aggregation = Aggregation.newAggregation(Cart.class, operations)
+            .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        return mongoTemplate.aggregateStream(aggregation, StatisticsBucket.class);
+    }
+
+    /**
+     * Like the export, for one offer and action: the matching items are truncated to their local bucket with
+     * $dateTrunc and grouped per bucket and customer, then per bucket. Only non-empty buckets leave the server.
+     */
+    @Override
+    public List<StatisticsBucket> aggregateHistogram(String offerId, String action, Instant from, Instant to,
+                                                     HistogramInterval interval, ZoneId zone) {
+        DateOperators.DateTrunc bucket = DateOperators.dateOf(itemField(Item.Fields.actionTimestamp))
+            .truncate(interval.unit())
+            .withTimezone(DateOperators.Timezone.valueOf(zone.equals(ZoneOffset.UTC) ? "UTC" : zone.getId()));
+        if (interval == HistogramInterval.WEEK) {
+            bucket = bucket.startOfWeek(HistogramInterval.FIRST_DAY_OF_WEEK);
+        }
+        List<AggregationOperation> itemBuckets = new ArrayList<>(matchingItems(offerId, action, from, to));
+        itemBuckets.add(project(Cart.Fields.customerId).and(bucket).as(BUCKET));
+        List<AggregationOperation> operations = withArchive(itemBuckets);
+        operations.add(group(BUCKET, Cart.Fields.customerId).count().as(ITEM_COUNT));
+        operations.add(group(BUCKET).sum(ITEM_COUNT).as("count").count().as("uniqueCustomers"));
+        operations.add(sort(Sort.by("_id")));
+        TypedAggregation<Cart> aggregation = Aggregation.newAggregation(Cart.class, operations);
+        return mongoTemplate.aggregate(aggregation, Document.class).getMappedResults().stream()
+            .map(row -> {
+                long count = row.get("count", Number.class).longValue();
+                return new StatisticsBucket(offerId, action, row.getDate("_id").toInstant(), count,
+                    row.get("uniqueCustomers", Number.class).longValue(), count);
+            })
+            .toList();
+    }
+
+    private static DateOperators.DateTrunc truncate(String field, Duration bucketSize) {
+        long seconds = bucketSize.getSeconds();
+        if (seconds <= 0 || bucketSize.getNano() != 0) {
+            throw new IllegalArgumentException("Bucket size must be a positive whole number of seconds: " + bucketSize);
+        }
+        DateOperators.DateOperatorFactory date = DateOperators.dateOf(field);
+        if (seconds % 86400 == 0) {
+            return date.truncate("day").binSize(Math.toIntExact(seconds / 86400));
+        } else if (seconds % 3600 == 0) {
+            return date.truncate("hour").binSize(Math.toIntExact(seconds / 3600));
+        } else if (seconds % 60 == 0) {
+            return date.truncate("minute").binSize(Math.toIntExact(seconds / 60));
+        }
+        return date.truncate("second").binSize(Math.toIntExact(seconds));
+    }
+
+    /**
+     * Pages by {@code _id}. Ids that are valid ObjectIds are stored as ObjectIds, other client supplied ids as
+     * strings, and MongoDB sorts all strings before all ObjectIds. A comparison only matches values of its own
+     * type, so after a string id the page continues with the greater strings and then every ObjectId.
+     */
+    @Override
+    public List<Cart> findCartsWithMoreItemsThan(int itemCount, String afterId, int limit) {
+        // Not served by an index: meant for background batches only
+        Criteria criteria = Criteria.where(Cart.Fields.items + "." + itemCount).exists(true);
+        if (afterId != null && ObjectId.isValid(afterId)) {
+            criteria = criteria.and(Cart.Fields.id).gt(new ObjectId(afterId));
+        } else if (afterId != null) {
+            criteria = criteria.orOperator(
+                Criteria.where(Cart.Fields.id).gt(afterId),
+                Criteria.where(Cart.Fields.id).type(JsonSchemaObject.Type.objectIdType()));
+        }
+        Query query = new Query(criteria).with(Sort.by(Cart.Fields.id)).limit(limit);
+        return mongoTemplate.find(query, Cart.class);
+    }
+
+    /**
+     * Without a transaction: the history is inserted into the archive first, then the items are replaced,
+     * provided the cart still has as many items as when it was read. If it does not, the archived copy is
+     * removed again. Statistics may count the archived items twice in between.
+     */
+    @Override
+    public boolean compactItems(Cart cart, List<Item> items, List<Item> archived) {
+        CartArchive archive = new CartArchive();
+        archive.setCustomerId(cart.getCustomerId());
+        archive.setArchivedAt(Instant.now());
+        archive.setItems(archived);
+        mongoTemplate.insert(archive);
+        Query query = new Query(Criteria.where(Cart.Fields.id).is(cart.getId())
+            .and(Cart.Fields.items).size(cart.getItems().size()));
+        UpdateResult result = mongoTemplate.updateFirst(query, new Update().set(Cart.Fields.items, items), Cart.class);
+        if (result.getMatchedCount() == 0) {
+            mongoTemplate.remove(archive);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public List<Item> deleteArchivedItems(String customerId) {
+        Query query = new Query(Criteria.where(CartArchive.Fields.customerId).is(customerId));
+        return mongoTemplate.findAllAndRemove(query, CartArchive.class).stream()
+            .flatMap(archive -> archive.getItems().stream())
+            .toList();
+    }
+
+    @Override
+    public Stream<Cart> streamArchivedCarts() {
+        return mongoTemplate.stream(new Query(), Cart.class, CartArchive.COLLECTION);
+    }
+
+    /**
+     * Runs the given stages over the carts and over the archive, with the results of both in one stream.
+     */
+    private static List<AggregationOperation> withArchive(List<AggregationOperation> stages) {
+        List<AggregationOperation> operations = new ArrayList<>(stages);
+        operations.add(UnionWithOperation.unionWith(CartArchive.COLLECTION).pipeline(stages).mapFieldsTo(Cart.class));
+        return operations;
+    }
+
+    // Stages producing one document per matching item
+    private static List<AggregationOperation> matchingItems(String offerId, String action, Instant from, Instant to) {
+        return List.of(
+            match(itemElemMatch(offerId, action, from, to)),
+            unwind(Cart.Fields.items),
+            match(Criteria.where(itemField(Item.Fields.offerId)).is(offerId)
+                .and(itemField(Item.Fields.action)).is(action)
+                .and(itemField(Item.Fields.actionTimestamp)).gt(from).lt(to)));
+    }
+
+    // Like itemElemMatch, but offer and action are optional
+    private static Criteria itemCriteria(String offerId, String action, Instant from, Instant to) {
+        return itemCriteria(Item.Fields.offerId, Item.Fields.action, Item.Fields.actionTimestamp, offerId, action, from, to);
+    }
+
+    private static Criteria itemCriteria(String offerIdField, String actionField, String timestampField,
+                                         String offerId, String action, Instant from, Instant to) {
+        Criteria criteria = new Criteria();
+        if (offerId != null) {
+            criteria = criteria.and(offerIdField).is(offerId);
+        }
+        if (action != null) {
+            criteria = criteria.and(actionField).is(action);
+        }
+        return criteria.and(timestampField).gt(from).lt(to);
+    }
+
+    // Items of any of the offers with any of the actions
+    private static Criteria itemCriteria(String prefix, Collection<String> offerIds, Collection<String> actions,
+                                         Instant from, Instant to) {
+        return Criteria.where(prefix + Item.Fields.offerId).in(offerIds)
+            .and(prefix + Item.Fields.action).in(actions)
+            .and(prefix + Item.Fields.actionTimestamp).gt(from).lt(to);
+    }
+
+    private static Criteria itemElemMatch(String offerId, String action, Instant from, Instant to) {
+        return Criteria.where(Cart.Fields.items)
             .elemMatch(
                 Criteria.where(Item.Fields.offerId).is(offerId)
                     .and(Item.Fields.action).is(action)
                     .and(Item.Fields.actionTimestamp).gt(from).lt(to)
             );
-        Query query = new Query(criteria);
-        return mongoTemplate.find(query, Cart.class);
+    }
+
+    private static String itemField(String field) {
+        return Cart.Fields.items + "." + field;
     }
 }
@@ -0,0 +1,25 @@
+package com.shoppingcart.repository;
+
+import com.shoppingcart.model.StatisticsRollup;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface StatisticsRollupRepository extends MongoRepository<StatisticsRollup, String>, StatisticsRollupRepositoryCustom {
+    // Rollups written before the customers had their own collection keep a customers array until the next
+    // rebuild; it is never read. Exact statistics do not need the customer sketches either.
+    @Query(value = "{ 'offerId': ?0, 'action': ?1, 'bucket': { $gte: ?2, $lt: ?3 } }",
+        fields = "{ 'customers': 0, 'customerSketch': 0 }")
+    List<StatisticsRollup> findBuckets(String offerId, String action, Instant fromInclusive, Instant toExclusive);
+
+    // Approximate statistics only read the customer sketches
+    @Query(value = "{ 'offerId': ?0, 'action': ?1, 'bucket': { $gte: ?2, $lt: ?3 } }", fields = "{ 'customers': 0 }")
+    List<StatisticsRollup> findSketches(String offerId, String action, Instant fromInclusive, Instant toExclusive);
+
+    @Query(value = "{ 'offerId': { $in: ?0 }, 'action': { $in: ?1 }, 'bucket': { $gte: ?2, $lt: ?3 } }",
+        fields = "{ 'customers': 0, 'customerSketch': 0 }")
+    List<StatisticsRollup> findBuckets(Collection<String> offerIds, Collection<String> actions, Instant fromInclusive,
+                                       Instant toExclusive);
+}
@@ -0,0 +1,35 @@
+package com.shoppingcart.repository;
+
+import com.shoppingcart.dto.OfferCustomerCount;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.RollupIncrement;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface StatisticsRollupRepositoryCustom {
+    void increment(Collection<RollupIncrement> increments);
+
+    void decrement(Collection<RollupIncrement> increments);
+
+    /**
+     * Counts, on the server, the distinct customers with items in the buckets of the offer and action starting in
+     * the range, leaving out the given customers.
+     *
+     * @param countedCustomerIds customers already counted by the caller
+     */
+    long countCustomers(String offerId, String action, Instant fromInclusive, Instant toExclusive,
+                        Collection<String> countedCustomerIds);
+
+    /**
+     * Like {@link #countCustomers(String, String, Instant, Instant, Collection)}, for every combination of the given
+     * offers and actions with one aggregation. Combinations without customers have no row.
+     *
+     * @param counted customers already counted by the caller, per offer and action
+     */
+    List<OfferCustomerCount> countCustomers(Collection<String> offerIds, Collection<String> actions,
+                                            Instant fromInclusive, Instant toExclusive,
+                                            Collection<OfferCustomerItemCount> counted);
+
+    void deleteAllCustomers();
+}
@@ -0,0 +1,172 @@
+package com.shoppingcart.repository;
+
+import com.shoppingcart.dto.OfferCustomerCount;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.RollupIncrement;
+import com.shoppingcart.model.StatisticsRollup;
+import com.shoppingcart.model.StatisticsRollupCustomer;
+import com.shoppingcart.util.HyperLogLog;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.count;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+
+public class StatisticsRollupRepositoryImpl implements StatisticsRollupRepositoryCustom {
+    private static final String CUSTOMERS = "customers";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Upserts every bucket in one unordered bulk write, adding the item counts and raising the customer sketch
+     * registers with {@code $max}, then upserts one document per customer and bucket in a second one. Neither is
+     * atomic with the cart write or with the other: a failure in between leaves the rollups behind the carts until
+     * they are rebuilt.
+     */
+    @Override
+    public void increment(Collection<RollupIncrement> increments) {
+        if (increments.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, StatisticsRollup.class);
+        BulkOperations customers = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, StatisticsRollupCustomer.class);
+        for (RollupIncrement increment : increments) {
+            Update update = new Update()
+                .setOnInsert(StatisticsRollup.Fields.offerId, increment.offerId())
+                .setOnInsert(StatisticsRollup.Fields.action, increment.action())
+                .setOnInsert(StatisticsRollup.Fields.bucket, increment.bucket())
+                .inc(StatisticsRollup.Fields.itemCount, increment.itemCount());
+            HyperLogLog.of(increment.customerIds()).toSparse().forEach((index, rank) ->
+                update.max(StatisticsRollup.Fields.customerSketch + "." + index, rank));
+            bulk.upsert(byId(increment), update);
+            for (String customerId : increment.customerIds()) {
+                customers.upsert(byId(increment, customerId), new Update()
+                    .setOnInsert(StatisticsRollupCustomer.Fields.offerId, increment.offerId())
+                    .setOnInsert(StatisticsRollupCustomer.Fields.action, increment.action())
+                    .setOnInsert(StatisticsRollupCustomer.Fields.bucket, increment.bucket())
+                    .setOnInsert(StatisticsRollupCustomer.Fields.customerId, customerId));
+            }
+        }
+        bulk.execute();
+        customers.execute();
+    }
+
+    /**
+     * Subtracts the item counts and removes the customers. Only used when a whole cart goes away,
+     * so a customer never has other items left in the affected buckets. The customer sketch cannot forget
+     * customers and is left as it is until the next rebuild.
+     */
+    @Override
+    public void decrement(Collection<RollupIncrement> increments) {
+        if (increments.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, StatisticsRollup.class);
+        BulkOperations customers = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, StatisticsRollupCustomer.class);
+        for (RollupIncrement increment : increments) {
+            bulk.updateOne(byId(increment), new Update().inc(StatisticsRollup.Fields.itemCount, -increment.itemCount()));
+            for (String customerId : increment.customerIds()) {
+                customers.remove(byId(increment, customerId));
+            }
+        }
+        bulk.execute();
+        customers.execute();
+    }
+
+    /**
+     * Groups the customer documents by customer id and counts the groups, so only the count leaves the server.
+     */
+    @Override
+    public long countCustomers(String offerId, String action, Instant fromInclusive, Instant toExclusive,
+                               Collection<String> countedCustomerIds) {
+        Criteria criteria = Criteria.where(StatisticsRollupCustomer.Fields.offerId).is(offerId)
+            .and(StatisticsRollupCustomer.Fields.action).is(action)
+            .and(StatisticsRollupCustomer.Fields.bucket).gte(fromInclusive).lt(toExclusive);
+        if (!countedCustomerIds.isEmpty()) {
+            criteria = criteria.and(StatisticsRollupCustomer.Fields.customerId).nin(countedCustomerIds);
+        }
+        TypedAggregation<StatisticsRollupCustomer> aggregation = Aggregation.newAggregation(StatisticsRollupCustomer.class,
+                match(criteria),
+                group(StatisticsRollupCustomer.Fields.customerId),
+                count().as(CUSTOMERS))
+            .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        Document result = mongoTemplate.aggregate(aggregation, Document.class).getUniqueMappedResult();
+        return result != null ? result.get(CUSTOMERS, Number.class).longValue() : 0;
+    }
+
+    /**
+     * One aggregation for all combinations: each combination leaves out its own counted customers, the documents
+     * are grouped per offer, action and customer, then per offer and action.
+     */
+    @Override
+    public List<OfferCustomerCount> countCustomers(Collection<String> offerIds, Collection<String> actions,
+                                                   Instant fromInclusive, Instant toExclusive,
+                                                   Collection<OfferCustomerItemCount> counted) {
+        Map<List<String>, Set<String>> countedByOfferAction = new HashMap<>();
+        counted.forEach(customer -> countedByOfferAction
+            .computeIfAbsent(List.of(customer.offerId(), customer.action()), key -> new HashSet<>())
+            .add(customer.customerId()));
+        List<Criteria> combinations = new ArrayList<>();
+        for (String offerId : new LinkedHashSet<>(offerIds)) {
+            for (String action : new LinkedHashSet<>(actions)) {
+                Criteria combination = Criteria.where(StatisticsRollupCustomer.Fields.offerId).is(offerId)
+                    .and(StatisticsRollupCustomer.Fields.action).is(action);
+                Set<String> countedCustomerIds = countedByOfferAction.get(List.of(offerId, action));
+                if (countedCustomerIds != null) {
+                    combination = combination.and(StatisticsRollupCustomer.Fields.customerId).nin(countedCustomerIds);
+                }
+                combinations.add(combination);
+            }
+        }
+        if (combinations.isEmpty()) {
+            return List.of();
+        }
+        Criteria criteria = Criteria.where(StatisticsRollupCustomer.Fields.bucket).gte(fromInclusive).lt(toExclusive)
+            .orOperator(combinations);
+        TypedAggregation<StatisticsRollupCustomer> aggregation = Aggregation.newAggregation(StatisticsRollupCustomer.class,
+                match(criteria),
+                group(StatisticsRollupCustomer.Fields.offerId, StatisticsRollupCustomer.Fields.action,
+                    StatisticsRollupCustomer.Fields.customerId),
+                group(StatisticsRollupCustomer.Fields.offerId, StatisticsRollupCustomer.Fields.action)
+                    .count().as(CUSTOMERS),
+                project(StatisticsRollupCustomer.Fields.offerId, StatisticsRollupCustomer.Fields.action, CUSTOMERS)
+                    .andExclude("_id"))
+            .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        return mongoTemplate.aggregate(aggregation, OfferCustomerCount.class).getMappedResults();
+    }
+
+    @Override
+    public void deleteAllCustomers() {
+        mongoTemplate.remove(new Query(), StatisticsRollupCustomer.class);
+    }
+
+    private static Query byId(RollupIncrement increment) {
+        return new Query(Criteria.where("_id")
+            .is(StatisticsRollup.idOf(increment.offerId(), increment.action(), increment.bucket())));
+    }
+
+    private static Query byId(RollupIncrement increment, String customerId) {
+        return new Query(Criteria.where("_id")
+            .is(StatisticsRollupCustomer.idOf(increment.offerId(), increment.action(), increment.bucket(), customerId)));
+    }
+}
@@ -0,0 +1,539 @@
+package com.shoppingcart.repository.inmemory;
+
+import com.shoppingcart.dto.CartItemPage;
+import com.shoppingcart.dto.CustomerItemCount;
+import com.shoppingcart.dto.HistogramInterval;
+import com.shoppingcart.dto.ItemQuery;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.OfferStatistics;
+import com.shoppingcart.dto.StatisticsAggregate;
+import com.shoppingcart.dto.StatisticsBucket;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.CartTotals;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.model.Price;
+import com.shoppingcart.repository.CartRepository;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * In-memory {@link CartRepository}, active with the {@code in-memory} profile.
+ * <p>
+ * Besides the carts by id it keeps the two indexes the Mongo collection has: the unique customerId index, and the
+ * items by offerId, action and actionTimestamp, which serves every statistics query with a range lookup instead
+ * of a scan over all carts. The item index covers the archived history as well, like the union of the cart and
+ * archive collections does. All three are concurrent maps: the customer counts per timestamp are immutable maps
+ * replaced on every change, so queries read them without a lock while carts are written.
+ */
+@Repository
+@Profile("in-memory")
+public class InMemoryCartRepository extends InMemoryMongoRepository<Cart> implements CartRepository {
+    // Reference of $dateTrunc bins
+    private static final Instant BIN_REFERENCE = Instant.parse("2000-01-01T00:00:00Z");
+    private static final Comparator<OfferAction> OFFER_ACTION_ORDER =
+        Comparator.comparing(OfferAction::offerId).thenComparing(OfferAction::action);
+
+    private record OfferAction(String offerId, String action) {}
+
+    private final ConcurrentMap<String, String> idsByCustomerId = new ConcurrentHashMap<>();
+    // offer and action -> actionTimestamp -> customer id -> number of items, in carts and archive
+    private final ConcurrentMap<OfferAction, ConcurrentNavigableMap<Instant, Map<String, Integer>>> itemIndex =
+        new ConcurrentHashMap<>();
+    // customer id -> item history moved out of the cart, one immutable list per compaction
+    private final ConcurrentMap<String, List<List<Item>>> archive = new ConcurrentHashMap<>();
+
+    @Override
+    protected String getId(Cart cart) {
+        return cart.getId();
+    }
+
+    @Override
+    protected void setId(Cart cart, String id) {
+        cart.setId(id);
+    }
+
+    @Override
+    protected boolean isVersioned() {
+        return true;
+    }
+
+    @Override
+    protected Long getVersion(Cart cart) {
+        return cart.getVersion();
+    }
+
+    @Override
+    protected void setVersion(Cart cart, Long version) {
+        cart.setVersion(version);
+    }
+
+    // Like $inc, which sets a missing version to 1
+    private static void incrementVersion(Cart stored) {
+        stored.setVersion(stored.getVersion() != null ? stored.getVersion() + 1 : 1L);
+    }
+
+    @Override
+    protected Cart copy(Cart cart) {
+        Cart copy = new Cart();
+        copy.setId(cart.getId());
+        copy.setCustomerId(cart.getCustomerId());
+        copy.setVersion(cart.getVersion());
+        if (cart.getItems() != null) {
+            copy.setItems(copy(cart.getItems()));
+        }
+        if (cart.getTotals() != null) {
+            copy.setTotals(copy(cart.getTotals()));
+        }
+        return copy;
+    }
+
+    private static CartTotals copy(CartTotals totals) {
+        CartTotals copy = new CartTotals();
+        copy.setOfferCount(totals.getOfferCount());
+        copy.setOneTime(totals.getOneTime());
+        copy.setRecurring(totals.getRecurring());
+        List<CartTotals.OfferTotal> offers = new ArrayList<>(totals.getOffers().size());
+        totals.getOffers().forEach(offer ->
+            offers.add(new CartTotals.OfferTotal(offer.getOfferId(), offer.getOneTime(), offer.getRecurring())));
+        copy.setOffers(offers);
+        return copy;
+    }
+
+    private static List<Item> copy(List<Item> items) {
+        List<Item> copies = new ArrayList<>(items.size());
+        items.forEach(item -> copies.add(copy(item)));
+        return copies;
+    }
+
+    private static Item copy(Item item) {
+        Item copy = new Item();
+        copy.setOfferId(item.getOfferId());
+        copy.setAction(item.getAction());
+        // Millisecond precision like MongoDB dates; statistics treat the millisecond before a bucket as its edge
+        copy.setActionTimestamp(item.getActionTimestamp() != null
+            ? item.getActionTimestamp().truncatedTo(ChronoUnit.MILLIS) : null);
+        if (item.getPrices() != null) {
+            List<Price> prices = new ArrayList<>(item.getPrices().size());
+            for (Price price : item.getPrices()) {
+                Price priceCopy = new Price();
+                priceCopy.setType(price.getType());
+                priceCopy.setValue(price.getValue());
+                priceCopy.setRecurrences(price.getRecurrences());
+                prices.add(priceCopy);
+            }
+            copy.setPrices(prices);
+        }
+        return copy;
+    }
+
+    @Override
+    protected void claimUnique(Cart cart, Cart previous) {
+        String existingId = idsByCustomerId.putIfAbsent(cart.getCustomerId(), cart.getId());
+        if (existingId != null && !existingId.equals(cart.getId())) {
+            throw new DuplicateKeyException("E11000 duplicate key error, customerId: " + cart.getCustomerId());
+        }
+        if (previous != null && !previous.getCustomerId().equals(cart.getCustomerId())) {
+            releaseUnique(previous);
+        }
+    }
+
+    @Override
+    protected void releaseUnique(Cart cart) {
+        idsByCustomerId.remove(cart.getCustomerId(), cart.getId());
+    }
+
+    @Override
+    protected void index(Cart cart) {
+        indexItems(cart.getCustomerId(), cart.getItems());
+    }
+
+    private void indexItems(String customerId, List<Item> items) {
+        if (items != null) {
+            items.forEach(item -> indexItem(customerId, item));
+        }
+    }
+
+    private void indexItem(String customerId, Item item) {
+        if (item.getActionTimestamp() == null) {
+            return;
+        }
+        itemIndex.computeIfAbsent(offerAction(item), key -> new ConcurrentSkipListMap<>())
+            .compute(item.getActionTimestamp(), (timestamp, customers) -> adjust(customers, customerId, 1));
+    }
+
+    @Override
+    protected void unindex(Cart cart) {
+        unindexItems(cart.getCustomerId(), cart.getItems());
+    }
+
+    private void unindexItems(String customerId, List<Item> items) {
+        if (items == null) {
+            return;
+        }
+        for (Item item : items) {
+            NavigableMap<Instant, Map<String, Integer>> timestamps = itemIndex.get(offerAction(item));
+            if (timestamps != null && item.getActionTimestamp() != null) {
+                timestamps.computeIfPresent(item.getActionTimestamp(), (timestamp, customers) -> adjust(customers, customerId, -1));
+            }
+        }
+    }
+
+    /**
+     * A copy of the customer counts with the customer's count changed, or {@code null} when none is left. The maps
+     * are never modified once stored, and the function has no side effects, as the skip list may call it again
+     * when a concurrent write to the same timestamp wins.
+     */
+    private static Map<String, Integer> adjust(Map<String, Integer> customers, String customerId, int delta) {
+        Map<String, Integer> adjusted = customers != null ? new HashMap<>(customers) : new HashMap<>();
+        int count = adjusted.getOrDefault(customerId, 0) + delta;
+        if (count > 0) {
+            adjusted.put(customerId, count);
+        } else {
+            adjusted.remove(customerId);
+        }
+        return adjusted.isEmpty() ? null : adjusted;
+    }
+
+    private static OfferAction offerAction(Item item) {
+        return new OfferAction(item.getOfferId(), item.getAction() != null ? item.getAction().name() : null);
+    }
+
+    @Override
+    public Optional<Cart> findByCustomerId(String customerId) {
+        return Optional.ofNullable(stored(idsByCustomerId.get(customerId))).map(this::copy);
+    }
+
+    @Override
+    public Stream<Cart> streamAllBy() {
+        return findAll().stream();
+    }
+
+    @Override
+    public Cart appendItems(String customerId, List<Item> items, Long expectedVersion) {
+        String id = idsByCustomerId.get(customerId);
+        if (id == null) {
+            return null;
+        }
+        AtomicReference<Cart> appended = new AtomicReference<>();
+        update(id, stored -> {
+            if (stored == null || !customerId.equals(stored.getCustomerId())
+                    || (expectedVersion != null && !expectedVersion.equals(stored.getVersion()))) {
+                return stored;
+            }
+            Cart updated = copy(stored);
+            incrementVersion(updated);
+            if (updated.getItems() == null) {
+                updated.setItems(new ArrayList<>());
+            }
+            for (Item item : items) {
+                Item storedItem = copy(item);
+                updated.getItems().add(storedItem);
+                indexItem(customerId, storedItem);
+                if (updated.getTotals() != null) {
+                    updated.getTotals().apply(storedItem);
+                }
+            }
+            appended.set(updated);
+            return updated;
+        });
+        return appended.get() != null ? copy(appended.get()) : null;
+    }
+
+    @Override
+    public Optional<CartItemPage> findItemPage(String customerId, ItemQuery query) {
+        return findByCustomerId(customerId).map(cart -> {
+            List<Item> matching = cart.getItems() == null ? List.of() : cart.getItems().stream()
+                .filter(item -> query.offerId() == null || query.offerId().equals(item.getOfferId()))
+                .filter(item -> query.action() == null || query.action() == item.getAction())
+                .toList();
+            int from = Math.min(query.offset(), matching.size());
+            int to = query.limit() != null ? (int) Math.min((long) from + query.limit(), matching.size()) : matching.size();
+            List<Item> page = new ArrayList<>(matching.subList(from, to));
+            if (query.fields() != null) {
+                page.replaceAll(item -> project(item, query.fields()));
+            }
+            cart.setItems(page);
+            if (cart.getTotals() != null) {
+                cart.getTotals().setOffers(null);
+            }
+            return new CartItemPage(cart, matching.size());
+        });
+    }
+
+    private static Item project(Item item, Set<String> fields) {
+        Item projected = new Item();
+        if (fields.contains(Item.Fields.offerId)) {
+            projected.setOfferId(item.getOfferId());
+        }
+        if (fields.contains(Item.Fields.action)) {
+            projected.setAction(item.getAction());
+        }
+        if (fields.contains(Item.Fields.prices)) {
+            projected.setPrices(item.getPrices());
+        }
+        if (fields.contains(Item.Fields.actionTimestamp)) {
+            projected.setActionTimestamp(item.getActionTimestamp());
+        }
+        return projected;
+    }
+
+    @Override
+    public Optional<Cart> findWithoutItems(String customerId) {
+        return findByCustomerId(customerId).map(cart -> {
+            cart.setItems(null);
+            return cart;
+        });
+    }
+
+    @Override
+    public boolean initTotals(Cart cart, CartTotals totals) {
+        int itemCount = cart.getItems() != null ? cart.getItems().size() : 0;
+        AtomicBoolean initialized = new AtomicBoolean();
+        update(cart.getId(), stored -> {
+            if (stored == null || stored.getTotals() != null
+                    || (stored.getItems() != null ? stored.getItems().size() : 0) != itemCount) {
+                return stored;
+            }
+            Cart updated = copy(stored);
+            updated.setTotals(copy(totals));
+            incrementVersion(updated);
+            initialized.set(true);
+            return updated;
+        });
+        return initialized.get();
+    }
+
+    @Override
+    public Map<Integer, String> bulkInsert(List<Cart> carts) {
+        Map<Integer, String> failures = new HashMap<>();
+        for (int i = 0; i < carts.size(); i++) {
+            try {
+                insert(carts.get(i));
+            } catch (DuplicateKeyException e) {
+                failures.put(i, e.getMessage());
+            }
+        }
+        return failures;
+    }
+
+    @Override
+    public List<Cart> findCartsByItemDynamic(String offerId, String action, Instant from, Instant to) {
+        List<Cart> result = new ArrayList<>();
+        for (String customerId : itemCountsByCustomer(offerId, action, from, to).keySet()) {
+            Cart stored = stored(idsByCustomerId.get(customerId));
+            if (stored != null && anyMatches(stored.getItems(), offerId, action, from, to)) {
+                result.add(copy(stored));
+            }
+            archive.getOrDefault(customerId, List.of()).stream()
+                .filter(items -> anyMatches(items, offerId, action, from, to))
+                .forEach(items -> result.add(archivedCart(customerId, items)));
+        }
+        return result;
+    }
+
+    private static boolean anyMatches(List<Item> items, String offerId, String action, Instant from, Instant to) {
+        return items != null && items.stream().anyMatch(item -> offerAction(item).equals(new OfferAction(offerId, action))
+            && item.getActionTimestamp() != null
+            && item.getActionTimestamp().isAfter(from) && item.getActionTimestamp().isBefore(to));
+    }
+
+    private Cart archivedCart(String customerId, List<Item> items) {
+        Cart cart = new Cart();
+        cart.setCustomerId(customerId);
+        cart.setItems(items);
+        return copy(cart);
+    }
+
+    @Override
+    public StatisticsAggregate aggregateStatistics(String offerId, String action, Instant from, Instant to) {
+        Map<String, Integer> counts = itemCountsByCustomer(offerId, action, from, to);
+        long count = counts.values().stream().mapToLong(Integer::longValue).sum();
+        return counts.isEmpty() ? StatisticsAggregate.EMPTY : new StatisticsAggregate(count, counts.size(), count);
+    }
+
+    @Override
+    public List<CustomerItemCount> aggregateItemCountsByCustomer(String offerId, String action, Instant from, Instant to) {
+        List<CustomerItemCount> result = new ArrayList<>();
+        itemCountsByCustomer(offerId, action, from, to).forEach((customerId, count) ->
+            result.add(new CustomerItemCount(customerId, count)));
+        return result;
+    }
+
+    @Override
+    public Stream<CustomerItemCount> streamItemCountsByCustomer(String offerId, String action, Instant from, Instant to) {
+        return aggregateItemCountsByCustomer(offerId, action, from, to).stream();
+    }
+
+    @Override
+    public List<OfferStatistics> aggregateStatistics(Collection<String> offerIds, Collection<String> actions,
+                                                     Instant from, Instant to) {
+        List<OfferStatistics> result = new ArrayList<>();
+        for (OfferAction key : offerActions(offerIds, actions)) {
+            Map<String, Integer> counts = itemCountsByCustomer(key.offerId(), key.action(), from, to);
+            if (!counts.isEmpty()) {
+                long count = counts.values().stream().mapToLong(Integer::longValue).sum();
+                result.add(new OfferStatistics(key.offerId(), key.action(), count, counts.size(), count));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<OfferCustomerItemCount> aggregateItemCountsByCustomer(Collection<String> offerIds,
+                                                                      Collection<String> actions, Instant from, Instant to) {
+        List<OfferCustomerItemCount> result = new ArrayList<>();
+        for (OfferAction key : offerActions(offerIds, actions)) {
+            itemCountsByCustomer(key.offerId(), key.action(), from, to).forEach((customerId, count) ->
+                result.add(new OfferCustomerItemCount(key.offerId(), key.action(), customerId, count)));
+        }
+        return result;
+    }
+
+    // Distinct combinations, like $in
+    private static Set<OfferAction> offerActions(Collection<String> offerIds, Collection<String> actions) {
+        Set<OfferAction> keys = new LinkedHashSet<>();
+        offerIds.forEach(offerId -> actions.forEach(action -> keys.add(new OfferAction(offerId, action))));
+        return keys;
+    }
+
+    @Override
+    public List<StatisticsBucket> aggregateHistogram(String offerId, String action, Instant from, Instant to,
+                                                     HistogramInterval interval, ZoneId zone) {
+        NavigableMap<Instant, Map<String, Integer>> timestamps = itemIndex.get(new OfferAction(offerId, action));
+        if (timestamps == null) {
+            return List.of();
+        }
+        // bucket -> customer id -> number of items
+        NavigableMap<Instant, Map<String, Integer>> buckets = new TreeMap<>();
+        timestamps.subMap(from, false, to, false).forEach((timestamp, customers) -> {
+            Map<String, Integer> bucketCustomers = buckets.computeIfAbsent(interval.truncate(timestamp, zone),
+                bucket -> new HashMap<>());
+            customers.forEach((customerId, count) -> bucketCustomers.merge(customerId, count, Integer::sum));
+        });
+        List<StatisticsBucket> result = new ArrayList<>();
+        buckets.forEach((bucket, customers) -> {
+            long count = customers.values().stream().mapToLong(Integer::longValue).sum();
+            result.add(new StatisticsBucket(offerId, action, bucket, count, customers.size(), count));
+        });
+        return result;
+    }
+
+    /**
+     * Like the Mongo pipeline, but the rows are computed up front: the data is in memory already.
+     */
+    @Override
+    public Stream<StatisticsBucket> streamStatisticsBuckets(String offerId, String action, Instant from, Instant to,
+                                                            Duration bucketSize) {
+        if (bucketSize.getSeconds() <= 0 || bucketSize.getNano() != 0) {
+            throw new IllegalArgumentException("Bucket size must be a positive whole number of seconds: " + bucketSize);
+        }
+        long bucketMillis = bucketSize.toMillis();
+        List<StatisticsBucket> result = new ArrayList<>();
+        itemIndex.keySet().stream()
+            .filter(key -> (offerId == null || offerId.equals(key.offerId())) && (action == null || action.equals(key.action())))
+            .sorted(OFFER_ACTION_ORDER)
+            .forEach(key -> {
+                // bucket -> customer id -> number of items
+                Map<Instant, Map<String, Integer>> buckets = new LinkedHashMap<>();
+                itemIndex.get(key).subMap(from, false, to, false).forEach((timestamp, customers) -> {
+                    long offset = Math.floorDiv(timestamp.toEpochMilli() - BIN_REFERENCE.toEpochMilli(), bucketMillis);
+                    Instant bucket = BIN_REFERENCE.plusMillis(offset * bucketMillis);
+                    Map<String, Integer> bucketCustomers = buckets.computeIfAbsent(bucket, b -> new HashMap<>());
+                    customers.forEach((customerId, count) -> bucketCustomers.merge(customerId, count, Integer::sum));
+                });
+                buckets.forEach((bucket, customers) -> {
+                    long count = customers.values().stream().mapToLong(Integer::longValue).sum();
+                    result.add(new StatisticsBucket(key.offerId(), key.action(), bucket, count, customers.size(), count));
+                });
+            });
+        return result.stream();
+    }
+
+    @Override
+    public List<Cart> findCartsWithMoreItemsThan(int itemCount, String afterId, int limit) {
+        return findAll(Sort.by(Cart.Fields.id)).stream()
+            .filter(cart -> afterId == null || cart.getId().compareTo(afterId) > 0)
+            .filter(cart -> cart.getItems() != null && cart.getItems().size() > itemCount)
+            .limit(limit)
+            .toList();
+    }
+
+    @Override
+    public boolean compactItems(Cart cart, List<Item> items, List<Item> archived) {
+        AtomicBoolean compacted = new AtomicBoolean();
+        update(cart.getId(), stored -> {
+            if (stored == null || stored.getItems() == null || stored.getItems().size() != cart.getItems().size()) {
+                return stored;
+            }
+            Cart updated = copy(stored);
+            updated.setItems(copy(items));
+            incrementVersion(updated);
+            List<Item> archivedCopy = List.copyOf(copy(archived));
+            archive.merge(stored.getCustomerId(), List.of(archivedCopy), (chunks, added) ->
+                Stream.concat(chunks.stream(), added.stream()).toList());
+            // The new items are indexed before the old ones are removed: a concurrent query may count an item
+            // twice, but never misses one that is kept
+            indexItems(updated.getCustomerId(), updated.getItems());
+            indexItems(updated.getCustomerId(), archivedCopy);
+            unindexItems(stored.getCustomerId(), stored.getItems());
+            compacted.set(true);
+            return updated;
+        });
+        return compacted.get();
+    }
+
+    @Override
+    public List<Item> deleteArchivedItems(String customerId) {
+        List<Item> removed = new ArrayList<>();
+        for (List<Item> items : Optional.ofNullable(archive.remove(customerId)).orElse(List.of())) {
+            unindexItems(customerId, items);
+            removed.addAll(items);
+        }
+        return removed;
+    }
+
+    @Override
+    public Stream<Cart> streamArchivedCarts() {
+        List<Cart> carts = new ArrayList<>();
+        archive.forEach((customerId, chunks) -> chunks.forEach(items -> carts.add(archivedCart(customerId, items))));
+        return carts.stream();
+    }
+
+    // Number of matching items per customer id, in timestamp order
+    private Map<String, Integer> itemCountsByCustomer(String offerId, String action, Instant from, Instant to) {
+        NavigableMap<Instant, Map<String, Integer>> timestamps = itemIndex.get(new OfferAction(offerId, action));
+        if (timestamps == null) {
+            return Map.of();
+        }
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        timestamps.subMap(from, false, to, false).values()
+            .forEach(customers -> customers.forEach((customerId, count) -> counts.merge(customerId, count, Integer::sum)));
+        return counts;
+    }
+}
@@ -0,0 +1,340 @@
+package com.shoppingcart.repository.inmemory;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.support.MutableSortDefinition;
+import org.springframework.beans.support.PropertyComparator;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.repository.query.FluentQuery;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link MongoRepository} contract on a map in process memory, used by the {@code in-memory} profile.
+ * <p>
+ * Documents are copied on the way in and out, like they are by a round trip to MongoDB, so callers never share
+ * state with the store. A stored document is never modified: every write replaces it with an updated copy inside
+ * {@link ConcurrentHashMap#compute}, so writes to one document are applied one at a time while writes to other
+ * documents and all reads go ahead without a lock. Writes also maintain the secondary indexes of the subclass
+ * ({@link #index}/{@link #unindex}), which must be concurrent themselves; like MongoDB without transactions, a
+ * query over several documents may see one write and not another. Ids are generated as ObjectId strings.
+ * Versioned documents follow the {@code @Version} semantics of MongoTemplate. Query by example is not supported.
+ *
+ * @param <T> the document type
+ */
+public abstract class InMemoryMongoRepository<T> implements MongoRepository<T, String> {
+    private final ConcurrentMap<String, T> documents = new ConcurrentHashMap<>();
+
+    protected abstract String getId(T document);
+
+    protected abstract void setId(T document, String id);
+
+    protected abstract T copy(T document);
+
+    /**
+     * Whether the documents have a {@code @Version} property, read and written by {@link #getVersion} and
+     * {@link #setVersion}.
+     */
+    protected boolean isVersioned() {
+        return false;
+    }
+
+    protected Long getVersion(T document) {
+        return null;
+    }
+
+    protected void setVersion(T document, Long version) {
+    }
+
+    /**
+     * Claims the unique index keys of a document about to be stored, atomically against claims for other
+     * documents, and releases the keys of the previous version it no longer has. Called while the document's id
+     * is locked.
+     *
+     * @param previous the stored document with the same id, or {@code null}
+     * @throws DuplicateKeyException like MongoTemplate does for a duplicate key error, without claiming anything
+     */
+    protected void claimUnique(T document, T previous) {
+    }
+
+    // Called while the document's id is locked, for a removed document
+    protected void releaseUnique(T document) {
+    }
+
+    // Called while the document's id is locked, for the stored copy
+    protected void index(T document) {
+    }
+
+    // Called while the document's id is locked, for the replaced or removed copy
+    protected void unindex(T document) {
+    }
+
+    // Stored document, or null; must not be modified and must not leak out of the repository
+    protected T stored(String id) {
+        return id != null ? documents.get(id) : null;
+    }
+
+    /**
+     * Atomically replaces the document with the given id. The updater is called once, while other writes to
+     * the id wait, with the stored document or {@code null}. It must not modify it and returns the document to
+     * store, the stored one to leave it unchanged, or {@code null} for none. Unique keys and indexes are not
+     * maintained here, the updater keeps them up to date for its change.
+     *
+     * @return the document stored after the update, or {@code null}
+     */
+    protected T update(String id, UnaryOperator<T> updater) {
+        return documents.compute(id, (key, stored) -> updater.apply(stored));
+    }
+
+    protected List<T> copies(Iterable<String> ids) {
+        List<T> result = new ArrayList<>();
+        for (String id : ids) {
+            T document = stored(id);
+            if (document != null) {
+                result.add(copy(document));
+            }
+        }
+        return result;
+    }
+
+    // Must be called while the document's id is locked
+    private T replace(T document, T previous) {
+        claimUnique(document, previous);
+        if (previous != null) {
+            unindex(previous);
+        }
+        T stored = copy(document);
+        index(stored);
+        return stored;
+    }
+
+    /**
+     * Stores a new document.
+     *
+     * @throws DuplicateKeyException if a document with the same id exists or a unique index is violated
+     */
+    protected <S extends T> S insertOne(S document) {
+        if (isVersioned() && getVersion(document) == null) {
+            setVersion(document, 0L);
+        }
+        if (getId(document) == null) {
+            setId(document, new ObjectId().toHexString());
+        }
+        update(getId(document), previous -> {
+            if (previous != null) {
+                throw new DuplicateKeyException("E11000 duplicate key error, _id: " + getId(document));
+            }
+            return replace(document, null);
+        });
+        return document;
+    }
+
+    private void removeOne(String id) {
+        documents.computeIfPresent(id, (key, removed) -> {
+            releaseUnique(removed);
+            unindex(removed);
+            return null;
+        });
+    }
+
+    @Override
+    public <S extends T> S save(S entity) {
+        if (isVersioned()) {
+            return saveVersioned(entity);
+        }
+        if (getId(entity) == null) {
+            return insertOne(entity);
+        }
+        update(getId(entity), previous -> replace(entity, previous));
+        return entity;
+    }
+
+    // Like MongoTemplate: without a version the document is new, with one it replaces the stored document at that version
+    private <S extends T> S saveVersioned(S entity) {
+        Long version = getVersion(entity);
+        if (version == null) {
+            return insertOne(entity);
+        }
+        if (getId(entity) == null) {
+            throw new OptimisticLockingFailureException("Document without id is not at version " + version);
+        }
+        update(getId(entity), previous -> {
+            if (previous == null || !version.equals(getVersion(previous))) {
+                throw new OptimisticLockingFailureException("Document " + getId(entity) + " is not at version " + version);
+            }
+            setVersion(entity, version + 1);
+            return replace(entity, previous);
+        });
+        return entity;
+    }
+
+    @Override
+    public <S extends T> List<S> saveAll(Iterable<S> entities) {
+        List<S> saved = new ArrayList<>();
+        entities.forEach(entity -> saved.add(save(entity)));
+        return saved;
+    }
+
+    @Override
+    public <S extends T> S insert(S entity) {
+        return insertOne(entity);
+    }
+
+    @Override
+    public <S extends T> List<S> insert(Iterable<S> entities) {
+        List<S> inserted = new ArrayList<>();
+        entities.forEach(entity -> inserted.add(insert(entity)));
+        return inserted;
+    }
+
+    @Override
+    public Optional<T> findById(String id) {
+        return Optional.ofNullable(stored(id)).map(this::copy);
+    }
+
+    @Override
+    public boolean existsById(String id) {
+        return stored(id) != null;
+    }
+
+    // Ordered by id, which for generated ObjectIds is the insertion order, like the natural order of a collection
+    @Override
+    public List<T> findAll() {
+        List<T> all = copies(documents.keySet());
+        all.sort(Comparator.comparing(this::getId));
+        return all;
+    }
+
+    @Override
+    public List<T> findAllById(Iterable<String> ids) {
+        return copies(ids);
+    }
+
+    @Override
+    public List<T> findAll(Sort sort) {
+        List<T> all = findAll();
+        Comparator<T> comparator = comparator(sort);
+        if (comparator != null) {
+            all.sort(comparator);
+        }
+        return all;
+    }
+
+    @Override
+    public Page<T> findAll(Pageable pageable) {
+        List<T> all = findAll(pageable.getSort());
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(all, pageable, all.size());
+        }
+        int fromIndex = (int) Math.min(pageable.getOffset(), all.size());
+        int toIndex = Math.min(fromIndex + pageable.getPageSize(), all.size());
+        return new PageImpl<>(all.subList(fromIndex, toIndex), pageable, all.size());
+    }
+
+    private Comparator<T> comparator(Sort sort) {
+        Comparator<T> comparator = null;
+        for (Sort.Order order : sort) {
+            Comparator<T> next = new PropertyComparator<>(
+                new MutableSortDefinition(order.getProperty(), order.isIgnoreCase(), order.isAscending()));
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        return comparator;
+    }
+
+    @Override
+    public long count() {
+        return documents.size();
+    }
+
+    @Override
+    public void deleteById(String id) {
+        removeOne(id);
+    }
+
+    // A versioned document is only deleted at the version of the entity
+    @Override
+    public void delete(T entity) {
+        if (!isVersioned()) {
+            removeOne(getId(entity));
+            return;
+        }
+        update(getId(entity), stored -> {
+            if (stored == null || !Objects.equals(getVersion(stored), getVersion(entity))) {
+                throw new OptimisticLockingFailureException(
+                    "Document " + getId(entity) + " is not at version " + getVersion(entity));
+            }
+            releaseUnique(stored);
+            unindex(stored);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends String> ids) {
+        ids.forEach(this::removeOne);
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends T> entities) {
+        entities.forEach(entity -> removeOne(getId(entity)));
+    }
+
+    @Override
+    public void deleteAll() {
+        documents.keySet().forEach(this::removeOne);
+    }
+
+    @Override
+    public <S extends T> Optional<S> findOne(Example<S> example) {
+        throw queryByExampleNotSupported();
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example) {
+        throw queryByExampleNotSupported();
+    }
+
+    @Override
+    public <S extends T> List<S> findAll(Example<S> example, Sort sort) {
+        throw queryByExampleNotSupported();
+    }
+
+    @Override
+    public <S extends T> Page<S> findAll(Example<S> example, Pageable pageable) {
+        throw queryByExampleNotSupported();
+    }
+
+    @Override
+    public <S extends T> long count(Example<S> example) {
+        throw queryByExampleNotSupported();
+    }
+
+    @Override
+    public <S extends T> boolean exists(Example<S> example) {
+        throw queryByExampleNotSupported();
+    }
+
+    @Override
+    public <S extends T, R> R findBy(Example<S> example, Function<FluentQuery.FetchableFluentQuery<S>, R> queryFunction) {
+        throw queryByExampleNotSupported();
+    }
+
+    private static UnsupportedOperationException queryByExampleNotSupported() {
+        return new UnsupportedOperationException("Query by example is not supported by the in-memory repositories");
+    }
+}
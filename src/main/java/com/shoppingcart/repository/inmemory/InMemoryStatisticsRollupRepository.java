@@ -0,0 +1,200 @@
+package com.shoppingcart.repository.inmemory;
+
+import com.shoppingcart.dto.OfferCustomerCount;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.RollupIncrement;
+import com.shoppingcart.model.StatisticsRollup;
+import com.shoppingcart.repository.StatisticsRollupRepository;
+import com.shoppingcart.util.HyperLogLog;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory {@link StatisticsRollupRepository}, active with the {@code in-memory} profile. The in-memory cart
+ * repository answers statistics from its own index, so rollups only need to be enabled there for parity tests.
+ * Bucket queries are range lookups in an index of the bucket ids by offer, action and bucket start; the customers
+ * of the buckets are kept in a second index of the same shape.
+ */
+@Repository
+@Profile("in-memory")
+public class InMemoryStatisticsRollupRepository extends InMemoryMongoRepository<StatisticsRollup>
+        implements StatisticsRollupRepository {
+    private record OfferAction(String offerId, String action) {}
+
+    // offer and action -> bucket start -> rollup id
+    private final ConcurrentMap<OfferAction, ConcurrentNavigableMap<Instant, String>> bucketIndex =
+        new ConcurrentHashMap<>();
+    // offer and action -> bucket start -> customer ids; the sets are immutable, so a retried compute stays correct
+    private final ConcurrentMap<OfferAction, ConcurrentNavigableMap<Instant, Set<String>>> customerIndex =
+        new ConcurrentHashMap<>();
+
+    @Override
+    protected String getId(StatisticsRollup rollup) {
+        return rollup.getId();
+    }
+
+    @Override
+    protected void setId(StatisticsRollup rollup, String id) {
+        rollup.setId(id);
+    }
+
+    @Override
+    protected StatisticsRollup copy(StatisticsRollup rollup) {
+        StatisticsRollup copy = new StatisticsRollup();
+        copy.setId(rollup.getId());
+        copy.setOfferId(rollup.getOfferId());
+        copy.setAction(rollup.getAction());
+        copy.setBucket(rollup.getBucket());
+        copy.setItemCount(rollup.getItemCount());
+        copy.setCustomerSketch(rollup.getCustomerSketch() != null ? new HashMap<>(rollup.getCustomerSketch()) : null);
+        return copy;
+    }
+
+    @Override
+    protected void index(StatisticsRollup rollup) {
+        bucketIndex.computeIfAbsent(new OfferAction(rollup.getOfferId(), rollup.getAction()),
+            key -> new ConcurrentSkipListMap<>()).put(rollup.getBucket(), rollup.getId());
+    }
+
+    @Override
+    protected void unindex(StatisticsRollup rollup) {
+        NavigableMap<Instant, String> buckets = bucketIndex.get(new OfferAction(rollup.getOfferId(), rollup.getAction()));
+        if (buckets != null) {
+            buckets.remove(rollup.getBucket(), rollup.getId());
+        }
+    }
+
+    @Override
+    public List<StatisticsRollup> findBuckets(String offerId, String action, Instant fromInclusive, Instant toExclusive) {
+        NavigableMap<Instant, String> buckets = bucketIndex.get(new OfferAction(offerId, action));
+        if (buckets == null || !fromInclusive.isBefore(toExclusive)) {
+            return List.of();
+        }
+        return copies(buckets.subMap(fromInclusive, true, toExclusive, false).values());
+    }
+
+    @Override
+    public List<StatisticsRollup> findSketches(String offerId, String action, Instant fromInclusive, Instant toExclusive) {
+        return findBuckets(offerId, action, fromInclusive, toExclusive);
+    }
+
+    @Override
+    public List<StatisticsRollup> findBuckets(Collection<String> offerIds, Collection<String> actions,
+                                              Instant fromInclusive, Instant toExclusive) {
+        List<StatisticsRollup> rollups = new ArrayList<>();
+        // Distinct combinations, like $in
+        new LinkedHashSet<>(offerIds).forEach(offerId -> new LinkedHashSet<>(actions).forEach(action ->
+            rollups.addAll(findBuckets(offerId, action, fromInclusive, toExclusive))));
+        return rollups;
+    }
+
+    private Set<String> customerIds(String offerId, String action, Instant fromInclusive, Instant toExclusive) {
+        NavigableMap<Instant, Set<String>> buckets = customerIndex.get(new OfferAction(offerId, action));
+        Set<String> customerIds = new HashSet<>();
+        if (buckets != null && fromInclusive.isBefore(toExclusive)) {
+            buckets.subMap(fromInclusive, true, toExclusive, false).values().forEach(customerIds::addAll);
+        }
+        return customerIds;
+    }
+
+    // Like the upserts of the bulk write: each bucket is updated atomically, the buckets one after another
+    @Override
+    public void increment(Collection<RollupIncrement> increments) {
+        for (RollupIncrement increment : increments) {
+            String id = StatisticsRollup.idOf(increment.offerId(), increment.action(), increment.bucket());
+            update(id, stored -> {
+                StatisticsRollup rollup;
+                if (stored != null) {
+                    rollup = copy(stored);
+                } else {
+                    rollup = new StatisticsRollup();
+                    rollup.setId(id);
+                    rollup.setOfferId(increment.offerId());
+                    rollup.setAction(increment.action());
+                    rollup.setBucket(increment.bucket());
+                    rollup.setCustomerSketch(new HashMap<>());
+                    index(rollup);
+                }
+                rollup.setItemCount(rollup.getItemCount() + increment.itemCount());
+                Map<String, Integer> sketch = rollup.getCustomerSketch();
+                HyperLogLog.of(increment.customerIds()).toSparse().forEach((index, rank) -> sketch.merge(index, rank, Math::max));
+                return rollup;
+            });
+            customerIndex.computeIfAbsent(new OfferAction(increment.offerId(), increment.action()),
+                    key -> new ConcurrentSkipListMap<>())
+                .compute(increment.bucket(), (bucket, customers) -> {
+                    Set<String> updated = customers != null ? new HashSet<>(customers) : new HashSet<>();
+                    updated.addAll(increment.customerIds());
+                    return Set.copyOf(updated);
+                });
+        }
+    }
+
+    @Override
+    public void decrement(Collection<RollupIncrement> increments) {
+        for (RollupIncrement increment : increments) {
+            update(StatisticsRollup.idOf(increment.offerId(), increment.action(), increment.bucket()), stored -> {
+                if (stored == null) {
+                    return null;
+                }
+                StatisticsRollup rollup = copy(stored);
+                rollup.setItemCount(rollup.getItemCount() - increment.itemCount());
+                return rollup;
+            });
+            NavigableMap<Instant, Set<String>> buckets =
+                customerIndex.get(new OfferAction(increment.offerId(), increment.action()));
+            if (buckets != null) {
+                buckets.computeIfPresent(increment.bucket(), (bucket, customers) -> {
+                    Set<String> updated = new HashSet<>(customers);
+                    updated.removeAll(increment.customerIds());
+                    return updated.isEmpty() ? null : Set.copyOf(updated);
+                });
+            }
+        }
+    }
+
+    @Override
+    public long countCustomers(String offerId, String action, Instant fromInclusive, Instant toExclusive,
+                               Collection<String> countedCustomerIds) {
+        Set<String> customerIds = customerIds(offerId, action, fromInclusive, toExclusive);
+        customerIds.removeAll(countedCustomerIds);
+        return customerIds.size();
+    }
+
+    @Override
+    public List<OfferCustomerCount> countCustomers(Collection<String> offerIds, Collection<String> actions,
+                                                   Instant fromInclusive, Instant toExclusive,
+                                                   Collection<OfferCustomerItemCount> counted) {
+        List<OfferCustomerCount> result = new ArrayList<>();
+        new LinkedHashSet<>(offerIds).forEach(offerId -> new LinkedHashSet<>(actions).forEach(action -> {
+            Set<String> customerIds = customerIds(offerId, action, fromInclusive, toExclusive);
+            counted.stream()
+                .filter(customer -> customer.offerId().equals(offerId) && customer.action().equals(action))
+                .forEach(customer -> customerIds.remove(customer.customerId()));
+            if (!customerIds.isEmpty()) {
+                result.add(new OfferCustomerCount(offerId, action, customerIds.size()));
+            }
+        }));
+        return result;
+    }
+
+    @Override
+    public void deleteAllCustomers() {
+        customerIndex.clear();
+    }
+}
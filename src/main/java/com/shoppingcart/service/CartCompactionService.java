@@ -0,0 +1,207 @@
+package com.shoppingcart.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.shoppingcart.config.CacheConfig;
+import com.shoppingcart.config.CompactionProperties;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.repository.CartRepository;
+import com.shoppingcart.util.ResilienceUtils;
+import com.shoppingcart.util.ResilienceUtils.Operation;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Collapses the append-only item log of a cart into the current item per offer and moves the superseded items
+ * to the archive. Each item stays either in the cart or in the archive and the statistics queries read both,
+ * so statistics do not change. Carts are compacted in the background once they grow over
+ * {@code compaction.threshold} items, and in batches on the {@code compaction.cron} schedule.
+ */
+@Service
+public class CartCompactionService {
+    private static final Logger logger = LoggerFactory.getLogger(CartCompactionService.class);
+    private static final int MAX_COMPACTED_SIZES = 10_000;
+
+    private final CartRepository cartRepository;
+    private final ResilienceUtils resilienceUtils;
+    private final Cache cartCache;
+    private final CompactionProperties properties;
+    // Customers with a compaction queued or running, so a burst of appends queues a single one
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    // Items left in the cart by the last background compaction per customer, so a cart with nothing to archive is
+    // not read again on every write. Forgotten after compaction.min-age, when younger items may have become archivable
+    private final Map<String, Integer> compactedSizes;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+        Thread.ofPlatform().name("cart-compaction").daemon().factory());
+
+    /**
+     * The outcome of compacting an item log.
+     *
+     * @param items    the items staying in the cart, in their original order
+     * @param archived the items moved to the archive, in their original order
+     */
+    public record Compaction(List<Item> items, List<Item> archived) {}
+
+    @Autowired
+    public CartCompactionService(CartRepository cartRepository, ResilienceUtils resilienceUtils,
+                                 CacheManager cacheManager, CompactionProperties properties) {
+        this.cartRepository = cartRepository;
+        this.resilienceUtils = resilienceUtils;
+        this.cartCache = cacheManager.getCache(CacheConfig.CART_CACHE);
+        this.properties = properties;
+        this.compactedSizes = Caffeine.newBuilder()
+            .maximumSize(MAX_COMPACTED_SIZES)
+            .expireAfterWrite(properties.getMinAge())
+            .<String, Integer>build()
+            .asMap();
+    }
+
+    /**
+     * Queues a background compaction of the given cart when compaction is enabled and the cart holds more
+     * than {@code compaction.threshold} items, and at least {@code compaction.regrowth} more than the last
+     * background compaction left in it. Returns immediately.
+     *
+     * @param cart the cart as just written
+     */
+    public void compactIfNeeded(Cart cart) {
+        if (!properties.isEnabled() || cart.getItems() == null || cart.getItems().size() <= properties.getThreshold()) {
+            return;
+        }
+        Integer compactedSize = compactedSizes.get(cart.getCustomerId());
+        if (compactedSize != null && cart.getItems().size() < compactedSize + properties.getRegrowth()
+                || !queued.add(cart.getCustomerId())) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                cartRepository.findByCustomerId(cart.getCustomerId()).ifPresent(stored -> {
+                    Compaction compaction = tryCompact(stored);
+                    if (compaction != null) {
+                        compactedSizes.put(cart.getCustomerId(), compaction.items().size());
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.warn("Compaction of the cart of customer {} failed: {}", cart.getCustomerId(), e.getMessage());
+            } finally {
+                queued.remove(cart.getCustomerId());
+            }
+        });
+    }
+
+    /**
+     * Compacts all carts holding more than {@code compaction.threshold} items, reading {@code compaction.batch-size}
+     * carts at a time. Runs on the {@code compaction.cron} schedule when compaction is enabled.
+     *
+     * @return the number of carts compacted
+     */
+    @Scheduled(cron = "${compaction.cron:-}")
+    public long compactAll() {
+        if (!properties.isEnabled()) {
+            return 0;
+        }
+        long compacted = 0;
+        String afterId = null;
+        List<Cart> page;
+        do {
+            String pageAfterId = afterId;
+            page = resilienceUtils.callWithResilience(Operation.CART_READ, () ->
+                cartRepository.findCartsWithMoreItemsThan(properties.getThreshold(), pageAfterId, properties.getBatchSize()));
+            for (Cart cart : page) {
+                try {
+                    if (compact(cart)) {
+                        compacted++;
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("Compaction of the cart of customer {} failed: {}", cart.getCustomerId(), e.getMessage());
+                }
+                afterId = cart.getId();
+            }
+        } while (page.size() == properties.getBatchSize());
+        logger.info("Compacted {} carts", compacted);
+        return compacted;
+    }
+
+    /**
+     * Compacts one cart. Does nothing if nothing can be archived, or if items were added to the cart since it
+     * was read; the next compaction picks it up again.
+     *
+     * @param cart the cart as stored
+     * @return whether the cart was compacted
+     */
+    public boolean compact(Cart cart) {
+        Compaction compaction = tryCompact(cart);
+        return compaction != null && !compaction.archived().isEmpty();
+    }
+
+    /**
+     * Compacts one cart.
+     *
+     * @param cart the cart as stored
+     * @return the compaction applied to the stored cart, with no archived items if there was nothing to archive,
+     *         or {@code null} if the cart changed since it was read
+     */
+    private Compaction tryCompact(Cart cart) {
+        if (cart.getItems() == null) {
+            return null;
+        }
+        Compaction compaction = plan(cart.getItems(), Instant.now().minus(properties.getMinAge()));
+        if (compaction.archived().isEmpty()) {
+            return compaction;
+        }
+        boolean compacted = resilienceUtils.callWithResilience(Operation.CART_WRITE, () ->
+            cartRepository.compactItems(cart, compaction.items(), compaction.archived()));
+        if (!compacted) {
+            return null;
+        }
+        cartCache.evict(cart.getCustomerId());
+        logger.debug("Archived {} of {} items of the cart of customer {}", compaction.archived().size(),
+            cart.getItems().size(), cart.getCustomerId());
+        return compaction;
+    }
+
+    /**
+     * Splits an item log into the effective items and the history to archive. The effective item of an offer is
+     * its last entry in the log, unless that is a {@code DELETE}, which leaves no item for the offer. Superseded
+     * entries, and the entries of deleted offers, are archived once their action is older than {@code cutoff}.
+     *
+     * @param items  the item log, oldest first
+     * @param cutoff entries with a later action timestamp are never archived
+     * @return the split
+     */
+    static Compaction plan(List<Item> items, Instant cutoff) {
+        Map<String, Integer> lastIndexByOffer = new HashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            lastIndexByOffer.put(items.get(i).getOfferId(), i);
+        }
+        List<Item> kept = new ArrayList<>();
+        List<Item> archived = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            boolean effective = lastIndexByOffer.get(item.getOfferId()) == i && item.getAction() != Item.Action.DELETE;
+            boolean old = item.getActionTimestamp() != null && item.getActionTimestamp().isBefore(cutoff);
+            (effective || !old ? kept : archived).add(item);
+        }
+        return new Compaction(kept, archived);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
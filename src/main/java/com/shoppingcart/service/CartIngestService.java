@@ -0,0 +1,164 @@
+package com.shoppingcart.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shoppingcart.config.IngestProperties;
+import com.shoppingcart.dto.IngestResult;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.CartTotals;
+import com.shoppingcart.repository.CartRepository;
+import com.shoppingcart.util.ResilienceUtils;
+import com.shoppingcart.util.ResilienceUtils.Operation;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk cart ingestion for migrations and replays from upstream systems.
+ */
+@Service
+public class CartIngestService {
+    private final CartRepository cartRepository;
+    private final StatisticsRollupService statisticsRollupService;
+    private final StatisticsCache statisticsCache;
+    private final ResilienceUtils resilienceUtils;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final IngestProperties properties;
+
+    @Autowired
+    public CartIngestService(CartRepository cartRepository, StatisticsRollupService statisticsRollupService,
+                             StatisticsCache statisticsCache, ResilienceUtils resilienceUtils, ObjectMapper objectMapper, Validator validator,
+                             IngestProperties properties) {
+        this.cartRepository = cartRepository;
+        this.statisticsRollupService = statisticsRollupService;
+        this.statisticsCache = statisticsCache;
+        this.resilienceUtils = resilienceUtils;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.properties = properties;
+    }
+
+    /**
+     * Reads carts one at a time from a JSON array or a stream of newline delimited JSON objects, validates them
+     * and inserts the valid ones with unordered bulk writes of {@code ingest.batch-size} carts. Only the current
+     * batch is held in memory. Existing customers are rejected by the unique customerId index.
+     * Missing action timestamps are set to the current instant and totals are computed, as for a single cart.
+     * A syntax error ends the ingestion; the carts read before it are still written and reported.
+     *
+     * @param body the request body
+     * @return the per-record result summary
+     * @throws IOException if the body cannot be read
+     */
+    public IngestResult ingest(InputStream body) throws IOException {
+        Summary summary = new Summary();
+        List<Cart> batch = new ArrayList<>(properties.getBatchSize());
+        List<Long> batchIndexes = new ArrayList<>(properties.getBatchSize());
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                long index = summary.received;
+                JsonNode node = objectMapper.readTree(parser);
+                summary.received++;
+                Cart cart = toValidCart(index, node, summary);
+                if (cart != null) {
+                    batch.add(cart);
+                    batchIndexes.add(index);
+                    if (batch.size() >= properties.getBatchSize()) {
+                        write(batch, batchIndexes, summary);
+                    }
+                }
+                token = parser.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            // The unreadable rest of the payload counts as one failed record
+            summary.fail(summary.received++, null, "Malformed JSON, ingestion stopped: " + e.getOriginalMessage());
+        }
+        // Not in a finally block: after a failed write the batch would be written again and its exception lost
+        write(batch, batchIndexes, summary);
+        return new IngestResult(summary.received, summary.inserted, summary.failed, summary.errors);
+    }
+
+    private Cart toValidCart(long index, JsonNode node, Summary summary) {
+        String customerId = node.hasNonNull(Cart.Fields.customerId) ? node.get(Cart.Fields.customerId).asText() : null;
+        Cart cart;
+        try {
+            cart = objectMapper.treeToValue(node, Cart.class);
+        } catch (JsonProcessingException e) {
+            summary.fail(index, customerId, e.getOriginalMessage());
+            return null;
+        }
+        Set<ConstraintViolation<Cart>> violations = validator.validate(cart);
+        if (!violations.isEmpty()) {
+            summary.fail(index, customerId, violations.stream()
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", ")));
+            return null;
+        }
+        Instant now = Instant.now();
+        cart.getItems().stream()
+            .filter(item -> item.getActionTimestamp() == null)
+            .forEach(item -> item.setActionTimestamp(now));
+        cart.setTotals(CartTotals.of(cart.getItems()));
+        return cart;
+    }
+
+    private void write(List<Cart> batch, List<Long> batchIndexes, Summary summary) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> failures = resilienceUtils.callWithResilience(Operation.CART_WRITE,
+            () -> cartRepository.bulkInsert(batch));
+        List<Cart> inserted = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Cart cart = batch.get(i);
+            String failure = failures.get(i);
+            if (failure != null) {
+                summary.fail(batchIndexes.get(i), cart.getCustomerId(), failure);
+            } else {
+                summary.inserted++;
+                inserted.add(cart);
+            }
+        }
+        // Once per batch, like the insert: one rollup write and one cache invalidation for all inserted carts
+        if (!inserted.isEmpty()) {
+            statisticsRollupService.recordCarts(inserted);
+            statisticsCache.invalidate(inserted.stream().flatMap(cart -> cart.getItems().stream()).toList());
+        }
+        batch.clear();
+        batchIndexes.clear();
+    }
+
+    private class Summary {
+        private long received;
+        private long inserted;
+        private long failed;
+        private final List<IngestResult.RecordError> errors = new ArrayList<>();
+
+        private void fail(long index, String customerId, String message) {
+            failed++;
+            if (errors.size() < properties.getMaxReportedErrors()) {
+                errors.add(new IngestResult.RecordError(index, customerId, message));
+            }
+        }
+    }
+}
@@ -1,76 +1,384 @@
 package com.shoppingcart.service;
 
+import com.shoppingcart.config.CacheConfig;
+import com.shoppingcart.config.CartMetrics;
+import com.shoppingcart.dto.CartItemPage;
+import com.shoppingcart.dto.CartSummary;
+import com.shoppingcart.dto.HistogramInterval;
+import com.shoppingcart.dto.ItemQuery;
+import com.shoppingcart.dto.OfferStatistics;
+import com.shoppingcart.dto.StatisticsAggregate;
+import com.shoppingcart.dto.StatisticsBucket;
+import com.shoppingcart.dto.StatisticsEstimate;
+import com.shoppingcart.dto.StatisticsHistogram;
+import com.shoppingcart.dto.StatisticsResponse;
+import com.shoppingcart.dto.TrendingOffers;
 import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.CartTotals;
 import com.shoppingcart.model.Item;
 import com.shoppingcart.repository.CartRepository;
 import com.shoppingcart.util.ResilienceUtils;
+import com.shoppingcart.util.ResilienceUtils.Operation;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+/**
+ * Every public method is timed as {@code cart.service}, tagged with the method name and the exception thrown, if any.
+ */
 @Service
+@Timed(value = "cart.service", description = "Cart service operations", histogram = true)
 public class CartService {
     private final CartRepository cartRepository;
+    private final StatisticsRollupService statisticsRollupService;
+    private final ResilienceUtils resilienceUtils;
+    private final CartMetrics cartMetrics;
+    private final CartCompactionService cartCompactionService;
+    private final CacheManager cacheManager;
+    private final TrendingOffersService trendingOffersService;
+    private final StatisticsCache statisticsCache;
+    private final CartWriteCoalescer cartWriteCoalescer;
 
     @Autowired
-    public CartService(CartRepository cartRepository) {
+    public CartService(CartRepository cartRepository, StatisticsRollupService statisticsRollupService,
+                       ResilienceUtils resilienceUtils, CartMetrics cartMetrics,
+                       CartCompactionService cartCompactionService, CacheManager cacheManager,
+                       TrendingOffersService trendingOffersService, StatisticsCache statisticsCache,
+                       CartWriteCoalescer cartWriteCoalescer) {
         this.cartRepository = cartRepository;
+        this.statisticsRollupService = statisticsRollupService;
+        this.resilienceUtils = resilienceUtils;
+        this.cartMetrics = cartMetrics;
+        this.cartCompactionService = cartCompactionService;
+        this.cacheManager = cacheManager;
+        this.trendingOffersService = trendingOffersService;
+        this.statisticsCache = statisticsCache;
+        this.cartWriteCoalescer = cartWriteCoalescer;
     }
 
+    /**
+     * Returns the cart of the given customer. Carts are served from the cart cache when present,
+     * the write methods of this service keep the cache up to date.
+     *
+     * @param customerId the customer id
+     * @return the cart, or empty if the customer has no cart
+     */
+    @Cacheable(cacheNames = CacheConfig.CART_CACHE, key = "#customerId", unless = "#result == null")
     public Optional<Cart> getCartByCustomerId(String customerId) {
-        return cartRepository.findByCustomerId(customerId);
+        return resilienceUtils.callWithResilience(Operation.CART_READ, () -> cartRepository.findByCustomerId(customerId));
+    }
+
+    /**
+     * Returns the cart of the given customer with only the requested page of items and item fields. Filtering,
+     * paging and projection run in the repository, so large carts are not read in full; the result is not cached.
+     *
+     * @param customerId the customer id
+     * @param query      the items and item fields to return
+     * @return the cart with the page of items and the number of matching items, or empty if the customer has no cart
+     */
+    public Optional<CartItemPage> getCartItemPage(String customerId, ItemQuery query) {
+        return resilienceUtils.callWithResilience(Operation.CART_READ, () -> cartRepository.findItemPage(customerId, query));
     }
 
     /**
      * Save a cart. If the cart with the given customerId already exists, it throws IllegalStateException.
      * If the items list is not null, it sets the action timestamp of any item which does not have it set to the current instant.
+     * The cart totals are computed from the items.
      *
      * @param cart the cart to save
      * @return the saved cart
      * @throws IllegalStateException if the cart with the given customerId already exists
      */
+    // Evicted rather than put: of two writes finishing out of order the older would overwrite the newer
+    @CacheEvict(cacheNames = CacheConfig.CART_CACHE, key = "#cart.customerId")
     public Cart saveCart(Cart cart) {
-        Optional<Cart> existing = cartRepository.findByCustomerId(cart.getCustomerId());
-        if (existing.isPresent()) {
-            throw new IllegalStateException("Cart with customerId " + cart.getCustomerId() + " already exists.");
-        }
-        if (cart.getItems() != null) {
-            cart.getItems().stream()
-                    .filter(item -> item.getActionTimestamp() == null)
-                    .forEach(item -> item.setActionTimestamp(java.time.Instant.now()));
-        }
-        return cartRepository.save(cart);
+        Cart saved = resilienceUtils.callWithResilience(Operation.CART_WRITE, () -> {
+            Optional<Cart> existing = cartRepository.findByCustomerId(cart.getCustomerId());
+            if (existing.isPresent()) {
+                throw new IllegalStateException("Cart with customerId " + cart.getCustomerId() + " already exists.");
+            }
+            if (cart.getItems() != null) {
+                cart.getItems().stream()
+                        .filter(item -> item.getActionTimestamp() == null)
+                        .forEach(item -> item.setActionTimestamp(java.time.Instant.now()));
+            }
+            cart.setTotals(CartTotals.of(cart.getItems()));
+            Cart stored = cartRepository.save(cart);
+            statisticsRollupService.record(stored.getCustomerId(), stored.getItems());
+            trendingOffersService.record(stored.getItems());
+            statisticsCache.invalidate(stored.getItems());
+            return stored;
+        });
+        cartCompactionService.compactIfNeeded(saved);
+        return saved;
     }
 
-    public Cart addItemToCart(String customerId, Item item) {
-        Cart cart = cartRepository.findByCustomerId(customerId)
-                .orElseThrow(() -> new java.util.NoSuchElementException("Cart not found for customerId: " + customerId));
+    /**
+     * Adds an item to the cart of the given customer. The action timestamp is set to the current instant and the
+     * item is appended with a single atomic update, so concurrent adds for the same customer never lose items.
+     * Without an expected version, items added to the same cart while a previous add is written are combined into
+     * one update by the {@link CartWriteCoalescer}; each caller gets the cart returned by the update holding its item.
+     * A cart growing over the compaction threshold is compacted in the background.
+     *
+     * @param customerId      the customer id
+     * @param item            the item to add
+     * @param expectedVersion only add the item if the cart is at this version, {@code null} for any version
+     * @return the updated cart
+     * @throws java.util.NoSuchElementException if the customer has no cart
+     * @throws OptimisticLockingFailureException if the cart is not at the expected version
+     */
+    @CacheEvict(cacheNames = CacheConfig.CART_CACHE, key = "#customerId")
+    public Cart addItemToCart(String customerId, Item item, Long expectedVersion) {
         item.setActionTimestamp(java.time.Instant.now());
-        cart.getItems().add(item);
-        return cartRepository.save(cart);
+        Cart updated = expectedVersion == null
+            ? cartWriteCoalescer.append(customerId, item, items -> appendItems(customerId, items, null))
+            : appendItems(customerId, List.of(item), expectedVersion);
+        cartCompactionService.compactIfNeeded(updated);
+        return updated;
+    }
+
+    private Cart appendItems(String customerId, List<Item> items, Long expectedVersion) {
+        return resilienceUtils.callWithResilience(Operation.CART_WRITE, () -> {
+            Cart appended = cartRepository.appendItems(customerId, items, expectedVersion);
+            if (appended == null) {
+                if (expectedVersion != null && cartRepository.findWithoutItems(customerId).isPresent()) {
+                    throw new OptimisticLockingFailureException(
+                        "Cart for customerId " + customerId + " is not at version " + expectedVersion);
+                }
+                throw new java.util.NoSuchElementException("Cart not found for customerId: " + customerId);
+            }
+            statisticsRollupService.record(customerId, items);
+            trendingOffersService.record(items);
+            statisticsCache.invalidate(items);
+            return appended;
+        });
     }
 
     /**
-     * Deletes a cart by customerId with fault tolerance.
+     * Returns the totals of the cart of the given customer without reading its items. Carts stored before totals
+     * were maintained are read once with their items to set them.
+     *
+     * @param customerId the customer id
+     * @return the summary, or empty if the customer has no cart
+     */
+    public Optional<CartSummary> getCartSummary(String customerId) {
+        return resilienceUtils.callWithResilience(Operation.CART_READ, () ->
+            cartRepository.findWithoutItems(customerId).map(cart -> {
+                CartTotals totals = cart.getTotals();
+                if (totals == null) {
+                    Cart full = cartRepository.findByCustomerId(customerId).orElse(cart);
+                    totals = CartTotals.of(full.getItems());
+                    if (cartRepository.initTotals(full, totals)) {
+                        // The cached cart has neither the totals nor the new version
+                        cacheManager.getCache(CacheConfig.CART_CACHE).evict(customerId);
+                    }
+                }
+                return new CartSummary(customerId, totals.getOfferCount(), totals.getOneTime(), totals.getRecurring(),
+                    totals.getTotal());
+            }));
+    }
+
+    /**
+     * Deletes a cart by customerId with fault tolerance. The archived item history of the customer is deleted too.
      * <p>
-     * This method uses both a circuit breaker and a retry pattern with exponential backoff.
-     * If a transient error occurs (e.g., database timeout), it will retry up to 3 times,
-     * waiting 500ms, then 1000ms, then 2000ms between attempts. If failures persist,
-     * the circuit breaker will open and further attempts will fail fast for a period of time.
+     * This method uses the {@code cart-delete} resilience policy: a circuit breaker and a retry pattern with
+     * exponential backoff. If a transient error occurs (e.g., database timeout), it will retry up to 3 times,
+     * waiting 500ms, then 1000ms between attempts. If failures persist across calls, the shared circuit breaker
+     * will open and further attempts will fail fast for a period of time.
      *
-     * @param customerId the customer id of the cart to delete
+     * @param customerId      the customer id of the cart to delete
+     * @param expectedVersion only delete the cart if it is at this version, {@code null} for any version
+     * @throws OptimisticLockingFailureException if the cart is not at the expected version
      * @throws RuntimeException if the delete operation fails after all retries or while the circuit breaker is open
      */
-    public void deleteCartByCustomerId(String customerId) {
-        ResilienceUtils.runWithResilience(() -> {
+    @CacheEvict(cacheNames = CacheConfig.CART_CACHE, key = "#customerId")
+    public void deleteCartByCustomerId(String customerId, Long expectedVersion) {
+        resilienceUtils.runWithResilience(Operation.CART_DELETE, () -> {
             Cart cart = cartRepository.findByCustomerId(customerId)
                 .orElseThrow(() -> new java.util.NoSuchElementException("Cart not found for customerId: " + customerId));
-            cartRepository.deleteById(cart.getId());
+            if (expectedVersion == null) {
+                cartRepository.deleteById(cart.getId());
+            } else if (expectedVersion.equals(cart.getVersion())) {
+                // Removes the cart only at the version read
+                cartRepository.delete(cart);
+            } else {
+                throw new OptimisticLockingFailureException(
+                    "Cart for customerId " + customerId + " is not at version " + expectedVersion);
+            }
+            List<Item> archived = cartRepository.deleteArchivedItems(customerId);
+            statisticsRollupService.remove(customerId, cart.getItems());
+            statisticsRollupService.remove(customerId, archived);
+            statisticsCache.invalidate(cart.getItems());
+            statisticsCache.invalidate(archived);
+        });
+    }
+
+    /**
+     * Statistics: computes count, unique customers and total items for the given offerId, action and period.
+     * When statistics rollups are enabled the result is summed from the rollup buckets, otherwise it is computed
+     * with a single server-side aggregation, so only the three numbers are transferred from the database.
+     * Results are cached, see {@link StatisticsCache}.
+     *
+     * @param offerId the offer id
+     * @param action  the action
+     * @param from    the start of the period
+     * @param to      the end of the period
+     * @return the statistics for the period
+     */
+    public StatisticsResponse getStatistics(String offerId, String action, Instant from, Instant to) {
+        return statisticsCache.get(offerId, action, from, to, false, () -> {
+            StatisticsAggregate aggregate = resilienceUtils.callWithResilience(Operation.STATISTICS, () ->
+                statisticsRollupService.isEnabled()
+                    ? statisticsRollupService.getStatistics(offerId, action, from, to)
+                    : cartRepository.aggregateStatistics(offerId, action, from, to)
+            );
+            return new StatisticsResponse(
+                offerId, action, from, to, aggregate.count(), aggregate.uniqueCustomers(), aggregate.totalItems()
+            );
+        });
+    }
+
+    /**
+     * Statistics with the unique customers estimated from HyperLogLog sketches kept per rollup bucket, for offers
+     * with too many customers to collect their ids. Item counts stay exact; the response reports the error bound
+     * of the estimate. See {@link StatisticsRollupService#estimateStatistics}. Results are cached like
+     * {@link #getStatistics(String, String, Instant, Instant)}.
+     *
+     * @param offerId the offer id
+     * @param action  the action
+     * @param from    the start of the period
+     * @param to      the end of the period
+     * @return the statistics for the period, with {@code uniqueCustomersErrorBound} set
+     */
+    public StatisticsResponse getApproximateStatistics(String offerId, String action, Instant from, Instant to) {
+        return statisticsCache.get(offerId, action, from, to, true, () -> {
+            StatisticsEstimate estimate = resilienceUtils.callWithResilience(Operation.STATISTICS, () ->
+                statisticsRollupService.estimateStatistics(offerId, action, from, to));
+            return new StatisticsResponse(offerId, action, from, to, estimate.count(), estimate.uniqueCustomers(),
+                estimate.totalItems(), estimate.uniqueCustomersErrorBound());
         });
     }
 
+    /**
+     * Batch statistics: count, unique customers and total items of every combination of the given offers and
+     * actions in the period. All combinations are answered by one grouped aggregation (or one rollup query and the
+     * partial bucket aggregations when rollups are enabled) instead of one statistics query each.
+     *
+     * @param offerIds the offer ids
+     * @param actions  the actions
+     * @param from     the start of the period
+     * @param to       the end of the period
+     * @return one result per offer and action, in the order given, including combinations without items
+     * @throws IllegalArgumentException if no offer or no action is given
+     */
+    public List<StatisticsResponse> getStatistics(List<String> offerIds, List<String> actions, Instant from, Instant to) {
+        if (offerIds.isEmpty() || actions.isEmpty()) {
+            throw new IllegalArgumentException("At least one offerId and one action are required");
+        }
+        List<OfferStatistics> rows = resilienceUtils.callWithResilience(Operation.STATISTICS, () ->
+            statisticsRollupService.isEnabled()
+                ? statisticsRollupService.getStatistics(offerIds, actions, from, to)
+                : cartRepository.aggregateStatistics(offerIds, actions, from, to)
+        );
+        Map<List<String>, OfferStatistics> byOfferAndAction = new HashMap<>();
+        rows.forEach(row -> byOfferAndAction.put(List.of(row.offerId(), row.action()), row));
+        List<StatisticsResponse> responses = new ArrayList<>();
+        for (String offerId : new LinkedHashSet<>(offerIds)) {
+            for (String action : new LinkedHashSet<>(actions)) {
+                OfferStatistics row = byOfferAndAction.get(List.of(offerId, action));
+                responses.add(row == null
+                    ? new StatisticsResponse(offerId, action, from, to, 0, 0, 0)
+                    : new StatisticsResponse(offerId, action, from, to, row.count(), row.uniqueCustomers(), row.totalItems()));
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Trending offers: the offers with the most items of the given action in the window ending now, counted in
+     * memory on the write path of this instance, so no database query is made.
+     * See {@link TrendingOffersService#getTopOffers}.
+     *
+     * @param action the action
+     * @param window the window length
+     * @param limit  the number of offers to return
+     * @return the top offers with their estimated counts, highest first
+     */
+    public TrendingOffers getTrendingOffers(String action, Duration window, int limit) {
+        return trendingOffersService.getTopOffers(action, window, limit);
+    }
+
+    /**
+     * Statistics histogram: count, unique customers and total items per bucket of the given interval, with buckets
+     * aligned to the given timezone. The non-empty buckets are computed by one aggregation, the empty ones are
+     * filled in here.
+     *
+     * @param offerId  the offer id
+     * @param action   the action
+     * @param from     the start of the period
+     * @param to       the end of the period
+     * @param interval the bucket width
+     * @param zone     the timezone the buckets are aligned to
+     * @return every bucket overlapping the period, in order
+     * @throws IllegalArgumentException if the period spans more than {@link StatisticsHistogram#MAX_BUCKETS} buckets
+     */
+    public StatisticsHistogram getStatisticsHistogram(String offerId, String action, Instant from, Instant to,
+                                                      HistogramInterval interval, ZoneId zone) {
+        List<Instant> starts = new ArrayList<>();
+        for (Instant start = interval.truncate(from, zone); start.isBefore(to); start = interval.next(start, zone)) {
+            if (starts.size() == StatisticsHistogram.MAX_BUCKETS) {
+                throw new IllegalArgumentException("The histogram would have more than " + StatisticsHistogram.MAX_BUCKETS
+                    + " buckets, use a larger interval or a shorter period");
+            }
+            starts.add(start);
+        }
+        List<StatisticsBucket> rows = resilienceUtils.callWithResilience(Operation.STATISTICS, () ->
+            cartRepository.aggregateHistogram(offerId, action, from, to, interval, zone));
+        Map<Instant, StatisticsBucket> byStart = new HashMap<>();
+        rows.forEach(row -> byStart.put(row.bucket(), row));
+        List<StatisticsHistogram.Bucket> buckets = new ArrayList<>(starts.size());
+        for (Instant start : starts) {
+            StatisticsBucket row = byStart.get(start);
+            buckets.add(row == null
+                ? new StatisticsHistogram.Bucket(start, 0, 0, 0)
+                : new StatisticsHistogram.Bucket(start, row.count(), row.uniqueCustomers(), row.totalItems()));
+        }
+        return new StatisticsHistogram(offerId, action, from, to, interval, zone.getId(), buckets);
+    }
+
+    /**
+     * Statistics export: streams count, unique customers and total items per offer, action and time bucket.
+     * Only opening the cursor runs under the {@code statistics} resilience policy; the rows are then read while the
+     * caller consumes the stream, which must be closed.
+     *
+     * @param offerId    the offer id, or {@code null} for all offers
+     * @param action     the action, or {@code null} for all actions
+     * @param from       the start of the period
+     * @param to         the end of the period
+     * @param bucketSize the bucket size, a whole number of seconds, minutes, hours or days
+     * @return the rows ordered by offer, action and bucket
+     */
+    public Stream<StatisticsBucket> streamStatistics(String offerId, String action, Instant from, Instant to,
+                                                     Duration bucketSize) {
+        return resilienceUtils.callWithResilience(Operation.STATISTICS, () ->
+            cartRepository.streamStatisticsBuckets(offerId, action, from, to, bucketSize));
+    }
+
     /**
      * Statistics: count the number of items in all carts which were sold with the given offerId, action,
      * and in the given period.
@@ -82,14 +390,7 @@ public class CartService {
      * @return the total number of items
      */
     public long countOffersSold(String offerId, String action, Instant from, Instant to) {
-        return ResilienceUtils.callWithResilience(() ->
-            cartRepository.findCartsByItemDynamic(offerId, action, from, to).stream()
-                .flatMap(cart -> cart.getItems().stream())
-                .filter(item -> item.getOfferId().equals(offerId))
-                .filter(item -> item.getAction().name().equalsIgnoreCase(action))
-                .filter(item -> item.getActionTimestamp().isAfter(from) && item.getActionTimestamp().isBefore(to))
-                .count()
-        );
+        return countLegacy(offerId, action, from, to, false);
     }
 
     /**
@@ -102,16 +403,7 @@ public class CartService {
      * @return the number of distinct customers
      */
     public long countUniqueCustomers(String offerId, String action, Instant from, Instant to) {
-        return ResilienceUtils.callWithResilience(() ->
-            cartRepository.findCartsByItemDynamic(offerId, action, from, to).stream()
-                .flatMap(cart -> cart.getItems().stream()
-                        .filter(item -> item.getOfferId().equals(offerId))
-                        .filter(item -> item.getAction().name().equalsIgnoreCase(action))
-                        .filter(item -> item.getActionTimestamp().isAfter(from) && item.getActionTimestamp().isBefore(to))
-                        .map(item -> cart.getCustomerId()))
-                .distinct()
-                .count()
-        );
+        return countLegacy(offerId, action, from, to, true);
     }
 
     /**
@@ -124,13 +416,26 @@ public class CartService {
      * @return the total number of items
      */
     public long countTotalItems(String offerId, String action, Instant from, Instant to) {
-        return ResilienceUtils.callWithResilience(() ->
-            cartRepository.findCartsByItemDynamic(offerId, action, from, to).stream()
-                .flatMap(cart -> cart.getItems().stream())
-                .filter(item -> item.getOfferId().equals(offerId))
-                .filter(item -> item.getAction().name().equalsIgnoreCase(action))
-                .filter(item -> item.getActionTimestamp().isAfter(from) && item.getActionTimestamp().isBefore(to))
-                .count()
-        );
+        return countLegacy(offerId, action, from, to, false);
+    }
+
+    /**
+     * Loads the carts with a matching item and counts the matching items, or their distinct customers, in memory.
+     * The items of the loaded carts are recorded as scanned, the matching ones as matched.
+     */
+    private long countLegacy(String offerId, String action, Instant from, Instant to, boolean distinctCustomers) {
+        return resilienceUtils.callWithResilience(Operation.STATISTICS, () -> {
+            List<Cart> carts = cartRepository.findCartsByItemDynamic(offerId, action, from, to);
+            List<String> matches = carts.stream()
+                .flatMap(cart -> cart.getItems().stream()
+                        .filter(item -> item.getOfferId().equals(offerId))
+                        .filter(item -> item.getAction().name().equalsIgnoreCase(action))
+                        .filter(item -> item.getActionTimestamp().isAfter(from) && item.getActionTimestamp().isBefore(to))
+                        .map(item -> cart.getCustomerId()))
+                .toList();
+            long scanned = carts.stream().mapToLong(cart -> cart.getItems().size()).sum();
+            cartMetrics.recordStatisticsScan(CartMetrics.LEGACY, scanned, matches.size());
+            return distinctCustomers ? matches.stream().distinct().count() : matches.size();
+        });
     }
 }
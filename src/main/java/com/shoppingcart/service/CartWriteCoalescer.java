@@ -0,0 +1,123 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.config.CartMetrics;
+import com.shoppingcart.config.WriteCoalescingProperties;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Combines item additions to the same cart. The first caller for a customer writes its item; callers arriving
+ * while that write runs are queued, and the first of them writes all queued items (up to the maximum batch size)
+ * with a single update once the previous write completes. Every caller gets the cart returned by the update that
+ * wrote its item, or that update's exception. Items of one customer are written in arrival order and no caller
+ * waits for more than the write before its own, plus the configured linger.
+ */
+@Service
+public class CartWriteCoalescer {
+    private final WriteCoalescingProperties properties;
+    private final CartMetrics cartMetrics;
+    // Customers with a write in progress and the items queued behind it
+    private final Map<String, Queue> queues = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CartWriteCoalescer(WriteCoalescingProperties properties, CartMetrics cartMetrics) {
+        this.properties = properties;
+        this.cartMetrics = cartMetrics;
+    }
+
+    /**
+     * Appends the item with the next write of the customer's cart.
+     *
+     * @param customerId the customer id
+     * @param item       the item to append
+     * @param write      appends a batch of items, in order, with one update and returns the updated cart
+     * @return the cart returned by the write that appended the item
+     */
+    public Cart append(String customerId, Item item, Function<List<Item>, Cart> write) {
+        if (!properties.isEnabled()) {
+            return write.apply(List.of(item));
+        }
+        Pending pending = new Pending(item);
+        boolean[] leader = new boolean[1];
+        queues.compute(customerId, (key, queue) -> {
+            if (queue == null) {
+                queue = new Queue();
+                leader[0] = true;
+            }
+            queue.pending.add(pending);
+            return queue;
+        });
+        if (!leader[0]) {
+            // Either written by another caller, or asked to write the next batch
+            CompletableFuture.anyOf(pending.result, pending.lead).handle((done, failure) -> null).join();
+        }
+        if (!pending.result.isDone()) {
+            writeBatch(customerId, write);
+        }
+        try {
+            return pending.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void writeBatch(String customerId, Function<List<Item>, Cart> write) {
+        if (properties.getLinger().isPositive()) {
+            try {
+                Thread.sleep(properties.getLinger());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<Pending> batch = new ArrayList<>();
+        queues.computeIfPresent(customerId, (key, queue) -> {
+            int size = Math.min(queue.pending.size(), properties.getMaxBatchSize());
+            List<Pending> head = queue.pending.subList(0, size);
+            batch.addAll(head);
+            head.clear();
+            return queue;
+        });
+        try {
+            Cart cart = write.apply(batch.stream().map(Pending::item).toList());
+            batch.forEach(written -> written.result.complete(cart));
+        } catch (RuntimeException | Error e) {
+            batch.forEach(written -> written.result.completeExceptionally(e));
+        } finally {
+            cartMetrics.recordWriteBatch(batch.size());
+            // Hands the next batch to its first caller, or ends the write sequence
+            queues.computeIfPresent(customerId, (key, queue) -> {
+                if (queue.pending.isEmpty()) {
+                    return null;
+                }
+                queue.pending.get(0).lead.complete(null);
+                return queue;
+            });
+        }
+    }
+
+    private static class Queue {
+        private final List<Pending> pending = new ArrayList<>();
+    }
+
+    private record Pending(Item item, CompletableFuture<Cart> result, CompletableFuture<Void> lead) {
+        private Pending(Item item) {
+            this(item, new CompletableFuture<>(), new CompletableFuture<>());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.shoppingcart.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.shoppingcart.config.IdempotencyProperties;
+import com.shoppingcart.model.Cart;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the carts returned for requests sent with an {@code Idempotency-Key}, so a retried request gets the
+ * stored response without the cart being read or written again. Keys are scoped to the operation and customer and
+ * kept in a bounded in-process cache for the configured TTL. A retry arriving while the first request still runs
+ * waits for it and gets its response. Failed requests are not stored and can be retried. Reusing a key for a
+ * different request body is rejected. Hits and misses are published as {@code cache.*} metrics with
+ * {@code cache=idempotency}.
+ */
+@Service
+public class IdempotencyStore {
+    public static final String NAME = "idempotency";
+    public static final String SAVE_CART = "save-cart";
+    public static final String ADD_ITEM = "add-item";
+    // Like the Idempotency-Key header draft, a key is an opaque string of reasonable length
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final IdempotencyProperties properties;
+    private final ObjectMapper objectMapper;
+    private final AsyncCache<Key, Stored> responses;
+
+    @Autowired
+    public IdempotencyStore(IdempotencyProperties properties, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.responses = Caffeine.newBuilder()
+            .maximumSize(properties.getMaximumSize())
+            .expireAfterWrite(properties.getTtl())
+            .recordStats()
+            .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, responses, NAME);
+    }
+
+    /**
+     * Runs the request once per idempotency key.
+     *
+     * @param operation      the operation, {@link #SAVE_CART} or {@link #ADD_ITEM}
+     * @param customerId     the customer the request is for
+     * @param idempotencyKey the client's key, {@code null} to run the request without idempotency
+     * @param request        the request body, compared with the body of the request that first used the key
+     * @param execute        runs the request
+     * @return the cart returned by the first request with the key, and whether it is a replay
+     * @throws IllegalArgumentException if the key is blank or too long
+     * @throws IllegalStateException    if the key was used for a different request body
+     */
+    public Result execute(String operation, String customerId, String idempotencyKey, Object request,
+                          Supplier<Cart> execute) {
+        if (!properties.isEnabled() || idempotencyKey == null) {
+            return new Result(execute.get(), false);
+        }
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        // Taken before the request runs, the service sets timestamps and totals on the request body
+        byte[] fingerprint = fingerprint(request);
+        Key key = new Key(operation, customerId, idempotencyKey);
+        CompletableFuture<Stored> running = new CompletableFuture<>();
+        CompletableFuture<Stored> existing = responses.asMap().putIfAbsent(key, running);
+        if (existing == null) {
+            Stored stored;
+            try {
+                stored = new Stored(fingerprint, execute.get(), null);
+            } catch (RuntimeException | Error e) {
+                // Not stored, a retry runs the request again
+                responses.asMap().remove(key, running);
+                stored = new Stored(fingerprint, null, e);
+            }
+            running.complete(stored);
+        }
+        Stored stored = (existing != null ? existing : running).join();
+        // Checked first, a different request must not get the outcome of the one that used the key
+        if (!Arrays.equals(stored.fingerprint(), fingerprint)) {
+            throw new IllegalStateException("Idempotency-Key " + idempotencyKey + " was already used for a different request");
+        }
+        if (stored.failure() instanceof RuntimeException failure) {
+            throw failure;
+        }
+        if (stored.failure() instanceof Error failure) {
+            throw failure;
+        }
+        return new Result(stored.cart(), existing != null);
+    }
+
+    private byte[] fingerprint(Object request) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot fingerprint the request", e);
+        }
+    }
+
+    public record Result(Cart cart, boolean replayed) {}
+
+    private record Key(String operation, String customerId, String idempotencyKey) {}
+
+    // A failed request completes its future normally: the cache logs every exceptionally completed future as a
+    // failed load with its stack trace
+    private record Stored(byte[] fingerprint, Cart cart, Throwable failure) {}
+}
@@ -0,0 +1,187 @@
+package com.shoppingcart.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.shoppingcart.config.StatisticsProperties;
+import com.shoppingcart.dto.StatisticsResponse;
+import com.shoppingcart.model.Item;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Caches statistics results per offer, action and period. Periods that ended more than the settle time ago no
+ * longer change unless items are written with old timestamps or carts are deleted, so they are kept for the
+ * completed TTL; periods reaching into the present are kept for the short live TTL. Concurrent requests for the
+ * same result wait for a single computation. Writes invalidate only the cached periods of the written offers and
+ * actions that contain the written items' timestamps, including computations still in flight; writes handled by
+ * other instances are only seen once the entries expire. Hits, misses and evictions are published as
+ * {@code cache.*} metrics with {@code cache=statistics}.
+ */
+@Service
+public class StatisticsCache {
+    public static final String NAME = "statistics";
+
+    private final StatisticsProperties.Cache properties;
+    private final AsyncCache<Key, Outcome> cache;
+    // The cached keys per offer, maintained by the removal listener
+    private final Map<String, Set<Key>> keysByOffer = new ConcurrentHashMap<>();
+
+    @Autowired
+    public StatisticsCache(StatisticsProperties statisticsProperties, MeterRegistry meterRegistry) {
+        this.properties = statisticsProperties.getCache();
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(properties.getMaximumSize())
+            .expireAfter(new PeriodExpiry())
+            // Keeps the key index in step with the cache
+            .executor(Runnable::run)
+            .removalListener((Key key, Outcome value, RemovalCause cause) -> unindex(key))
+            .recordStats()
+            .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, NAME);
+    }
+
+    /**
+     * Returns the cached result, or computes it on the calling thread. Callers asking for the same result while it
+     * is computed wait for that computation and get its result or exception; failures are not cached.
+     *
+     * @param approximate whether the result estimates the unique customers
+     * @param compute     computes the result
+     * @return the result
+     */
+    public StatisticsResponse get(String offerId, String action, Instant from, Instant to, boolean approximate,
+                                  Supplier<StatisticsResponse> compute) {
+        if (!properties.isEnabled()) {
+            return compute.get();
+        }
+        Key key = new Key(offerId, action, from, to, approximate);
+        CompletableFuture<Outcome> computation = new CompletableFuture<>();
+        // Indexed together with the entry, so an invalidation finds the key while the computation runs
+        CompletableFuture<Outcome> cached = cache.asMap().computeIfAbsent(key, k -> {
+            index(k);
+            return computation;
+        });
+        if (cached != computation) {
+            return join(cached);
+        }
+        Outcome outcome;
+        try {
+            outcome = new Outcome(compute.get(), null);
+        } catch (RuntimeException | Error e) {
+            // Dropped before the waiting callers see the failure, so it is not cached
+            cache.asMap().remove(key, computation);
+            outcome = new Outcome(null, e);
+        }
+        computation.complete(outcome);
+        return join(computation);
+    }
+
+    /**
+     * The end to use for a period without one: now, truncated to the live TTL while caching is enabled. Requests for
+     * a period reaching into the present then share one entry for as long as a live entry is kept, instead of each
+     * one asking for its own sub-millisecond end; items written in the truncated part are counted by later requests.
+     *
+     * @return the end of a period reaching into the present
+     */
+    public Instant liveEnd() {
+        Instant now = Instant.now();
+        long ttlMillis = properties.getLiveTtl().toMillis();
+        if (!properties.isEnabled() || ttlMillis <= 0) {
+            return now;
+        }
+        return Instant.ofEpochMilli(Math.floorDiv(now.toEpochMilli(), ttlMillis) * ttlMillis);
+    }
+
+    /**
+     * Drops the cached results the given items may change: those of the items' offers and actions whose period
+     * contains an item's action timestamp.
+     *
+     * @param items the written or deleted items
+     */
+    public void invalidate(Collection<Item> items) {
+        if (!properties.isEnabled() || items == null) {
+            return;
+        }
+        for (Item item : items) {
+            if (item.getOfferId() == null || item.getAction() == null || item.getActionTimestamp() == null) {
+                continue;
+            }
+            Set<Key> keys = keysByOffer.get(item.getOfferId());
+            if (keys == null) {
+                continue;
+            }
+            Instant timestamp = item.getActionTimestamp();
+            for (Key key : keys) {
+                if (key.action().equalsIgnoreCase(item.getAction().name())
+                        && !timestamp.isBefore(key.from()) && !timestamp.isAfter(key.to())) {
+                    cache.synchronous().invalidate(key);
+                }
+            }
+        }
+    }
+
+    private void index(Key key) {
+        keysByOffer.compute(key.offerId(), (offerId, keys) -> {
+            Set<Key> indexed = keys != null ? keys : ConcurrentHashMap.newKeySet();
+            indexed.add(key);
+            return indexed;
+        });
+    }
+
+    // Runs under the lock of the key's entry like index, so a key cached again meanwhile stays indexed
+    private void unindex(Key key) {
+        cache.asMap().computeIfAbsent(key, k -> {
+            keysByOffer.computeIfPresent(k.offerId(), (offerId, keys) -> {
+                keys.remove(k);
+                return keys.isEmpty() ? null : keys;
+            });
+            return null;
+        });
+    }
+
+    private static StatisticsResponse join(CompletableFuture<Outcome> future) {
+        Outcome outcome = future.join();
+        if (outcome.failure() instanceof RuntimeException failure) {
+            throw failure;
+        }
+        if (outcome.failure() instanceof Error failure) {
+            throw failure;
+        }
+        return outcome.response();
+    }
+
+    private record Key(String offerId, String action, Instant from, Instant to, boolean approximate) {}
+
+    // A failed computation completes its future normally: the cache logs every exceptionally completed future as a
+    // failed load with its stack trace, which bad requests would otherwise flood the log with
+    private record Outcome(StatisticsResponse response, Throwable failure) {}
+
+    private class PeriodExpiry implements Expiry<Key, Outcome> {
+        @Override
+        public long expireAfterCreate(Key key, Outcome value, long currentTime) {
+            Instant settled = Instant.now().minus(properties.getSettleTime());
+            return (key.to().isBefore(settled) ? properties.getCompletedTtl() : properties.getLiveTtl()).toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(Key key, Outcome value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Key key, Outcome value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
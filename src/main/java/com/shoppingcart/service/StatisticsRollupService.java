@@ -0,0 +1,326 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.config.StatisticsProperties;
+import com.shoppingcart.dto.CustomerItemCount;
+import com.shoppingcart.dto.OfferCustomerCount;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.OfferStatistics;
+import com.shoppingcart.dto.RollupIncrement;
+import com.shoppingcart.dto.StatisticsAggregate;
+import com.shoppingcart.dto.StatisticsEstimate;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.model.StatisticsRollup;
+import com.shoppingcart.repository.CartRepository;
+import com.shoppingcart.repository.StatisticsRollupRepository;
+import com.shoppingcart.util.HyperLogLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Maintains per (offerId, action, time bucket) statistics rollups on the cart write path
+ * and answers statistics queries from them. Rollups are updated after the cart write, not atomically with it:
+ * a failure in between leaves them behind the carts until they are rebuilt.
+ */
+@Service
+public class StatisticsRollupService {
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsRollupService.class);
+
+    private final StatisticsRollupRepository rollupRepository;
+    private final CartRepository cartRepository;
+    private final StatisticsProperties.Rollups properties;
+
+    @Autowired
+    public StatisticsRollupService(StatisticsRollupRepository rollupRepository, CartRepository cartRepository,
+                                   StatisticsProperties statisticsProperties) {
+        this.rollupRepository = rollupRepository;
+        this.cartRepository = cartRepository;
+        this.properties = statisticsProperties.getRollups();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Adds the given items of a customer's cart to the rollups. Does nothing when rollups are disabled.
+     *
+     * @param customerId the customer owning the items
+     * @param items      the newly stored items
+     */
+    public void record(String customerId, Collection<Item> items) {
+        if (isEnabled() && items != null) {
+            rollupRepository.increment(toIncrements(customerId, items));
+        }
+    }
+
+    /**
+     * Adds the items of several carts to the rollups with one repository call, the increments of carts sharing a
+     * bucket merged. Does nothing when rollups are disabled.
+     *
+     * @param carts the newly stored carts
+     */
+    public void recordCarts(Collection<Cart> carts) {
+        if (!isEnabled()) {
+            return;
+        }
+        Map<String, RollupIncrement> increments = new HashMap<>();
+        for (Cart cart : carts) {
+            if (cart.getItems() != null) {
+                merge(increments, toIncrements(cart.getCustomerId(), cart.getItems()));
+            }
+        }
+        if (!increments.isEmpty()) {
+            rollupRepository.increment(increments.values());
+        }
+    }
+
+    /**
+     * Removes the items of a deleted cart, or its deleted archived history, from the rollups.
+     * Does nothing when rollups are disabled.
+     *
+     * @param customerId the customer owning the items
+     * @param items      the deleted items
+     */
+    public void remove(String customerId, Collection<Item> items) {
+        if (isEnabled() && items != null) {
+            rollupRepository.decrement(toIncrements(customerId, items));
+        }
+    }
+
+    /**
+     * Statistics from rollups. Whole buckets inside the period are summed from the rollups, the partial
+     * buckets at both ends are aggregated from the carts, which keeps the exclusive {@code from}/{@code to}
+     * semantics of the cart based query.
+     *
+     * @param offerId the offer id
+     * @param action  the action
+     * @param from    the start of the period, exclusive
+     * @param to      the end of the period, exclusive
+     * @return the statistics for the period
+     */
+    public StatisticsAggregate getStatistics(String offerId, String action, Instant from, Instant to) {
+        // First bucket starting strictly after from, and the bucket containing to
+        Instant firstFullBucket = bucketOf(from).plus(properties.getBucketSize());
+        Instant lastPartialBucket = bucketOf(to);
+        if (!firstFullBucket.isBefore(lastPartialBucket)) {
+            return summarize(0, new HashSet<>(), cartRepository.aggregateItemCountsByCustomer(offerId, action, from, to));
+        }
+
+        long count = 0;
+        for (StatisticsRollup rollup : rollupRepository.findBuckets(offerId, action, firstFullBucket, lastPartialBucket)) {
+            count += rollup.getItemCount();
+        }
+        List<CustomerItemCount> edges = new ArrayList<>(
+            cartRepository.aggregateItemCountsByCustomer(offerId, action, from, firstFullBucket));
+        // The cart query excludes its lower bound; Mongo dates have millisecond precision
+        edges.addAll(cartRepository.aggregateItemCountsByCustomer(offerId, action, lastPartialBucket.minusMillis(1), to));
+        Set<String> customers = new HashSet<>();
+        for (CustomerItemCount edge : edges) {
+            count += edge.itemCount();
+            customers.add(edge.customerId());
+        }
+        // The customers of the whole buckets are counted on the server, leaving out those of the partial buckets
+        long uniqueCustomers = customers.size()
+            + rollupRepository.countCustomers(offerId, action, firstFullBucket, lastPartialBucket, customers);
+        return new StatisticsAggregate(count, uniqueCustomers, count);
+    }
+
+    /**
+     * Statistics with the unique customers estimated: the customer sketches of the whole buckets are merged with a
+     * sketch of the customers in the partial buckets at both ends. Without rollups the whole period is aggregated per
+     * customer and the rows are streamed into the sketch, so in both cases the memory used does not grow with the
+     * number of customers. Rollups written before sketches existed have none until the rollups are rebuilt; when
+     * such a bucket has items the whole period is sketched from the carts instead. Customers of deleted carts stay in
+     * the sketches of buckets that still have items until the rollups are rebuilt.
+     *
+     * @param offerId the offer id
+     * @param action  the action
+     * @param from    the start of the period, exclusive
+     * @param to      the end of the period, exclusive
+     * @return the statistics for the period with the estimated unique customers
+     */
+    public StatisticsEstimate estimateStatistics(String offerId, String action, Instant from, Instant to) {
+        Instant firstFullBucket = bucketOf(from).plus(properties.getBucketSize());
+        Instant lastPartialBucket = bucketOf(to);
+        List<StatisticsRollup> rollups = isEnabled() && firstFullBucket.isBefore(lastPartialBucket)
+            ? rollupRepository.findSketches(offerId, action, firstFullBucket, lastPartialBucket)
+            : null;
+        if (rollups != null && rollups.stream().anyMatch(rollup -> rollup.getItemCount() > 0 && rollup.getCustomerSketch() == null)) {
+            logger.debug("Statistics rollups of offer {} and action {} have no customer sketch, sketching from the carts",
+                offerId, action);
+            rollups = null;
+        }
+        HyperLogLog sketch = new HyperLogLog();
+        long count;
+        if (rollups == null) {
+            count = addTo(sketch, cartRepository.streamItemCountsByCustomer(offerId, action, from, to));
+        } else {
+            count = 0;
+            for (StatisticsRollup rollup : rollups) {
+                if (rollup.getItemCount() > 0) {
+                    count += rollup.getItemCount();
+                    sketch.merge(rollup.getCustomerSketch());
+                }
+            }
+            count += addTo(sketch, cartRepository.streamItemCountsByCustomer(offerId, action, from, firstFullBucket));
+            count += addTo(sketch, cartRepository.streamItemCountsByCustomer(offerId, action,
+                lastPartialBucket.minusMillis(1), to));
+        }
+        return count == 0
+            ? new StatisticsEstimate(0, 0, 0, 0)
+            : new StatisticsEstimate(count, sketch.estimate(), sketch.errorBound(), count);
+    }
+
+    /**
+     * Batch statistics from rollups, like {@link #getStatistics(String, String, Instant, Instant)}: one rollup
+     * query for the whole buckets of all offers and actions and one cart aggregation per partial bucket.
+     *
+     * @return one row per offer and action with matching items
+     */
+    public List<OfferStatistics> getStatistics(Collection<String> offerIds, Collection<String> actions,
+                                               Instant from, Instant to) {
+        Instant firstFullBucket = bucketOf(from).plus(properties.getBucketSize());
+        Instant lastPartialBucket = bucketOf(to);
+        // offerId and action -> item count, edge customer ids and the number of other rollup customers
+        Map<List<String>, Long> counts = new LinkedHashMap<>();
+        Map<List<String>, Set<String>> customers = new HashMap<>();
+        Map<List<String>, Long> rollupCustomers = new HashMap<>();
+        List<OfferCustomerItemCount> edges = new ArrayList<>();
+        if (!firstFullBucket.isBefore(lastPartialBucket)) {
+            edges.addAll(cartRepository.aggregateItemCountsByCustomer(offerIds, actions, from, to));
+        } else {
+            for (StatisticsRollup rollup : rollupRepository.findBuckets(offerIds, actions, firstFullBucket, lastPartialBucket)) {
+                counts.merge(List.of(rollup.getOfferId(), rollup.getAction()), rollup.getItemCount(), Long::sum);
+            }
+            edges.addAll(cartRepository.aggregateItemCountsByCustomer(offerIds, actions, from, firstFullBucket));
+            edges.addAll(cartRepository.aggregateItemCountsByCustomer(offerIds, actions, lastPartialBucket.minusMillis(1), to));
+            for (OfferCustomerCount customerCount : rollupRepository.countCustomers(offerIds, actions, firstFullBucket,
+                    lastPartialBucket, edges)) {
+                rollupCustomers.put(List.of(customerCount.offerId(), customerCount.action()), customerCount.customers());
+            }
+        }
+        for (OfferCustomerItemCount edge : edges) {
+            List<String> key = List.of(edge.offerId(), edge.action());
+            counts.merge(key, edge.itemCount(), Long::sum);
+            customers.computeIfAbsent(key, k -> new HashSet<>()).add(edge.customerId());
+        }
+        List<OfferStatistics> result = new ArrayList<>();
+        counts.forEach((key, count) -> {
+            // Rollups of deleted carts stay behind with no items
+            if (count > 0) {
+                long uniqueCustomers = customers.getOrDefault(key, Set.of()).size() + rollupCustomers.getOrDefault(key, 0L);
+                result.add(new OfferStatistics(key.get(0), key.get(1), count, uniqueCustomers, count));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Drops all rollups and recreates them from the stored carts and their archived history. Writes arriving
+     * while the rebuild runs may be counted twice, so it should be run while the service is not taking cart writes.
+     *
+     * @return the number of carts processed
+     */
+    public long rebuild() {
+        logger.info("Rebuilding statistics rollups");
+        rollupRepository.deleteAll();
+        rollupRepository.deleteAllCustomers();
+        long carts;
+        try (Stream<Cart> stream = cartRepository.streamAllBy()) {
+            carts = rebuildFrom(stream);
+        }
+        try (Stream<Cart> stream = cartRepository.streamArchivedCarts()) {
+            rebuildFrom(stream);
+        }
+        logger.info("Rebuilt statistics rollups from {} carts", carts);
+        return carts;
+    }
+
+    private long rebuildFrom(Stream<Cart> stream) {
+        long carts = 0;
+        Map<String, RollupIncrement> pending = new HashMap<>();
+        Iterator<Cart> iterator = stream.iterator();
+        while (iterator.hasNext()) {
+            Cart cart = iterator.next();
+            if (cart.getItems() != null) {
+                merge(pending, toIncrements(cart.getCustomerId(), cart.getItems()));
+            }
+            if (++carts % properties.getRebuildBatchSize() == 0) {
+                rollupRepository.increment(pending.values());
+                pending.clear();
+            }
+        }
+        rollupRepository.increment(pending.values());
+        return carts;
+    }
+
+    private Instant bucketOf(Instant instant) {
+        long bucketMillis = properties.getBucketSize().toMillis();
+        return Instant.ofEpochMilli(Math.floorDiv(instant.toEpochMilli(), bucketMillis) * bucketMillis);
+    }
+
+    private Collection<RollupIncrement> toIncrements(String customerId, Collection<Item> items) {
+        Map<String, RollupIncrement> increments = new HashMap<>();
+        for (Item item : items) {
+            if (item.getOfferId() == null || item.getAction() == null || item.getActionTimestamp() == null) {
+                continue;
+            }
+            Instant bucket = bucketOf(item.getActionTimestamp());
+            merge(increments, List.of(new RollupIncrement(item.getOfferId(), item.getAction().name(), bucket, 1, Set.of(customerId))));
+        }
+        return increments.values();
+    }
+
+    // Accumulates into the target map; the customer id sets held by the map are mutable copies
+    private static void merge(Map<String, RollupIncrement> target, Collection<RollupIncrement> increments) {
+        for (RollupIncrement increment : increments) {
+            String key = StatisticsRollup.idOf(increment.offerId(), increment.action(), increment.bucket());
+            RollupIncrement existing = target.get(key);
+            if (existing == null) {
+                target.put(key, new RollupIncrement(increment.offerId(), increment.action(), increment.bucket(),
+                    increment.itemCount(), new HashSet<>(increment.customerIds())));
+            } else {
+                existing.customerIds().addAll(increment.customerIds());
+                target.put(key, new RollupIncrement(existing.offerId(), existing.action(), existing.bucket(),
+                    existing.itemCount() + increment.itemCount(), existing.customerIds()));
+            }
+        }
+    }
+
+    // Adds the customers to the sketch and returns their item count; closes the stream
+    private static long addTo(HyperLogLog sketch, Stream<CustomerItemCount> counts) {
+        long count = 0;
+        try (counts) {
+            Iterator<CustomerItemCount> iterator = counts.iterator();
+            while (iterator.hasNext()) {
+                CustomerItemCount customerCount = iterator.next();
+                count += customerCount.itemCount();
+                sketch.add(customerCount.customerId());
+            }
+        }
+        return count;
+    }
+
+    private static StatisticsAggregate summarize(long count, Set<String> customers, List<CustomerItemCount> counts) {
+        for (CustomerItemCount customerCount : counts) {
+            count += customerCount.itemCount();
+            customers.add(customerCount.customerId());
+        }
+        return new StatisticsAggregate(count, customers.size(), count);
+    }
+}
@@ -0,0 +1,135 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.config.StatisticsProperties;
+import com.shoppingcart.dto.TrendingOffers;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.util.SpaceSaving;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts the offers of the items written through this instance in a ring of time slots per action, each slot holding
+ * a bounded {@link SpaceSaving} summary, and answers top offer queries over recent windows from memory. Memory is
+ * bounded by actions x slots x capacity; a query merges the summaries of the slots in its window. Counts are not
+ * persisted and cover only this instance's writes since startup.
+ */
+@Service
+public class TrendingOffersService {
+    private final StatisticsProperties.Trending properties;
+    private final long slotMillis;
+    private final int slotCount;
+    private final Map<String, AtomicReferenceArray<Slot>> slotsByAction = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TrendingOffersService(StatisticsProperties statisticsProperties) {
+        this.properties = statisticsProperties.getTrending();
+        this.slotMillis = properties.getSlotSize().toMillis();
+        // One more slot than the longest window, the current slot is only partly inside it
+        this.slotCount = (int) ((properties.getMaxWindow().toMillis() + slotMillis - 1) / slotMillis) + 1;
+    }
+
+    /**
+     * Counts the given items in the slots of their action timestamps. Items without offer, action or timestamp and
+     * items outside the longest window are ignored.
+     *
+     * @param items the newly stored items
+     */
+    public void record(Collection<Item> items) {
+        record(items, Instant.now());
+    }
+
+    void record(Collection<Item> items, Instant now) {
+        if (items == null) {
+            return;
+        }
+        long currentSlot = slotOf(now);
+        for (Item item : items) {
+            if (item.getOfferId() == null || item.getAction() == null || item.getActionTimestamp() == null) {
+                continue;
+            }
+            long slot = slotOf(item.getActionTimestamp());
+            if (slot > currentSlot || slot <= currentSlot - slotCount) {
+                continue;
+            }
+            SpaceSaving summary = summaryOf(item.getAction().name(), slot);
+            if (summary != null) {
+                summary.add(item.getOfferId());
+            }
+        }
+    }
+
+    /**
+     * Returns the offers with the most items of the given action in the window ending now.
+     *
+     * @param action the action
+     * @param window the window length, rounded up to whole slots
+     * @param limit  the number of offers to return
+     * @return the top offers, highest count first
+     * @throws IllegalArgumentException if the window is not positive or longer than the configured maximum, or the
+     *                                  limit is not between 1 and the summary capacity
+     */
+    public TrendingOffers getTopOffers(String action, Duration window, int limit) {
+        return getTopOffers(action, window, limit, Instant.now());
+    }
+
+    TrendingOffers getTopOffers(String action, Duration window, int limit, Instant now) {
+        if (window.isNegative() || window.isZero() || window.compareTo(properties.getMaxWindow()) > 0) {
+            throw new IllegalArgumentException("window must be positive and at most " + properties.getMaxWindow());
+        }
+        if (limit < 1 || limit > properties.getCapacity()) {
+            throw new IllegalArgumentException("limit must be between 1 and " + properties.getCapacity());
+        }
+        long currentSlot = slotOf(now);
+        long firstSlot = slotOf(now.minus(window).plusMillis(1));
+        List<SpaceSaving> summaries = new ArrayList<>();
+        AtomicReferenceArray<Slot> slots = slotsByAction.get(action);
+        if (slots != null) {
+            for (long slot = firstSlot; slot <= currentSlot; slot++) {
+                Slot stored = slots.get(indexOf(slot));
+                if (stored != null && stored.slot() == slot) {
+                    summaries.add(stored.summary());
+                }
+            }
+        }
+        List<TrendingOffers.Offer> offers = SpaceSaving.top(summaries, limit).stream()
+            .map(estimate -> new TrendingOffers.Offer(estimate.key(), estimate.count(), estimate.error()))
+            .toList();
+        return new TrendingOffers(action, window, Instant.ofEpochMilli(firstSlot * slotMillis), now, offers);
+    }
+
+    // Replaces the ring entry of an older slot; null if a newer slot has replaced this one already
+    private SpaceSaving summaryOf(String action, long slot) {
+        AtomicReferenceArray<Slot> slots = slotsByAction.computeIfAbsent(action,
+            key -> new AtomicReferenceArray<>(slotCount));
+        int index = indexOf(slot);
+        while (true) {
+            Slot stored = slots.get(index);
+            if (stored != null && stored.slot() >= slot) {
+                return stored.slot() == slot ? stored.summary() : null;
+            }
+            Slot fresh = new Slot(slot, new SpaceSaving(properties.getCapacity()));
+            if (slots.compareAndSet(index, stored, fresh)) {
+                return fresh.summary();
+            }
+        }
+    }
+
+    private long slotOf(Instant instant) {
+        return Math.floorDiv(instant.toEpochMilli(), slotMillis);
+    }
+
+    private int indexOf(long slot) {
+        return (int) Math.floorMod(slot, slotCount);
+    }
+
+    private record Slot(long slot, SpaceSaving summary) {}
+}
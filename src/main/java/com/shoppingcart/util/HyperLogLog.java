@@ -0,0 +1,110 @@
+package com.shoppingcart.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HyperLogLog sketch for approximate distinct counting in constant memory: {@value #REGISTERS} one byte registers,
+ * with a relative standard error of {@code 1.04 / sqrt(REGISTERS)}, about 1.6%. Sketches are unioned by taking the
+ * maximum of every register, so a sketch stored per time bucket can be merged into the sketch of any range of
+ * buckets. Values are hashed with 64-bit FNV-1a followed by the MurmurHash3 finalizer; no large range correction is
+ * needed with 64-bit hashes. Not thread-safe.
+ */
+public class HyperLogLog {
+    public static final int PRECISION = 12;
+    public static final int REGISTERS = 1 << PRECISION;
+    public static final double RELATIVE_STANDARD_ERROR = 1.04 / Math.sqrt(REGISTERS);
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    public static HyperLogLog of(Collection<String> values) {
+        HyperLogLog sketch = new HyperLogLog();
+        values.forEach(sketch::add);
+        return sketch;
+    }
+
+    public void add(String value) {
+        long hash = hash(value);
+        int index = (int) (hash >>> (Long.SIZE - PRECISION));
+        // The guard bit caps the rank when the remaining bits are all zero
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        update(index, rank);
+    }
+
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            update(i, other.registers[i]);
+        }
+    }
+
+    /**
+     * Merges a sketch stored in the sparse form of {@link #toSparse()}.
+     */
+    public void merge(Map<String, Integer> sparse) {
+        if (sparse != null) {
+            sparse.forEach((index, rank) -> update(Integer.parseInt(index), rank));
+        }
+    }
+
+    /**
+     * The non-zero registers keyed by their index, the form sketches are stored in: a register is updated with
+     * {@code $max}, so concurrent writes merge without reading the sketch first.
+     */
+    public Map<String, Integer> toSparse() {
+        Map<String, Integer> sparse = new HashMap<>();
+        for (int i = 0; i < REGISTERS; i++) {
+            if (registers[i] != 0) {
+                sparse.put(String.valueOf(i), (int) registers[i]);
+            }
+        }
+        return sparse;
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += Math.scalb(1.0, -register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // Linear counting is more accurate for small cardinalities
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Half width of the interval around {@link #estimate()} holding the exact count with about 95% probability,
+     * two standard errors.
+     */
+    public long errorBound() {
+        return (long) Math.ceil(2 * RELATIVE_STANDARD_ERROR * estimate());
+    }
+
+    private void update(int index, int rank) {
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -4,6 +4,14 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resilience settings. The top-level values are the defaults for every operation,
+ * {@code operations.<name>} overrides them for a single operation (see {@link ResilienceUtils.Operation}).
+ */
 @Data
 @Configuration
 @ConfigurationProperties(prefix = "resilience")
@@ -11,4 +19,26 @@ public class ResilienceProperties {
     private int initialWaitMs;
     private double multiplier;
     private int maxAttempts;
+    private float failureRateThreshold = 50;
+    private int slidingWindowSize = 20;
+    private int minimumNumberOfCalls = 10;
+    private Duration waitDurationInOpenState = Duration.ofSeconds(30);
+    private int maxConcurrentCalls = 50;
+    // How long a call waits for a free bulkhead slot before it is rejected
+    private Duration maxWaitDuration = Duration.ZERO;
+    // No time limit when not set; a time limit moves the call onto a separate thread
+    private Duration timeout;
+    private Map<String, Policy> operations = new HashMap<>();
+
+    @Data
+    public static class Policy {
+        private Integer maxAttempts;
+        private Float failureRateThreshold;
+        private Integer slidingWindowSize;
+        private Integer minimumNumberOfCalls;
+        private Duration waitDurationInOpenState;
+        private Integer maxConcurrentCalls;
+        private Duration maxWaitDuration;
+        private Duration timeout;
+    }
 }
@@ -1,72 +1,233 @@
 package com.shoppingcart.util;
 
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.core.IntervalFunction;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedRetryMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedTimeLimiterMetrics;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
 import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiter;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
+/**
+ * Circuit breaker, retry with exponential backoff, bulkhead and optional time limiter per {@link Operation}.
+ * The registries and instances are created once, so breaker state and metrics are shared by all calls.
+ */
 @Component
 public class ResilienceUtils {
-    private static final String DEFAULT_CIRCUIT_BREAKER = "cartServiceCB";
-    private static final String DEFAULT_RETRY = "cartServiceRetry";
+    private static final Logger logger = LoggerFactory.getLogger(ResilienceUtils.class);
+    private static final String UNAVAILABLE = "Service temporarily unavailable. Please try again later.";
+    // A bulkhead frees up as soon as a running call ends
+    private static final Duration BULKHEAD_RETRY_AFTER = Duration.ofSeconds(1);
 
-    private static ResilienceProperties resilienceProperties;
+    /**
+     * Outcomes of the business logic, never retried and never counted as failures. A duplicate key is a conflict
+     * between clients, e.g. two requests creating the same customer's cart, not a sign of an unhealthy database.
+     */
+    private static final Class<?>[] BUSINESS_EXCEPTIONS = {
+        NoSuchElementException.class, IllegalStateException.class, IllegalArgumentException.class,
+        OptimisticLockingFailureException.class, DuplicateKeyException.class
+    };
+
+    public enum Operation {
+        CART_READ("cart-read"),
+        CART_WRITE("cart-write"),
+        CART_DELETE("cart-delete"),
+        STATISTICS("statistics");
+
+        private final String policyName;
+
+        Operation(String policyName) {
+            this.policyName = policyName;
+        }
+
+        public String getPolicyName() {
+            return policyName;
+        }
+    }
 
+    private final Map<Operation, Decorators> decorators = new EnumMap<>(Operation.class);
+    private final ExecutorService timeLimitedExecutor;
+
+    public ResilienceUtils(ResilienceProperties resilienceProperties, MeterRegistry meterRegistry) {
+        this(resilienceProperties, meterRegistry, false);
+    }
+
+    /**
+     * @param virtualThreads run time limited calls on virtual threads, like the requests themselves
+     *                       when {@code spring.threads.virtual.enabled} is set
+     */
     @Autowired
-    public ResilienceUtils(ResilienceProperties resilienceProperties) {
-        ResilienceUtils.resilienceProperties = resilienceProperties;
+    public ResilienceUtils(ResilienceProperties resilienceProperties, MeterRegistry meterRegistry,
+                           @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+        RetryRegistry retryRegistry = RetryRegistry.ofDefaults();
+        BulkheadRegistry bulkheadRegistry = BulkheadRegistry.ofDefaults();
+        TimeLimiterRegistry timeLimiterRegistry = TimeLimiterRegistry.ofDefaults();
+        if (virtualThreads) {
+            this.timeLimitedExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("resilience-", 1).factory());
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.timeLimitedExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "resilience-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        for (Operation operation : Operation.values()) {
+            ResilienceProperties.Policy policy = resilienceProperties.getOperations()
+                .getOrDefault(operation.getPolicyName(), new ResilienceProperties.Policy());
+            String name = operation.getPolicyName();
+            CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(name, circuitBreakerConfig(resilienceProperties, policy));
+            circuitBreaker.getEventPublisher().onStateTransition(event ->
+                logger.warn("Circuit breaker {} changed state: {}", event.getCircuitBreakerName(), event.getStateTransition()));
+            Retry retry = retryRegistry.retry(name, retryConfig(resilienceProperties, policy));
+            Bulkhead bulkhead = bulkheadRegistry.bulkhead(name, BulkheadConfig.custom()
+                .maxConcurrentCalls(valueOr(policy.getMaxConcurrentCalls(), resilienceProperties.getMaxConcurrentCalls()))
+                .maxWaitDuration(valueOr(policy.getMaxWaitDuration(), resilienceProperties.getMaxWaitDuration()))
+                .build());
+            Duration timeout = valueOr(policy.getTimeout(), resilienceProperties.getTimeout());
+            TimeLimiter timeLimiter = timeout == null ? null : timeLimiterRegistry.timeLimiter(name, TimeLimiterConfig.custom()
+                .timeoutDuration(timeout)
+                .cancelRunningFuture(true)
+                .build());
+            decorators.put(operation, new Decorators(circuitBreaker, retry, bulkhead, timeLimiter));
+        }
+
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry).bindTo(meterRegistry);
+        TaggedRetryMetrics.ofRetryRegistry(retryRegistry).bindTo(meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadRegistry).bindTo(meterRegistry);
+        TaggedTimeLimiterMetrics.ofTimeLimiterRegistry(timeLimiterRegistry).bindTo(meterRegistry);
     }
 
-    private static CircuitBreaker getCircuitBreaker() {
-        return CircuitBreakerRegistry.ofDefaults().circuitBreaker(DEFAULT_CIRCUIT_BREAKER);
+    private static CircuitBreakerConfig circuitBreakerConfig(ResilienceProperties defaults, ResilienceProperties.Policy policy) {
+        return CircuitBreakerConfig.custom()
+            .failureRateThreshold(valueOr(policy.getFailureRateThreshold(), defaults.getFailureRateThreshold()))
+            .slidingWindowSize(valueOr(policy.getSlidingWindowSize(), defaults.getSlidingWindowSize()))
+            .minimumNumberOfCalls(valueOr(policy.getMinimumNumberOfCalls(), defaults.getMinimumNumberOfCalls()))
+            .waitDurationInOpenState(valueOr(policy.getWaitDurationInOpenState(), defaults.getWaitDurationInOpenState()))
+            .ignoreExceptions(businessExceptions())
+            .build();
     }
 
-    private static Retry getRetry() {
-        RetryConfig retryConfig = RetryConfig.custom()
-                .maxAttempts(resilienceProperties.getMaxAttempts())
-                .intervalFunction(io.github.resilience4j.core.IntervalFunction.
-                    ofExponentialBackoff(resilienceProperties.getInitialWaitMs(), resilienceProperties.getMultiplier()))
-                .build();
-        RetryRegistry retryRegistry = RetryRegistry.of(retryConfig);
-        return retryRegistry.retry(DEFAULT_RETRY);
+    private static RetryConfig retryConfig(ResilienceProperties defaults, ResilienceProperties.Policy policy) {
+        return RetryConfig.custom()
+            .maxAttempts(valueOr(policy.getMaxAttempts(), defaults.getMaxAttempts()))
+            .intervalFunction(IntervalFunction.ofExponentialBackoff(defaults.getInitialWaitMs(), defaults.getMultiplier()))
+            .ignoreExceptions(notRetried())
+            .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Throwable>[] businessExceptions() {
+        return (Class<? extends Throwable>[]) BUSINESS_EXCEPTIONS;
+    }
+
+    // Business exceptions, and failures that only happen because the operation is already overloaded
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Throwable>[] notRetried() {
+        Class<?>[] exceptions = Arrays.copyOf(BUSINESS_EXCEPTIONS, BUSINESS_EXCEPTIONS.length + 2);
+        exceptions[BUSINESS_EXCEPTIONS.length] = CallNotPermittedException.class;
+        exceptions[BUSINESS_EXCEPTIONS.length + 1] = BulkheadFullException.class;
+        return (Class<? extends Throwable>[]) exceptions;
+    }
+
+    private static <T> T valueOr(T value, T defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
+    public CircuitBreaker getCircuitBreaker(Operation operation) {
+        return decorators.get(operation).circuitBreaker();
     }
 
     /**
-     * Runs the given Runnable with circuit breaker and exponential backoff retry.
+     * Runs the given Runnable with the resilience policy of the operation.
      */
-    public static void runWithResilience(Runnable runnable) {
-        CircuitBreaker circuitBreaker = getCircuitBreaker();
-        Retry retry = getRetry();
-        Runnable decorated = Retry.decorateRunnable(
-                retry,
-                CircuitBreaker.decorateRunnable(circuitBreaker, runnable)
-        );
-        try {
-            decorated.run();
-        } catch (Exception | Error t) {
-            throw new RuntimeException("Service temporarily unavailable. Please try again later.", t);
-        }
+    public void runWithResilience(Operation operation, Runnable runnable) {
+        callWithResilience(operation, () -> {
+            runnable.run();
+            return null;
+        });
     }
 
     /**
-     * Runs the given Supplier with circuit breaker and exponential backoff retry and returns its value.
+     * Runs the given Supplier with the resilience policy of the operation and returns its value.
+     * Business exceptions (e.g. {@link NoSuchElementException}) are rethrown as they are, calls rejected by the
+     * bulkhead or the open circuit breaker as a {@link ServiceUnavailableException}, and any other failure is
+     * reported as the service being temporarily unavailable.
      */
-    public static <T> T callWithResilience(Supplier<T> supplier) {
-        CircuitBreaker circuitBreaker = getCircuitBreaker();
-        Retry retry = getRetry();
-        Supplier<T> decorated = Retry.decorateSupplier(
-                retry,
-                CircuitBreaker.decorateSupplier(circuitBreaker, supplier)
-        );
+    public <T> T callWithResilience(Operation operation, Supplier<T> supplier) {
+        Decorators decorator = decorators.get(operation);
+        Callable<T> callable = decorator.timeLimiter() == null
+            ? supplier::get
+            : TimeLimiter.decorateFutureSupplier(decorator.timeLimiter(), () -> CompletableFuture.supplyAsync(supplier, timeLimitedExecutor));
+        callable = Bulkhead.decorateCallable(decorator.bulkhead(), callable);
+        callable = CircuitBreaker.decorateCallable(decorator.circuitBreaker(), callable);
+        callable = Retry.decorateCallable(decorator.retry(), callable);
         try {
-            return decorated.get();
+            return callable.call();
         } catch (Exception | Error t) {
-            throw new RuntimeException("Service temporarily unavailable. Please try again later.", t);
+            if (isBusinessException(t)) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof BulkheadFullException) {
+                throw new ServiceUnavailableException(UNAVAILABLE, BULKHEAD_RETRY_AFTER, t);
+            }
+            if (t instanceof CallNotPermittedException) {
+                Duration openWait = Duration.ofMillis(decorator.circuitBreaker().getCircuitBreakerConfig()
+                    .getWaitIntervalFunctionInOpenState().apply(1));
+                throw new ServiceUnavailableException(UNAVAILABLE, openWait, t);
+            }
+            throw new RuntimeException(UNAVAILABLE, t);
+        }
+    }
+
+    private static boolean isBusinessException(Throwable t) {
+        for (Class<?> type : BUSINESS_EXCEPTIONS) {
+            if (type.isInstance(t)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timeLimitedExecutor.shutdownNow();
     }
+
+    private record Decorators(CircuitBreaker circuitBreaker, Retry retry, Bulkhead bulkhead, TimeLimiter timeLimiter) {}
 }
@@ -0,0 +1,20 @@
+package com.shoppingcart.util;
+
+import java.time.Duration;
+
+/**
+ * A call rejected without being run because its operation is overloaded (bulkhead full) or failing
+ * (circuit breaker open). The client may retry after {@link #getRetryAfter()}.
+ */
+public class ServiceUnavailableException extends RuntimeException {
+    private final Duration retryAfter;
+
+    public ServiceUnavailableException(String message, Duration retryAfter, Throwable cause) {
+        super(message, cause);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
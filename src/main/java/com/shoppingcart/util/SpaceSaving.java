@@ -0,0 +1,94 @@
+package com.shoppingcart.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Space-Saving heavy hitter summary: counts at most {@code capacity} keys, a new key replaces the key with the
+ * lowest count and inherits that count as its error. Every key occurring more than {@code total / capacity} times
+ * is kept, and a kept key's count overestimates its exact count by at most its error. Thread-safe.
+ */
+public class SpaceSaving {
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    // Ordered by count, the first counter is replaced when the summary is full
+    private final TreeSet<Counter> byCount = new TreeSet<>(
+        Comparator.comparingLong(Counter::count).thenComparing(Counter::key));
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    public synchronized void add(String key) {
+        Counter counter = counters.remove(key);
+        if (counter != null) {
+            byCount.remove(counter);
+            counter = new Counter(key, counter.count() + 1, counter.error());
+        } else if (counters.size() < capacity) {
+            counter = new Counter(key, 1, 0);
+        } else {
+            Counter evicted = byCount.pollFirst();
+            counters.remove(evicted.key());
+            counter = new Counter(key, evicted.count() + 1, evicted.count());
+        }
+        counters.put(key, counter);
+        byCount.add(counter);
+    }
+
+    /**
+     * Merges the summaries and returns the {@code limit} keys with the highest counts, highest first. A key missing
+     * from a full summary may have occurred up to that summary's lowest count times there, which is added to both
+     * its count and its error, so merged counts stay upper bounds and {@code count - error} lower bounds.
+     */
+    public static List<Estimate> top(Collection<SpaceSaving> summaries, int limit) {
+        List<Collection<Counter>> snapshots = new ArrayList<>(summaries.size());
+        long[] minimums = new long[summaries.size()];
+        long minimumsTotal = 0;
+        for (SpaceSaving summary : summaries) {
+            synchronized (summary) {
+                long minimum = summary.counters.size() < summary.capacity ? 0 : summary.byCount.first().count();
+                minimums[snapshots.size()] = minimum;
+                minimumsTotal += minimum;
+                snapshots.add(new ArrayList<>(summary.counters.values()));
+            }
+        }
+        // key -> count, error and the minimums of the summaries holding the key
+        Map<String, long[]> merged = new HashMap<>();
+        for (int i = 0; i < snapshots.size(); i++) {
+            for (Counter counter : snapshots.get(i)) {
+                long[] estimate = merged.computeIfAbsent(counter.key(), key -> new long[3]);
+                estimate[0] += counter.count();
+                estimate[1] += counter.error();
+                estimate[2] += minimums[i];
+            }
+        }
+        Comparator<Estimate> byCountDescending = Comparator.comparingLong(Estimate::count).reversed()
+            .thenComparing(Estimate::key);
+        // Keeps the limit highest estimates, the lowest of them first
+        PriorityQueue<Estimate> highest = new PriorityQueue<>(byCountDescending.reversed());
+        for (Map.Entry<String, long[]> entry : merged.entrySet()) {
+            long[] estimate = entry.getValue();
+            long missing = minimumsTotal - estimate[2];
+            highest.add(new Estimate(entry.getKey(), estimate[0] + missing, estimate[1] + missing));
+            if (highest.size() > limit) {
+                highest.poll();
+            }
+        }
+        List<Estimate> top = new ArrayList<>(highest);
+        top.sort(byCountDescending);
+        return top;
+    }
+
+    public record Estimate(String key, long count, long error) {}
+
+    private record Counter(String key, long count, long error) {}
+}
@@ -0,0 +1,129 @@
+package com.shoppingcart.config;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Throughput of a 64KB JSON response with the response logging filter off and in each mode.
+ * Records go through an async appender into a no-op sink, like in production minus the disk.
+ * Excluded from the default build, run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class ResponseLoggingFilterBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(ResponseLoggingFilterBenchmarkTest.class);
+
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 20_000;
+    private static final byte[] BODY = ("{\"customerId\":\"customer123\",\"items\":[" + "{\"offerId\":\"tv-001\",\"action\":\"ADD\"},".repeat(1_700) + "{}]}")
+        .getBytes(StandardCharsets.UTF_8);
+
+    private static AsyncAppender asyncAppender;
+
+    @BeforeAll
+    static void routeFilterLogsToAsyncNoOpAppender() {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        AppenderBase<ILoggingEvent> sink = new AppenderBase<>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                event.getFormattedMessage();
+            }
+        };
+        sink.setContext(context);
+        sink.start();
+        asyncAppender = new AsyncAppender();
+        asyncAppender.setContext(context);
+        asyncAppender.setNeverBlock(true);
+        asyncAppender.addAppender(sink);
+        asyncAppender.start();
+        ch.qos.logback.classic.Logger filterLogger = context.getLogger(ResponseLoggingFilter.class);
+        filterLogger.detachAndStopAllAppenders();
+        filterLogger.setAdditive(false);
+        filterLogger.setLevel(ch.qos.logback.classic.Level.INFO);
+        filterLogger.addAppender(asyncAppender);
+    }
+
+    @AfterAll
+    static void stopAppender() {
+        asyncAppender.stop();
+    }
+
+    @Test
+    void compareFilterModes() throws Exception {
+        report("no filter", null);
+        report("OFF", filter(ResponseLoggingProperties.Mode.OFF, 1.0));
+        report("BUFFERED", filter(ResponseLoggingProperties.Mode.BUFFERED, 1.0));
+        report("STREAMING sample 1.0", filter(ResponseLoggingProperties.Mode.STREAMING, 1.0));
+        report("STREAMING sample 0.05", filter(ResponseLoggingProperties.Mode.STREAMING, 0.05));
+    }
+
+    private static ResponseLoggingFilter filter(ResponseLoggingProperties.Mode mode, double sampleRate) {
+        ResponseLoggingProperties properties = new ResponseLoggingProperties();
+        properties.setMode(mode);
+        properties.setSampleRate(sampleRate);
+        return new ResponseLoggingFilter(properties);
+    }
+
+    private static void report(String name, ResponseLoggingFilter filter) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            invoke(filter);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            invoke(filter);
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        logger.info("{}: {} responses/s", name, String.format("%.0f", ITERATIONS / seconds));
+    }
+
+    private static void invoke(ResponseLoggingFilter filter) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/carts/customer123");
+        MockHttpServletResponse response = new DiscardingResponse();
+        MockFilterChain chain = new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.setContentType("application/json");
+                resp.setCharacterEncoding("UTF-8");
+                resp.getOutputStream().write(BODY);
+            }
+        });
+        if (filter == null) {
+            chain.doFilter(request, response);
+        } else {
+            filter.doFilter(request, response, chain);
+        }
+    }
+
+    // MockHttpServletResponse copies byte by byte, which would dominate the measurement
+    private static class DiscardingResponse extends MockHttpServletResponse {
+        private final ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override public void write(int b) {}
+            @Override public void write(byte[] b, int off, int len) {}
+            @Override public boolean isReady() { return true; }
+            @Override public void setWriteListener(WriteListener listener) {}
+        };
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return outputStream;
+        }
+    }
+}
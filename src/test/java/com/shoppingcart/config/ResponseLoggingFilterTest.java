@@ -0,0 +1,73 @@
+package com.shoppingcart.config;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseLoggingFilterTest {
+    private static final String BODY = "{\"customerId\":\"customer123\",\"items\":[]}";
+
+    @Test
+    void testStreamingModePassesBodyThrough() throws Exception {
+        ResponseLoggingProperties properties = new ResponseLoggingProperties();
+        properties.setMode(ResponseLoggingProperties.Mode.STREAMING);
+        properties.setMaxBodyBytes(8);
+        ResponseLoggingFilter filter = new ResponseLoggingFilter(properties);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain(new jakarta.servlet.http.HttpServlet() {
+            @Override
+            protected void service(jakarta.servlet.http.HttpServletRequest req, HttpServletResponse resp) throws java.io.IOException {
+                resp.setContentType("application/json");
+                resp.getOutputStream().write(BODY.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/carts/customer123"), response, chain);
+
+        assertEquals(BODY, response.getContentAsString());
+        TeeResponseWrapper wrapper = (TeeResponseWrapper) chain.getResponse();
+        assertEquals(BODY.length(), wrapper.getBytesWritten());
+        assertEquals("{\"custom...(truncated)", wrapper.describeBody());
+    }
+
+    @Test
+    void testStreamingModeSkipsBinaryBodies() throws Exception {
+        ResponseLoggingProperties properties = new ResponseLoggingProperties();
+        properties.setMode(ResponseLoggingProperties.Mode.STREAMING);
+        ResponseLoggingFilter filter = new ResponseLoggingFilter(properties);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain(new jakarta.servlet.http.HttpServlet() {
+            @Override
+            protected void service(jakarta.servlet.http.HttpServletRequest req, HttpServletResponse resp) throws java.io.IOException {
+                resp.setContentType("application/octet-stream");
+                resp.getOutputStream().write(new byte[] {1, 2, 3});
+            }
+        });
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/carts/customer123"), response, chain);
+
+        assertEquals(3, response.getContentAsByteArray().length);
+        assertEquals("<skipped application/octet-stream>", ((TeeResponseWrapper) chain.getResponse()).describeBody());
+    }
+
+    @Test
+    void testStreamingModeOnlyWrapsSampledPaths() throws Exception {
+        ResponseLoggingProperties properties = new ResponseLoggingProperties();
+        properties.setMode(ResponseLoggingProperties.Mode.STREAMING);
+        properties.setIncludePaths(List.of("/api/carts/statistics/**"));
+        ResponseLoggingFilter filter = new ResponseLoggingFilter(properties);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/carts/customer123"), response, chain);
+
+        assertSame(response, chain.getResponse());
+    }
+}
@@ -1,6 +1,8 @@
 package com.shoppingcart.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 import com.shoppingcart.ShoppingCartApplication;
 import com.shoppingcart.model.Cart;
 import com.shoppingcart.model.Item;
@@ -17,6 +19,7 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.testcontainers.containers.MongoDBContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
@@ -27,7 +30,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -36,6 +42,9 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ActiveProfiles("test")
 @Testcontainers
 public class CartControllerIntegrationTest {
+    private static final MediaType CBOR = MediaType.APPLICATION_CBOR;
+    private static final MediaType SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+
     @Autowired
     private MockMvc mockMvc;
     @Autowired
@@ -58,6 +67,7 @@ public class CartControllerIntegrationTest {
     void setUp() {
         Cart cart = new Cart();
         cart.setCustomerId("test-user");
+        testCustomerIds.add("test-user");
         cart.setItems(List.of()); // Add items as needed for your test
         cartRepository.save(cart);
     }
@@ -98,6 +108,50 @@ public class CartControllerIntegrationTest {
         mockMvc.perform(get("/api/carts/test-customer"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.customerId").value("test-customer"));
+
+        // GET a page of items with some of their fields
+        mockMvc.perform(get("/api/carts/test-customer?limit=1&action=ADD&fields=offerId,prices"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "1"))
+                .andExpect(jsonPath("$.items[0].offerId").value("tv-001"))
+                .andExpect(jsonPath("$.items[0].actionTimestamp").doesNotExist());
+        mockMvc.perform(get("/api/carts/test-customer?fields=price"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testConditionalRequests() throws Exception {
+        mockMvc.perform(get("/api/carts/test-user"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"0\""));
+        mockMvc.perform(get("/api/carts/test-user").header("If-None-Match", "\"0\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        Item item = new Item();
+        item.setOfferId("etag-offer");
+        item.setAction(Item.Action.ADD);
+        Price price = new Price();
+        price.setType(Price.PriceType.ONE_TIME);
+        price.setValue(new BigDecimal("1.00"));
+        item.setPrices(List.of(price));
+        mockMvc.perform(put("/api/carts/test-user/items").header("If-Match", "\"0\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(item)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1\""));
+        // A second writer still holding version 0
+        mockMvc.perform(put("/api/carts/test-user/items").header("If-Match", "\"0\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(item)))
+                .andExpect(status().isConflict());
+        mockMvc.perform(delete("/api/carts/test-user").header("If-Match", "\"0\""))
+                .andExpect(status().isConflict());
+        mockMvc.perform(get("/api/carts/test-user").header("If-None-Match", "\"0\""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(1));
+        mockMvc.perform(delete("/api/carts/test-user").header("If-Match", "\"1\""))
+                .andExpect(status().isNoContent());
     }
 
     @Test
@@ -175,6 +229,7 @@ public class CartControllerIntegrationTest {
         // Insert carts with different offerId/action combinations
         Cart cart1 = new Cart();
         cart1.setCustomerId("stats-user-1");
+        testCustomerIds.add("stats-user-1");
         Item item1 = new Item();
         item1.setOfferId("OFFER1");
         item1.setAction(Item.Action.ADD);
@@ -184,6 +239,7 @@ public class CartControllerIntegrationTest {
 
         Cart cart2 = new Cart();
         cart2.setCustomerId("stats-user-2");
+        testCustomerIds.add("stats-user-2");
         Item item2 = new Item();
         item2.setOfferId("OFFER1");
         item2.setAction(Item.Action.ADD);
@@ -193,6 +249,7 @@ public class CartControllerIntegrationTest {
 
         Cart cart3 = new Cart();
         cart3.setCustomerId("stats-user-3");
+        testCustomerIds.add("stats-user-3");
         Item item3 = new Item();
         item3.setOfferId("OFFER2");
         item3.setAction(Item.Action.DELETE);
@@ -221,5 +278,57 @@ public class CartControllerIntegrationTest {
                 .andExpect(jsonPath("$.count").value(1))
                 .andExpect(jsonPath("$.uniqueCustomers").value(1))
                 .andExpect(jsonPath("$.totalItems").value(1));
+
+        mockMvc.perform(get("/api/carts/statistics/trending").param("action", "ADD"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.action").value("ADD"));
+        // Actions are matched like the enum, an unknown one is not an empty result
+        mockMvc.perform(get("/api/carts/statistics/trending").param("action", "add"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testBinaryContentNegotiation() throws Exception {
+        Cart cart = new Cart();
+        cart.setCustomerId("binary-customer");
+        testCustomerIds.add("binary-customer");
+        Item item = new Item();
+        item.setOfferId("tv-001");
+        item.setAction(Item.Action.ADD);
+        item.setActionTimestamp(Instant.parse("2025-07-24T10:00:00Z"));
+        Price price = new Price();
+        price.setType(Price.PriceType.RECURRING);
+        price.setValue(new BigDecimal("19.99"));
+        price.setRecurrences(12);
+        item.setPrices(List.of(price));
+        cart.setItems(List.of(item));
+        CBORMapper cborMapper = new CBORMapper();
+        cborMapper.findAndRegisterModules();
+        SmileMapper smileMapper = new SmileMapper();
+        smileMapper.findAndRegisterModules();
+
+        // POST cart as CBOR
+        MvcResult created = mockMvc.perform(post("/api/carts")
+                .contentType(CBOR)
+                .accept(CBOR)
+                .content(cborMapper.writeValueAsBytes(cart)))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(CBOR))
+                .andReturn();
+        Cart createdCart = cborMapper.readValue(created.getResponse().getContentAsByteArray(), Cart.class);
+        assertEquals("binary-customer", createdCart.getCustomerId());
+        assertEquals(0, new BigDecimal("19.99").compareTo(createdCart.getItems().get(0).getPrices().get(0).getValue()));
+
+        // GET cart as Smile, and as JSON without Accept
+        MvcResult smile = mockMvc.perform(get("/api/carts/binary-customer").accept(SMILE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(SMILE))
+                .andReturn();
+        Cart smileCart = smileMapper.readValue(smile.getResponse().getContentAsByteArray(), Cart.class);
+        assertEquals(Instant.parse("2025-07-24T10:00:00Z"), smileCart.getItems().get(0).getActionTimestamp());
+        mockMvc.perform(get("/api/carts/binary-customer"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.items[0].offerId").value("tv-001"));
     }
 }
@@ -0,0 +1,141 @@
+package com.shoppingcart.controller;
+
+import com.shoppingcart.ShoppingCartApplication;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.repository.CartRepository;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Throughput and latency of {@code GET /api/carts/{customerId}} under high concurrency, with requests handled on
+ * the Tomcat platform thread pool and on virtual threads. The repository is replaced by a stub that blocks for
+ * {@link #MONGO_LATENCY} per lookup, standing in for MongoDB I/O; the cart cache and response logging are off.
+ * Excluded from the default build, run with {@code mvn test -Pbenchmark}; concurrency, requests per client and
+ * latency can be set with {@code -Dbenchmark.concurrency}, {@code -Dbenchmark.requests-per-client} and
+ * {@code -Dbenchmark.mongo-latency-ms}.
+ */
+@Tag("benchmark")
+class CartControllerLoadBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(CartControllerLoadBenchmarkTest.class);
+
+    // The pool only saturates when CONCURRENCY / MONGO_LATENCY stays below what the CPUs can serve
+    private static final int CONCURRENCY = Integer.getInteger("benchmark.concurrency", 1_000);
+    private static final int WARMUP_REQUESTS_PER_CLIENT = 5;
+    private static final int REQUESTS_PER_CLIENT = Integer.getInteger("benchmark.requests-per-client", 20);
+    private static final Duration MONGO_LATENCY = Duration.ofMillis(Long.getLong("benchmark.mongo-latency-ms", 20));
+
+    @Test
+    void comparePlatformAndVirtualThreads() throws Exception {
+        report("platform threads", false);
+        report("virtual threads", true);
+    }
+
+    private static void report(String name, boolean virtualThreads) throws Exception {
+        try (ConfigurableApplicationContext context = start(virtualThreads);
+             ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clients)
+                .build();
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/carts/";
+            load(httpClient, clients, baseUrl, WARMUP_REQUESTS_PER_CLIENT);
+
+            long start = System.nanoTime();
+            long[] latencies = load(httpClient, clients, baseUrl, REQUESTS_PER_CLIENT);
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            Arrays.sort(latencies);
+            logger.info("{}: {} requests/s, p50 {} ms, p99 {} ms", name,
+                String.format("%.0f", latencies.length / seconds),
+                percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.99));
+        }
+    }
+
+    private static ConfigurableApplicationContext start(boolean virtualThreads) {
+        return new SpringApplicationBuilder(ShoppingCartApplication.class)
+            .initializers(context -> ((GenericApplicationContext) context).registerBean("slowCartRepository",
+                CartRepository.class, CartControllerLoadBenchmarkTest::slowCartRepository,
+                definition -> definition.setPrimary(true)))
+            .run("--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                // Never reached, the stub repository answers every call
+                "--spring.data.mongodb.uri=mongodb://localhost:27017/benchmark",
+                "--mongo-indexes.verify-on-startup=false",
+                "--spring.cache.type=none",
+                "--response-logging.mode=off",
+                // The bulkhead would otherwise cap the virtual thread run at its own limit
+                "--resilience.operations.cart-read.max-concurrent-calls=" + 2 * CONCURRENCY,
+                "--logging.level.org.springframework=WARN",
+                "--logging.level.org.mongodb=OFF");
+    }
+
+    // Each client sends its requests one after the other, all clients run concurrently
+    private static long[] load(HttpClient httpClient, ExecutorService clients, String baseUrl, int requestsPerClient)
+            throws Exception {
+        AtomicInteger customer = new AtomicInteger();
+        List<Future<long[]>> futures = new ArrayList<>(CONCURRENCY);
+        for (int c = 0; c < CONCURRENCY; c++) {
+            futures.add(clients.submit(() -> {
+                long[] latencies = new long[requestsPerClient];
+                for (int i = 0; i < requestsPerClient; i++) {
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "customer-" + customer.incrementAndGet()))
+                        .GET()
+                        .build();
+                    long start = System.nanoTime();
+                    HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                    latencies[i] = System.nanoTime() - start;
+                    assertEquals(200, response.statusCode());
+                }
+                return latencies;
+            }));
+        }
+        long[] all = new long[CONCURRENCY * requestsPerClient];
+        for (int c = 0; c < CONCURRENCY; c++) {
+            System.arraycopy(futures.get(c).get(), 0, all, c * requestsPerClient, requestsPerClient);
+        }
+        return all;
+    }
+
+    private static long percentileMillis(long[] sortedNanos, double percentile) {
+        int index = (int) Math.ceil(sortedNanos.length * percentile) - 1;
+        return Duration.ofNanos(sortedNanos[index]).toMillis();
+    }
+
+    private static CartRepository slowCartRepository() {
+        return (CartRepository) Proxy.newProxyInstance(CartRepository.class.getClassLoader(),
+            new Class<?>[]{CartRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "findByCustomerId" -> {
+                    Thread.sleep(MONGO_LATENCY);
+                    Cart cart = new Cart();
+                    cart.setCustomerId((String) args[0]);
+                    cart.setItems(List.of());
+                    yield Optional.of(cart);
+                }
+                case "toString" -> "slowCartRepository";
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+    }
+}
@@ -1,11 +1,16 @@
 package com.shoppingcart.controller;
 
+import com.shoppingcart.util.ServiceUnavailableException;
 import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.context.request.WebRequest;
 
+import java.time.Duration;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -26,6 +31,28 @@ class GlobalExceptionHandlerTest {
         assertEquals("Test conflict", body.get("message"));
     }
 
+    @Test
+    void testHandleOptimisticLockingFailureException() {
+        OptimisticLockingFailureException ex = new OptimisticLockingFailureException("Stale version");
+        WebRequest request = mock(WebRequest.class);
+        ResponseEntity<Object> response = handler.handleOptimisticLockingFailureException(ex, request);
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        Map<?,?> body = (Map<?,?>) response.getBody();
+        assertEquals("Conflict", body.get("error"));
+        assertEquals("Stale version", body.get("message"));
+    }
+
+    @Test
+    void testHandleDuplicateKeyException() {
+        DuplicateKeyException ex = new DuplicateKeyException("E11000 duplicate key error index: customerId_1");
+        WebRequest request = mock(WebRequest.class);
+        ResponseEntity<Object> response = handler.handleDuplicateKeyException(ex, request);
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        Map<?,?> body = (Map<?,?>) response.getBody();
+        assertEquals("Conflict", body.get("error"));
+        assertEquals("Cart already exists.", body.get("message"));
+    }
+
     @Test
     void testHandleNoSuchElementException() {
         java.util.NoSuchElementException ex = new java.util.NoSuchElementException("Not found");
@@ -37,6 +64,17 @@ class GlobalExceptionHandlerTest {
         assertEquals("Not found", body.get("message"));
     }
 
+    @Test
+    void testHandleIllegalArgumentException() {
+        IllegalArgumentException ex = new IllegalArgumentException("Unsupported export format: xml");
+        WebRequest request = mock(WebRequest.class);
+        ResponseEntity<Object> response = handler.handleIllegalArgumentException(ex, request);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        Map<?,?> body = (Map<?,?>) response.getBody();
+        assertEquals("Bad Request", body.get("error"));
+        assertEquals("Unsupported export format: xml", body.get("message"));
+    }
+
     @Test
     void testHandleValidationExceptions() {
         MethodArgumentNotValidException ex = mock(MethodArgumentNotValidException.class);
@@ -49,6 +87,19 @@ class GlobalExceptionHandlerTest {
         assertEquals("must not be null", details.get("customerId"));
     }
 
+    @Test
+    void testHandleServiceUnavailableException() {
+        ServiceUnavailableException ex = new ServiceUnavailableException("Service temporarily unavailable.",
+            Duration.ofMillis(1_500), null);
+        WebRequest request = mock(WebRequest.class);
+        ResponseEntity<Object> response = handler.handleServiceUnavailableException(ex, request);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("2", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        Map<?,?> body = (Map<?,?>) response.getBody();
+        assertEquals("Service Unavailable", body.get("error"));
+        assertEquals("Service temporarily unavailable.", body.get("message"));
+    }
+
     @Test
     void testHandleAllExceptions() {
         Exception ex = new Exception("Internal error");
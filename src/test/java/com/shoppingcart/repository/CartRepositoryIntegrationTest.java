@@ -0,0 +1,433 @@
+package com.shoppingcart.repository;
+
+import com.shoppingcart.ShoppingCartApplication;
+import com.shoppingcart.config.MongoIndexManager;
+import com.shoppingcart.dto.CartItemPage;
+import com.shoppingcart.dto.CustomerItemCount;
+import com.shoppingcart.dto.HistogramInterval;
+import com.shoppingcart.dto.ItemQuery;
+import com.shoppingcart.dto.RollupIncrement;
+import com.shoppingcart.dto.StatisticsAggregate;
+import com.shoppingcart.dto.StatisticsBucket;
+import com.shoppingcart.dto.StatisticsResponse;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.CartTotals;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.model.Price;
+import com.shoppingcart.model.StatisticsRollup;
+import com.shoppingcart.model.StatisticsRollupCustomer;
+import com.shoppingcart.service.CartService;
+import com.shoppingcart.util.HyperLogLog;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(classes = ShoppingCartApplication.class)
+@ActiveProfiles("test")
+@Testcontainers
+class CartRepositoryIntegrationTest {
+    private static final int THREADS = 16;
+    private static final int ADDS_PER_THREAD = 25;
+
+    @Container
+    static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:7.0.5");
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", mongoDBContainer::getReplicaSetUrl);
+    }
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private StatisticsRollupRepository statisticsRollupRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoIndexManager mongoIndexManager;
+
+    private final Set<String> testCustomerIds = new HashSet<>();
+
+    @AfterEach
+    void cleanUp() {
+        for (String customerId : testCustomerIds) {
+            cartRepository.findByCustomerId(customerId).ifPresent(cart -> cartRepository.deleteById(cart.getId()));
+            cartRepository.deleteArchivedItems(customerId);
+        }
+        testCustomerIds.clear();
+    }
+
+    @Test
+    void testConcurrentAddsDoNotLoseItems() throws Exception {
+        String customerId = "concurrent-user";
+        testCustomerIds.add(customerId);
+        Cart cart = new Cart();
+        cart.setCustomerId(customerId);
+        cart.setItems(new ArrayList<>());
+        cartService.saveCart(cart);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ADDS_PER_THREAD; i++) {
+                    cartService.addItemToCart(customerId, item("offer-" + thread + "-" + i), null);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Cart stored = cartRepository.findByCustomerId(customerId).orElseThrow();
+        assertEquals(THREADS * ADDS_PER_THREAD, stored.getItems().size());
+        Set<String> offerIds = stored.getItems().stream().map(Item::getOfferId).collect(Collectors.toSet());
+        assertEquals(THREADS * ADDS_PER_THREAD, offerIds.size());
+    }
+
+    @Test
+    void testDeclaredIndexesExistAfterStartup() {
+        MongoIndexManager.IndexReport report = mongoIndexManager.verify();
+        assertTrue(report.isHealthy());
+        assertTrue(report.created().isEmpty(), "indexes should have been created at startup: " + report.created());
+    }
+
+    @Test
+    void testHotQueriesDoNotScanCollections() {
+        String customerId = "explain-user";
+        testCustomerIds.add(customerId);
+        Cart cart = new Cart();
+        cart.setCustomerId(customerId);
+        cart.setItems(new ArrayList<>(List.of(item("offer-explain"))));
+        cartService.saveCart(cart);
+
+        Date from = Date.from(Instant.EPOCH);
+        Date to = Date.from(Instant.now().plusSeconds(60));
+        Document byCustomer = new Document("customerId", customerId);
+        Document itemMatch = new Document("items", new Document("$elemMatch", new Document("offerId", "offer-explain")
+            .append("action", "ADD")
+            .append("actionTimestamp", new Document("$gt", from).append("$lt", to))));
+        Document rollupMatch = new Document("offerId", "offer-explain").append("action", "ADD")
+            .append("bucket", new Document("$gte", from).append("$lt", to));
+
+        assertNoCollectionScan(mongoTemplate.getCollection("carts").find(byCustomer).explain());
+        assertNoCollectionScan(mongoTemplate.getCollection("carts").find(itemMatch).explain());
+        assertNoCollectionScan(mongoTemplate.getCollection("carts")
+            .aggregate(List.of(new Document("$match", itemMatch), new Document("$unwind", "$items"))).explain());
+        assertNoCollectionScan(mongoTemplate.getCollection(mongoTemplate.getCollectionName(StatisticsRollup.class))
+            .find(rollupMatch).explain());
+    }
+
+    @Test
+    void testStatisticsExportGroupsPerOfferAndBucket() {
+        Instant ten = Instant.parse("2025-07-24T10:00:00Z");
+        saveCart("export-user-1", item("offer-export-a", ten.plusSeconds(60)), item("offer-export-a", ten.plusSeconds(120)),
+            item("offer-export-a", ten.plusSeconds(3700)));
+        saveCart("export-user-2", item("offer-export-a", ten.plusSeconds(300)), item("offer-export-b", ten.plusSeconds(300)));
+
+        List<StatisticsBucket> rows;
+        try (Stream<StatisticsBucket> stream = cartRepository.streamStatisticsBuckets(null, "ADD",
+                ten, ten.plus(Duration.ofHours(2)), Duration.ofHours(1))) {
+            rows = stream.filter(row -> row.offerId().startsWith("offer-export-")).toList();
+        }
+
+        assertEquals(List.of(
+            new StatisticsBucket("offer-export-a", "ADD", ten, 3, 2, 3),
+            new StatisticsBucket("offer-export-a", "ADD", ten.plusSeconds(3600), 1, 1, 1),
+            new StatisticsBucket("offer-export-b", "ADD", ten, 1, 1, 1)), rows);
+    }
+
+    @Test
+    void testBatchStatisticsGroupPerOfferAndAction() {
+        Instant ten = Instant.parse("2025-07-24T10:00:00Z");
+        saveCart("batch-user-1", item("offer-batch-a", ten.plusSeconds(60)), item("offer-batch-a", ten.plusSeconds(120)),
+            item("offer-batch-b", ten.plusSeconds(60)));
+        saveCart("batch-user-2", item("offer-batch-a", ten.plusSeconds(300)), item("offer-batch-c", ten.plusSeconds(300)));
+
+        List<StatisticsResponse> results = cartService.getStatistics(List.of("offer-batch-a", "offer-batch-b", "offer-batch-d"),
+            List.of("ADD"), ten, ten.plus(Duration.ofHours(1)));
+
+        assertEquals(List.of(
+            new StatisticsResponse("offer-batch-a", "ADD", ten, ten.plus(Duration.ofHours(1)), 3, 2, 3),
+            new StatisticsResponse("offer-batch-b", "ADD", ten, ten.plus(Duration.ofHours(1)), 1, 1, 1),
+            new StatisticsResponse("offer-batch-d", "ADD", ten, ten.plus(Duration.ofHours(1)), 0, 0, 0)), results);
+        assertEquals(cartRepository.aggregateStatistics("offer-batch-a", "ADD", ten, ten.plus(Duration.ofHours(1))).count(),
+            results.get(0).count());
+    }
+
+    @Test
+    void testRollupCustomersAndSketchesMergeOnUpsert() {
+        Instant ten = Instant.parse("2025-07-24T10:00:00Z");
+        List<String> customers = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            customers.add("sketch-user-" + i);
+        }
+        statisticsRollupRepository.increment(List.of(
+            new RollupIncrement("offer-sketch", "ADD", ten, 1_000, Set.copyOf(customers.subList(0, 1_000)))));
+        statisticsRollupRepository.increment(List.of(
+            new RollupIncrement("offer-sketch", "ADD", ten, 1_500, Set.copyOf(customers.subList(500, 2_000)))));
+
+        List<StatisticsRollup> rollups = statisticsRollupRepository.findSketches("offer-sketch", "ADD", ten,
+            ten.plus(Duration.ofHours(1)));
+        long customerCount = statisticsRollupRepository.countCustomers("offer-sketch", "ADD", ten,
+            ten.plus(Duration.ofHours(1)), Set.of());
+        long otherCustomerCount = statisticsRollupRepository.countCustomers("offer-sketch", "ADD", ten,
+            ten.plus(Duration.ofHours(1)), customers.subList(0, 500));
+        statisticsRollupRepository.deleteAll(rollups);
+        mongoTemplate.remove(new Query(Criteria.where(StatisticsRollupCustomer.Fields.offerId).is("offer-sketch")),
+            StatisticsRollupCustomer.class);
+
+        assertEquals(1, rollups.size());
+        assertEquals(2_000, customerCount);
+        assertEquals(1_500, otherCustomerCount);
+        assertEquals(2_500, rollups.get(0).getItemCount());
+        assertEquals(HyperLogLog.of(customers).toSparse(), rollups.get(0).getCustomerSketch());
+    }
+
+    @Test
+    void testHistogramBucketsFollowTheTimezone() {
+        // Midnight in Zagreb, the day daylight saving time ends; that day has 25 hours
+        Instant midnight = Instant.parse("2025-10-25T22:00:00Z");
+        saveCart("histogram-user-1", item("offer-histogram", midnight.minusSeconds(60)),
+            item("offer-histogram", midnight.plusSeconds(60)), item("offer-histogram", Instant.parse("2025-10-26T22:30:00Z")),
+            item("offer-histogram", Instant.parse("2025-10-26T23:30:00Z")));
+        saveCart("histogram-user-2", item("offer-histogram", midnight.plusSeconds(120)));
+
+        assertEquals(List.of(
+                new StatisticsBucket("offer-histogram", "ADD", Instant.parse("2025-10-24T22:00:00Z"), 1, 1, 1),
+                new StatisticsBucket("offer-histogram", "ADD", midnight, 3, 2, 3),
+                new StatisticsBucket("offer-histogram", "ADD", Instant.parse("2025-10-26T23:00:00Z"), 1, 1, 1)),
+            cartRepository.aggregateHistogram("offer-histogram", "ADD", midnight.minus(Duration.ofDays(1)),
+                midnight.plus(Duration.ofDays(3)), HistogramInterval.DAY, ZoneId.of("Europe/Zagreb")));
+    }
+
+    @Test
+    void testStatisticsAreUnchangedByCompaction() {
+        Instant ten = Instant.parse("2025-07-24T10:00:00Z");
+        saveCart("compacted-user", item("offer-compacted", ten.plusSeconds(60)), item("offer-compacted", ten.plusSeconds(120)),
+            item("offer-compacted", ten.plusSeconds(3700)));
+        Instant to = ten.plus(Duration.ofHours(2));
+        StatisticsAggregate before = cartRepository.aggregateStatistics("offer-compacted", "ADD", ten, to);
+        Cart cart = cartRepository.findByCustomerId("compacted-user").orElseThrow();
+
+        assertTrue(cartRepository.compactItems(cart, cart.getItems().subList(2, 3), cart.getItems().subList(0, 2)));
+        // Stale: the cart no longer has three items
+        assertFalse(cartRepository.compactItems(cart, List.of(), cart.getItems()));
+
+        assertEquals(1, cartRepository.findByCustomerId("compacted-user").orElseThrow().getItems().size());
+        assertEquals(new StatisticsAggregate(3, 1, 3), before);
+        assertEquals(before, cartRepository.aggregateStatistics("offer-compacted", "ADD", ten, to));
+        assertEquals(List.of(new CustomerItemCount("compacted-user", 3)),
+            cartRepository.aggregateItemCountsByCustomer("offer-compacted", "ADD", ten, to));
+        assertEquals(3, cartService.countOffersSold("offer-compacted", "ADD", ten, to));
+        assertEquals(1, cartService.countUniqueCustomers("offer-compacted", "ADD", ten, to));
+        try (Stream<StatisticsBucket> stream = cartRepository.streamStatisticsBuckets("offer-compacted", "ADD",
+                ten, to, Duration.ofHours(1))) {
+            assertEquals(List.of(
+                new StatisticsBucket("offer-compacted", "ADD", ten, 2, 1, 2),
+                new StatisticsBucket("offer-compacted", "ADD", ten.plusSeconds(3600), 1, 1, 1)), stream.toList());
+        }
+    }
+
+    @Test
+    void testCompactionPagingCoversClientSuppliedIds() {
+        for (String customerId : List.of("paging-client-1", "paging-client-2")) {
+            testCustomerIds.add(customerId);
+            Cart cart = new Cart();
+            cart.setId("cart-" + customerId);
+            cart.setCustomerId(customerId);
+            cart.setItems(new ArrayList<>(List.of(item("offer-paging"), item("offer-paging"), item("offer-paging"))));
+            cartRepository.save(cart);
+        }
+        saveCart("paging-generated-1", item("offer-paging"), item("offer-paging"), item("offer-paging"));
+        saveCart("paging-generated-2", item("offer-paging"), item("offer-paging"), item("offer-paging"));
+
+        List<String> customerIds = new ArrayList<>();
+        String afterId = null;
+        List<Cart> page;
+        while (!(page = cartRepository.findCartsWithMoreItemsThan(2, afterId, 1)).isEmpty()) {
+            customerIds.add(page.get(0).getCustomerId());
+            afterId = page.get(0).getId();
+        }
+
+        // Strings sort before ObjectIds
+        assertEquals(List.of("paging-client-1", "paging-client-2", "paging-generated-1", "paging-generated-2"),
+            customerIds.stream().filter(customerId -> customerId.startsWith("paging-")).toList());
+    }
+
+    @Test
+    void testTotalsAreMaintainedByAppends() {
+        saveCart("totals-user", item("offer-totals-1"), item("offer-totals-2"));
+        cartService.addItemToCart("totals-user", item("offer-totals-3"), null);
+        Item delete = item("offer-totals-1");
+        delete.setAction(Item.Action.DELETE);
+        cartService.addItemToCart("totals-user", delete, null);
+
+        Cart withoutItems = cartRepository.findWithoutItems("totals-user").orElseThrow();
+        assertNull(withoutItems.getItems());
+        assertEquals(2, withoutItems.getTotals().getOfferCount());
+        assertEquals(0, new BigDecimal("2.00").compareTo(withoutItems.getTotals().getOneTime()));
+
+        // One update for several items ends with the totals of appending them one by one
+        saveCart("batch-totals-user", item("offer-totals-1"), item("offer-totals-2"));
+        Item modify = item("offer-totals-2");
+        modify.setAction(Item.Action.MODIFY);
+        modify.getPrices().get(0).setValue(new BigDecimal("5.00"));
+        Item deleteFirst = item("offer-totals-1");
+        deleteFirst.setAction(Item.Action.DELETE);
+        Cart batched = cartRepository.appendItems("batch-totals-user",
+            List.of(item("offer-totals-3"), deleteFirst, modify, item("offer-totals-1")), null);
+        assertEquals(6, batched.getItems().size());
+        assertEquals(1, batched.getVersion());
+        assertEquals(CartTotals.of(batched.getItems()).getOffers().stream().map(CartTotals.OfferTotal::getOfferId).toList(),
+            batched.getTotals().getOffers().stream().map(CartTotals.OfferTotal::getOfferId).toList());
+        assertEquals(0, new BigDecimal("7.00").compareTo(batched.getTotals().getOneTime()));
+
+        // A cart stored before totals were maintained
+        testCustomerIds.add("legacy-totals-user");
+        mongoTemplate.getCollection("carts").insertOne(new Document("customerId", "legacy-totals-user")
+            .append("items", List.of()));
+        cartService.addItemToCart("legacy-totals-user", item("offer-totals-1"), null);
+        assertNull(cartRepository.findWithoutItems("legacy-totals-user").orElseThrow().getTotals());
+        assertEquals(0, new BigDecimal("1.00").compareTo(cartService.getCartSummary("legacy-totals-user").orElseThrow().total()));
+        assertNotNull(cartRepository.findWithoutItems("legacy-totals-user").orElseThrow().getTotals());
+    }
+
+    @Test
+    void testAppendsIncrementTheVersion() {
+        saveCart("version-user", item("offer-version-1"));
+        assertEquals(0, cartRepository.findByCustomerId("version-user").orElseThrow().getVersion());
+
+        assertEquals(1, cartRepository.appendItem("version-user", item("offer-version-2"), 0L).getVersion());
+        assertNull(cartRepository.appendItem("version-user", item("offer-version-3"), 0L));
+        assertEquals(2, cartRepository.appendItem("version-user", item("offer-version-3"), null).getVersion());
+
+        // Carts stored before versioning, with and without totals
+        testCustomerIds.add("legacy-version-user");
+        mongoTemplate.getCollection("carts").insertOne(new Document("customerId", "legacy-version-user")
+            .append("items", List.of()));
+        assertEquals(1, cartRepository.appendItem("legacy-version-user", item("offer-version-1"), null).getVersion());
+        testCustomerIds.add("legacy-totals-version-user");
+        mongoTemplate.getCollection("carts").insertOne(new Document("customerId", "legacy-totals-version-user")
+            .append("items", List.of())
+            .append("totals", new Document("offerCount", 0).append("offers", List.of())));
+        assertEquals(1, cartRepository.appendItem("legacy-totals-version-user", item("offer-version-1"), null).getVersion());
+    }
+
+    @Test
+    void testItemPageIsFilteredPagedAndProjectedByTheServer() {
+        saveCart("page-user", item("offer-page-1"), item("offer-page-2"), item("offer-page-1"), item("offer-page-1"));
+        Item delete = item("offer-page-1");
+        delete.setAction(Item.Action.DELETE);
+        cartService.addItemToCart("page-user", delete, null);
+
+        CartItemPage page = cartRepository.findItemPage("page-user",
+            new ItemQuery(1, 1, "offer-page-1", Item.Action.ADD, Set.of(Item.Fields.offerId))).orElseThrow();
+        assertEquals(3, page.matchingItems());
+        assertEquals(1, page.cart().getItems().size());
+        assertEquals("offer-page-1", page.cart().getItems().get(0).getOfferId());
+        assertNull(page.cart().getItems().get(0).getPrices());
+        assertEquals(2, page.cart().getTotals().getOfferCount());
+        assertNull(page.cart().getTotals().getOffers());
+
+        assertEquals(5, cartRepository.findItemPage("page-user", new ItemQuery(0, null, null, null, null))
+            .orElseThrow().cart().getItems().size());
+        assertEquals(0, cartRepository.findItemPage("page-user", new ItemQuery(10, 5, null, null, null))
+            .orElseThrow().cart().getItems().size());
+        assertTrue(cartRepository.findItemPage("missing-page-user", new ItemQuery(0, 1, null, null, null)).isEmpty());
+    }
+
+    private void saveCart(String customerId, Item... items) {
+        testCustomerIds.add(customerId);
+        Cart cart = new Cart();
+        cart.setCustomerId(customerId);
+        cart.setItems(new ArrayList<>(List.of(items)));
+        cartService.saveCart(cart);
+    }
+
+    private static void assertNoCollectionScan(Document explain) {
+        assertFalse(containsCollectionScan(explain), "query plan falls back to COLLSCAN: " + explain.toJson());
+    }
+
+    // Walks the plan tree, ignoring the plans the optimizer rejected
+    private static boolean containsCollectionScan(Object node) {
+        if (node instanceof Document document) {
+            if ("COLLSCAN".equals(document.get("stage"))) {
+                return true;
+            }
+            for (Map.Entry<String, Object> entry : document.entrySet()) {
+                if (!"rejectedPlans".equals(entry.getKey()) && containsCollectionScan(entry.getValue())) {
+                    return true;
+                }
+            }
+        } else if (node instanceof List<?> list) {
+            return list.stream().anyMatch(CartRepositoryIntegrationTest::containsCollectionScan);
+        }
+        return false;
+    }
+
+    private static Item item(String offerId, Instant actionTimestamp) {
+        Item item = item(offerId);
+        item.setActionTimestamp(actionTimestamp);
+        return item;
+    }
+
+    private static Item item(String offerId) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(Item.Action.ADD);
+        Price price = new Price();
+        price.setType(Price.PriceType.ONE_TIME);
+        price.setValue(new BigDecimal("1.00"));
+        item.setPrices(List.of(price));
+        return item;
+    }
+}
@@ -0,0 +1,122 @@
+package com.shoppingcart.repository;
+
+import com.shoppingcart.ShoppingCartApplication;
+import com.shoppingcart.dto.StatisticsResponse;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.model.Price;
+import com.shoppingcart.service.CartService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the legacy three-query statistics path with the single aggregation pipeline on a seeded dataset.
+ * Excluded from the default build, run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+// Measures the queries, not the statistics cache
+@SpringBootTest(classes = ShoppingCartApplication.class, properties = "statistics.cache.enabled=false")
+@ActiveProfiles("test")
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class StatisticsAggregationBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsAggregationBenchmarkTest.class);
+
+    private static final int CARTS = 2_000;
+    private static final int ITEMS_PER_CART = 50;
+    private static final int OFFERS = 20;
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+    private static final Instant START = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Container
+    static MongoDBContainer mongoDBContainer = new MongoDBContainer("mongo:7.0.5");
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", mongoDBContainer::getReplicaSetUrl);
+    }
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CartService cartService;
+
+    @BeforeAll
+    void seed() {
+        mongoTemplate.dropCollection(Cart.class);
+        List<Cart> carts = new ArrayList<>(CARTS);
+        for (int c = 0; c < CARTS; c++) {
+            Cart cart = new Cart();
+            cart.setCustomerId("bench-customer-" + c);
+            List<Item> items = new ArrayList<>(ITEMS_PER_CART);
+            for (int i = 0; i < ITEMS_PER_CART; i++) {
+                Item item = new Item();
+                item.setOfferId("offer-" + ((c + i) % OFFERS));
+                item.setAction(Item.Action.values()[i % Item.Action.values().length]);
+                item.setActionTimestamp(START.plusSeconds((long) c * ITEMS_PER_CART + i));
+                Price price = new Price();
+                price.setType(Price.PriceType.RECURRING);
+                price.setValue(new BigDecimal("19.99"));
+                price.setRecurrences(12);
+                item.setPrices(List.of(price));
+                items.add(item);
+            }
+            cart.setItems(items);
+            carts.add(cart);
+        }
+        mongoTemplate.insertAll(carts);
+    }
+
+    @Test
+    void compareLegacyAndAggregatedStatistics() {
+        Instant from = START;
+        Instant to = START.plusSeconds((long) CARTS * ITEMS_PER_CART);
+
+        Supplier<StatisticsResponse> legacy = () -> new StatisticsResponse("offer-1", "ADD", from, to,
+            cartService.countOffersSold("offer-1", "ADD", from, to),
+            cartService.countUniqueCustomers("offer-1", "ADD", from, to),
+            cartService.countTotalItems("offer-1", "ADD", from, to));
+        Supplier<StatisticsResponse> aggregated = () -> cartService.getStatistics("offer-1", "ADD", from, to);
+
+        assertEquals(legacy.get(), aggregated.get());
+
+        double legacyMs = measure(legacy);
+        double aggregatedMs = measure(aggregated);
+        logger.info("Statistics over {} carts x {} items: legacy {} ms/op, aggregation {} ms/op",
+            CARTS, ITEMS_PER_CART, String.format("%.2f", legacyMs), String.format("%.2f", aggregatedMs));
+    }
+
+    private static double measure(Supplier<?> operation) {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.get();
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+    }
+}
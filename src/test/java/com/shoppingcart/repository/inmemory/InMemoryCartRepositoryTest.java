@@ -0,0 +1,280 @@
+package com.shoppingcart.repository.inmemory;
+
+import com.shoppingcart.dto.CartItemPage;
+import com.shoppingcart.dto.CustomerItemCount;
+import com.shoppingcart.dto.HistogramInterval;
+import com.shoppingcart.dto.ItemQuery;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.OfferStatistics;
+import com.shoppingcart.dto.StatisticsAggregate;
+import com.shoppingcart.dto.StatisticsBucket;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.CartTotals;
+import com.shoppingcart.model.Item;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryCartRepositoryTest {
+    private static final Instant TEN = Instant.parse("2025-07-24T10:00:00Z");
+
+    private final InMemoryCartRepository repository = new InMemoryCartRepository();
+
+    @Test
+    void testCustomerIdIsUniqueAndStoredCartsAreCopies() {
+        Cart saved = repository.save(cart("customer-1", item("offer-1", TEN)));
+        assertNotNull(saved.getId());
+
+        saved.getItems().clear();
+        Cart found = repository.findByCustomerId("customer-1").orElseThrow();
+        assertEquals(1, found.getItems().size());
+        assertNotSame(found, repository.findByCustomerId("customer-1").orElseThrow());
+
+        assertThrows(DuplicateKeyException.class, () -> repository.save(cart("customer-1", item("offer-1", TEN))));
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    void testStatisticsUseTheItemIndex() {
+        repository.save(cart("a", item("offer-1", TEN.plusSeconds(60)), item("offer-1", TEN.plusSeconds(120)),
+            item("offer-2", TEN.plusSeconds(60))));
+        repository.save(cart("b", item("offer-1", TEN.plusSeconds(3700))));
+        repository.appendItem("b", item("offer-1", TEN.plusSeconds(3800)), null);
+
+        assertEquals(new StatisticsAggregate(4, 2, 4),
+            repository.aggregateStatistics("offer-1", "ADD", TEN, TEN.plusSeconds(7200)));
+        assertEquals(List.of(new CustomerItemCount("a", 2)),
+            repository.aggregateItemCountsByCustomer("offer-1", "ADD", TEN, TEN.plusSeconds(3600)));
+        assertEquals(List.of("a"), repository.findCartsByItemDynamic("offer-2", "ADD", TEN, TEN.plusSeconds(3600))
+            .stream().map(Cart::getCustomerId).toList());
+        // Both bounds are exclusive, like the Mongo queries
+        assertEquals(StatisticsAggregate.EMPTY,
+            repository.aggregateStatistics("offer-1", "ADD", TEN.plusSeconds(60), TEN.plusSeconds(120)));
+
+        repository.delete(repository.findByCustomerId("a").orElseThrow());
+        assertEquals(new StatisticsAggregate(2, 1, 2),
+            repository.aggregateStatistics("offer-1", "ADD", TEN, TEN.plusSeconds(7200)));
+    }
+
+    @Test
+    void testTimestampsAreStoredWithMillisecondPrecision() {
+        repository.save(cart("a", item("offer-1", TEN.minusNanos(500_000))));
+
+        assertEquals(TEN.minusMillis(1), repository.findByCustomerId("a").orElseThrow().getItems().get(0).getActionTimestamp());
+        // The rollup edge query starting a millisecond before the bucket does not see it
+        assertEquals(List.of(), repository.aggregateItemCountsByCustomer("offer-1", "ADD", TEN.minusMillis(1), TEN.plusSeconds(60)));
+    }
+
+    @Test
+    void testBatchStatisticsMatchSingleQueries() {
+        repository.save(cart("a", item("offer-1", TEN.plusSeconds(60)), item("offer-1", TEN.plusSeconds(120)),
+            item("offer-2", TEN.plusSeconds(60))));
+        repository.save(cart("b", item("offer-1", TEN.plusSeconds(180)), item("offer-3", TEN.plusSeconds(60))));
+
+        List<OfferStatistics> rows = repository.aggregateStatistics(List.of("offer-1", "offer-2", "offer-4"),
+            List.of("ADD", "DELETE"), TEN, TEN.plusSeconds(3600));
+
+        assertEquals(List.of(new OfferStatistics("offer-1", "ADD", 3, 2, 3), new OfferStatistics("offer-2", "ADD", 1, 1, 1)),
+            rows);
+        assertEquals(repository.aggregateStatistics("offer-1", "ADD", TEN, TEN.plusSeconds(3600)),
+            new StatisticsAggregate(rows.get(0).count(), rows.get(0).uniqueCustomers(), rows.get(0).totalItems()));
+        assertEquals(List.of(new OfferCustomerItemCount("offer-2", "ADD", "a", 1)),
+            repository.aggregateItemCountsByCustomer(List.of("offer-2"), List.of("ADD"), TEN, TEN.plusSeconds(3600)));
+    }
+
+    @Test
+    void testStatisticsBucketsAreOrderedByOfferActionAndBucket() {
+        repository.save(cart("a", item("offer-2", TEN.plusSeconds(60)), item("offer-1", TEN.plusSeconds(3700)),
+            item("offer-1", TEN.plusSeconds(60))));
+        repository.save(cart("b", item("offer-1", TEN.plusSeconds(120))));
+
+        List<StatisticsBucket> rows;
+        try (Stream<StatisticsBucket> stream = repository.streamStatisticsBuckets(null, null, TEN, TEN.plusSeconds(7200),
+                Duration.ofHours(1))) {
+            rows = stream.toList();
+        }
+
+        assertEquals(List.of(
+            new StatisticsBucket("offer-1", "ADD", TEN, 2, 2, 2),
+            new StatisticsBucket("offer-1", "ADD", TEN.plusSeconds(3600), 1, 1, 1),
+            new StatisticsBucket("offer-2", "ADD", TEN, 1, 1, 1)), rows);
+    }
+
+    @Test
+    void testHistogramBucketsFollowTheTimezone() {
+        ZoneId zagreb = ZoneId.of("Europe/Zagreb");
+        // Daylight saving time ends on 2025-10-26 in Zagreb, that day has 25 hours and ends at 23:00 UTC
+        Instant midnight = Instant.parse("2025-10-25T22:00:00Z");
+        repository.save(cart("a", item("offer-1", midnight.minusSeconds(60)), item("offer-1", midnight.plusSeconds(60)),
+            item("offer-1", Instant.parse("2025-10-26T22:30:00Z")),
+            item("offer-1", Instant.parse("2025-10-26T23:30:00Z"))));
+        repository.save(cart("b", item("offer-1", midnight.plusSeconds(120))));
+
+        assertEquals(List.of(
+                new StatisticsBucket("offer-1", "ADD", Instant.parse("2025-10-24T22:00:00Z"), 1, 1, 1),
+                new StatisticsBucket("offer-1", "ADD", midnight, 3, 2, 3),
+                new StatisticsBucket("offer-1", "ADD", Instant.parse("2025-10-26T23:00:00Z"), 1, 1, 1)),
+            repository.aggregateHistogram("offer-1", "ADD", TEN, midnight.plus(Duration.ofDays(3)),
+                HistogramInterval.DAY, zagreb));
+        // 2025-10-26 is a Sunday, the last item falls into the next week
+        assertEquals(List.of(new StatisticsBucket("offer-1", "ADD", Instant.parse("2025-10-19T22:00:00Z"), 4, 2, 4),
+                new StatisticsBucket("offer-1", "ADD", Instant.parse("2025-10-26T23:00:00Z"), 1, 1, 1)),
+            repository.aggregateHistogram("offer-1", "ADD", TEN, midnight.plus(Duration.ofDays(3)),
+                HistogramInterval.WEEK, zagreb));
+    }
+
+    @Test
+    void testStatisticsIncludeArchivedItems() {
+        Cart saved = repository.save(cart("a", item("offer-1", TEN.plusSeconds(60)), item("offer-1", TEN.plusSeconds(120)),
+            item("offer-2", TEN.plusSeconds(60))));
+        StatisticsAggregate before = repository.aggregateStatistics("offer-1", "ADD", TEN, TEN.plusSeconds(3600));
+
+        assertTrue(repository.compactItems(saved, saved.getItems().subList(1, 3), saved.getItems().subList(0, 1)));
+
+        assertEquals(2, repository.findByCustomerId("a").orElseThrow().getItems().size());
+        assertEquals(before, repository.aggregateStatistics("offer-1", "ADD", TEN, TEN.plusSeconds(3600)));
+        // The cart and its archived history
+        assertEquals(2, repository.findCartsByItemDynamic("offer-1", "ADD", TEN, TEN.plusSeconds(3600)).size());
+        assertEquals(1, repository.streamArchivedCarts().count());
+        // Stale: the cart no longer has three items
+        assertFalse(repository.compactItems(saved, List.of(), saved.getItems()));
+
+        repository.deleteById(saved.getId());
+        assertEquals(1, repository.deleteArchivedItems("a").size());
+        assertEquals(StatisticsAggregate.EMPTY, repository.aggregateStatistics("offer-1", "ADD", TEN, TEN.plusSeconds(3600)));
+    }
+
+    @Test
+    void testItemPageIsFilteredPagedAndProjected() {
+        repository.save(cart("a", item("offer-1", TEN), item("offer-2", TEN), item("offer-1", TEN.plusSeconds(60)),
+            item("offer-1", TEN.plusSeconds(120))));
+
+        CartItemPage page = repository.findItemPage("a",
+            new ItemQuery(1, 1, "offer-1", Item.Action.ADD, Set.of(Item.Fields.actionTimestamp))).orElseThrow();
+        assertEquals(3, page.matchingItems());
+        assertEquals(1, page.cart().getItems().size());
+        assertEquals(TEN.plusSeconds(60), page.cart().getItems().get(0).getActionTimestamp());
+        assertNull(page.cart().getItems().get(0).getOfferId());
+        // The stored cart keeps all its items
+        assertEquals(4, repository.findByCustomerId("a").orElseThrow().getItems().size());
+
+        assertEquals(List.of(), repository.findItemPage("a", new ItemQuery(4, Integer.MAX_VALUE, null, null, null))
+            .orElseThrow().cart().getItems());
+        assertTrue(repository.findItemPage("b", new ItemQuery(0, 1, null, null, null)).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new ItemQuery(0, 0, null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> new ItemQuery(0, null, null, null, Set.of("price")));
+    }
+
+    @Test
+    void testBulkInsertReportsDuplicatesPerRecord() {
+        repository.save(cart("a", item("offer-1", TEN)));
+
+        Map<Integer, String> failures = repository.bulkInsert(List.of(
+            cart("b", item("offer-1", TEN)), cart("a", item("offer-1", TEN)), cart("b", item("offer-1", TEN))));
+
+        assertEquals(Set.of(1, 2), failures.keySet());
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    void testBatchAppendsMatchSingleAppends() {
+        Cart batched = cart("a", item("offer-1", TEN), item("offer-2", TEN));
+        batched.setTotals(CartTotals.of(batched.getItems()));
+        repository.save(batched);
+        Cart single = cart("b", item("offer-1", TEN), item("offer-2", TEN));
+        single.setTotals(CartTotals.of(single.getItems()));
+        repository.save(single);
+        Item delete = item("offer-1", TEN.plusSeconds(60));
+        delete.setAction(Item.Action.DELETE);
+        List<Item> items = List.of(item("offer-3", TEN.plusSeconds(60)), delete, item("offer-2", TEN.plusSeconds(60)));
+
+        Cart appended = repository.appendItems("a", items, null);
+        items.forEach(item -> repository.appendItem("b", item, null));
+
+        Cart expected = repository.findByCustomerId("b").orElseThrow();
+        assertEquals(expected.getItems(), appended.getItems());
+        assertEquals(expected.getTotals(), appended.getTotals());
+        // One update, one version
+        assertEquals(1, appended.getVersion());
+        assertEquals(3, expected.getVersion());
+        // The items of both carts are indexed
+        assertEquals(4, repository.aggregateStatistics("offer-2", "ADD", TEN.minusSeconds(1), TEN.plusSeconds(61)).count());
+    }
+
+    @Test
+    void testConcurrentAppendsDoNotLoseItems() throws Exception {
+        repository.save(cart("concurrent", item("offer-0", TEN)));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 100; i++) {
+                    repository.appendItem("concurrent", item("offer-1", TEN.plusSeconds(i)), null);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(801, repository.findByCustomerId("concurrent").orElseThrow().getItems().size());
+        assertEquals(800, repository.aggregateStatistics("offer-1", "ADD", TEN.minusSeconds(1), TEN.plusSeconds(100)).count());
+    }
+
+    @Test
+    void testConcurrentCreatesKeepOneCartPerCustomer() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                repository.save(cart("customer-" + thread, item("offer-1", TEN)));
+                try {
+                    repository.save(cart("shared", item("offer-2", TEN)));
+                    return true;
+                } catch (DuplicateKeyException e) {
+                    return false;
+                }
+            }));
+        }
+        int created = 0;
+        for (Future<Boolean> future : futures) {
+            created += future.get() ? 1 : 0;
+        }
+        executor.shutdown();
+
+        assertEquals(1, created);
+        assertEquals(9, repository.count());
+        assertEquals(8, repository.aggregateStatistics("offer-1", "ADD", TEN.minusSeconds(1), TEN.plusSeconds(1)).count());
+        assertEquals(1, repository.aggregateStatistics("offer-2", "ADD", TEN.minusSeconds(1), TEN.plusSeconds(1)).count());
+    }
+
+    private static Cart cart(String customerId, Item... items) {
+        Cart cart = new Cart();
+        cart.setCustomerId(customerId);
+        cart.setItems(new ArrayList<>(List.of(items)));
+        return cart;
+    }
+
+    private static Item item(String offerId, Instant actionTimestamp) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(Item.Action.ADD);
+        item.setActionTimestamp(actionTimestamp);
+        return item;
+    }
+}
@@ -0,0 +1,94 @@
+package com.shoppingcart.repository.inmemory;
+
+import com.shoppingcart.dto.OfferCustomerCount;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.RollupIncrement;
+import com.shoppingcart.model.StatisticsRollup;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryStatisticsRollupRepositoryTest {
+    private static final Instant TEN = Instant.parse("2025-07-24T10:00:00Z");
+    private static final Duration HOUR = Duration.ofHours(1);
+
+    private final InMemoryStatisticsRollupRepository repository = new InMemoryStatisticsRollupRepository();
+
+    @Test
+    void testBucketsAreLookedUpByOfferActionAndRange() {
+        repository.increment(List.of(
+            increment("offer-1", "ADD", TEN, "customer-1"),
+            increment("offer-1", "ADD", TEN.plus(HOUR), "customer-1"),
+            increment("offer-1", "ADD", TEN.plus(HOUR.multipliedBy(2)), "customer-2"),
+            increment("offer-1", "DELETE", TEN.plus(HOUR), "customer-1"),
+            increment("offer-2", "ADD", TEN.plus(HOUR), "customer-3")));
+
+        List<StatisticsRollup> buckets = repository.findBuckets("offer-1", "ADD", TEN.plus(HOUR), TEN.plus(HOUR.multipliedBy(3)));
+        assertEquals(List.of(TEN.plus(HOUR), TEN.plus(HOUR.multipliedBy(2))),
+            buckets.stream().map(StatisticsRollup::getBucket).toList());
+        assertEquals(2, repository.findBuckets(List.of("offer-1", "offer-2"), List.of("ADD"), TEN.plus(HOUR),
+            TEN.plus(HOUR.multipliedBy(2))).size());
+        assertTrue(repository.findBuckets("offer-3", "ADD", TEN, TEN.plus(HOUR)).isEmpty());
+        assertEquals(2, repository.countCustomers("offer-1", "ADD", TEN, TEN.plus(HOUR.multipliedBy(3)), Set.of()));
+        assertEquals(1, repository.countCustomers("offer-1", "ADD", TEN, TEN.plus(HOUR.multipliedBy(3)),
+            Set.of("customer-1", "customer-3")));
+    }
+
+    @Test
+    void testBatchCustomerCountsLeaveOutCountedCustomersPerOffer() {
+        repository.increment(List.of(increment("offer-1", "ADD", TEN, "customer-1"),
+            increment("offer-1", "ADD", TEN.plus(HOUR), "customer-2"),
+            increment("offer-2", "ADD", TEN, "customer-1")));
+
+        assertEquals(List.of(new OfferCustomerCount("offer-1", "ADD", 1)),
+            repository.countCustomers(List.of("offer-1", "offer-2"), List.of("ADD"), TEN, TEN.plus(HOUR.multipliedBy(2)),
+                List.of(new OfferCustomerItemCount("offer-1", "ADD", "customer-1", 1),
+                    new OfferCustomerItemCount("offer-2", "ADD", "customer-1", 1))));
+    }
+
+    @Test
+    void testDecrementRemovesTheCustomersOfTheBucket() {
+        repository.increment(List.of(increment("offer-1", "ADD", TEN, "customer-1"),
+            increment("offer-1", "ADD", TEN, "customer-2")));
+
+        repository.decrement(List.of(increment("offer-1", "ADD", TEN, "customer-1")));
+
+        assertEquals(1, repository.findBuckets("offer-1", "ADD", TEN, TEN.plus(HOUR)).get(0).getItemCount());
+        assertEquals(0, repository.countCustomers("offer-1", "ADD", TEN, TEN.plus(HOUR), Set.of("customer-2")));
+    }
+
+    @Test
+    void testConcurrentIncrementsOfOneBucketAreAllApplied() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 100; i++) {
+                    repository.increment(List.of(increment("offer-1", "ADD", TEN, "customer-" + thread)));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        StatisticsRollup rollup = repository.findBuckets("offer-1", "ADD", TEN, TEN.plus(HOUR)).get(0);
+        assertEquals(800, rollup.getItemCount());
+        assertEquals(8, repository.countCustomers("offer-1", "ADD", TEN, TEN.plus(HOUR), Set.of()));
+    }
+
+    private static RollupIncrement increment(String offerId, String action, Instant bucket, String customerId) {
+        return new RollupIncrement(offerId, action, bucket, 1, Set.of(customerId));
+    }
+}
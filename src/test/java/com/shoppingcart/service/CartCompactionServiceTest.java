@@ -0,0 +1,142 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.config.CacheConfig;
+import com.shoppingcart.config.CompactionProperties;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.repository.CartRepository;
+import com.shoppingcart.util.ResilienceProperties;
+import com.shoppingcart.util.ResilienceUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CartCompactionServiceTest {
+    private static final Instant NOW = Instant.now();
+    private static final Instant OLD = NOW.minus(Duration.ofDays(30));
+
+    private final CartRepository cartRepository = mock(CartRepository.class);
+    private final ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager(CacheConfig.CART_CACHE);
+    private final CompactionProperties properties = new CompactionProperties();
+    private CartCompactionService service;
+
+    @BeforeEach
+    void setUp() {
+        ResilienceProperties resilienceProperties = new ResilienceProperties();
+        resilienceProperties.setInitialWaitMs(1);
+        resilienceProperties.setMultiplier(1.0);
+        resilienceProperties.setMaxAttempts(1);
+        properties.setEnabled(true);
+        properties.setThreshold(2);
+        properties.setRegrowth(2);
+        properties.setBatchSize(1);
+        service = new CartCompactionService(cartRepository,
+            new ResilienceUtils(resilienceProperties, new SimpleMeterRegistry()), cacheManager, properties);
+    }
+
+    @Test
+    void testPlanKeepsTheLastEntryPerOfferAndRecentHistory() {
+        Item added = item("offer-1", Item.Action.ADD, OLD);
+        Item modified = item("offer-1", Item.Action.MODIFY, OLD.plusSeconds(1));
+        Item deletedAdd = item("offer-2", Item.Action.ADD, OLD);
+        Item delete = item("offer-2", Item.Action.DELETE, OLD.plusSeconds(2));
+        Item recent = item("offer-3", Item.Action.ADD, NOW);
+        Item recentModify = item("offer-3", Item.Action.MODIFY, NOW);
+
+        CartCompactionService.Compaction compaction = CartCompactionService.plan(
+            List.of(added, deletedAdd, modified, delete, recent, recentModify), NOW.minus(Duration.ofDays(7)));
+
+        assertEquals(List.of(modified, recent, recentModify), compaction.items());
+        assertEquals(List.of(added, deletedAdd, delete), compaction.archived());
+    }
+
+    @Test
+    void testCompactionEvictsTheCachedCart() {
+        Cart cart = cart("customer-1", item("offer-1", Item.Action.ADD, OLD), item("offer-1", Item.Action.MODIFY, OLD));
+        cacheManager.getCache(CacheConfig.CART_CACHE).put("customer-1", cart);
+        when(cartRepository.compactItems(eq(cart), any(), any())).thenReturn(true);
+
+        assertTrue(service.compact(cart));
+
+        verify(cartRepository).compactItems(cart, List.of(cart.getItems().get(1)), List.of(cart.getItems().get(0)));
+        assertNull(cacheManager.getCache(CacheConfig.CART_CACHE).get("customer-1"));
+    }
+
+    @Test
+    void testNothingToArchiveLeavesTheCartAlone() {
+        Cart cart = cart("customer-1", item("offer-1", Item.Action.ADD, OLD), item("offer-2", Item.Action.ADD, OLD));
+
+        assertFalse(service.compact(cart));
+        verify(cartRepository, never()).compactItems(any(), any(), any());
+    }
+
+    @Test
+    void testCartsWithNothingToArchiveAreReadAgainOnlyAfterRegrowth() {
+        Cart cart = cart("customer-1", item("offer-1", Item.Action.ADD, OLD), item("offer-2", Item.Action.ADD, OLD),
+            item("offer-3", Item.Action.ADD, OLD));
+        when(cartRepository.findByCustomerId("customer-1")).thenReturn(Optional.of(cart));
+
+        service.compactIfNeeded(cart);
+        awaitQueuedCompactions(1);
+        cart.getItems().add(item("offer-4", Item.Action.ADD, OLD));
+        service.compactIfNeeded(cart);
+        awaitQueuedCompactions(2);
+        verify(cartRepository, times(1)).findByCustomerId("customer-1");
+
+        cart.getItems().add(item("offer-5", Item.Action.ADD, OLD));
+        service.compactIfNeeded(cart);
+        verify(cartRepository, timeout(1000).times(2)).findByCustomerId("customer-1");
+        verify(cartRepository, never()).compactItems(any(), any(), any());
+    }
+
+    @Test
+    void testScheduledCompactionPagesThroughCarts() {
+        Cart first = cart("customer-1", item("offer-1", Item.Action.ADD, OLD), item("offer-1", Item.Action.DELETE, OLD));
+        first.setId("1");
+        Cart second = cart("customer-2", item("offer-1", Item.Action.ADD, OLD), item("offer-1", Item.Action.MODIFY, OLD));
+        second.setId("2");
+        when(cartRepository.findCartsWithMoreItemsThan(2, null, 1)).thenReturn(List.of(first));
+        when(cartRepository.findCartsWithMoreItemsThan(2, "1", 1)).thenReturn(List.of(second));
+        when(cartRepository.findCartsWithMoreItemsThan(2, "2", 1)).thenReturn(List.of());
+        // The second cart changed after it was read
+        when(cartRepository.compactItems(eq(first), any(), any())).thenReturn(true);
+
+        assertEquals(1, service.compactAll());
+        verify(cartRepository, times(3)).findCartsWithMoreItemsThan(eq(2), any(), anyInt());
+    }
+
+    // Compactions run one at a time in order, so once another cart is read the earlier ones are done
+    private void awaitQueuedCompactions(int times) {
+        service.compactIfNeeded(cart("customer-2", item("offer-1", Item.Action.ADD, OLD),
+            item("offer-2", Item.Action.ADD, OLD), item("offer-3", Item.Action.ADD, OLD)));
+        verify(cartRepository, timeout(1000).times(times)).findByCustomerId("customer-2");
+    }
+
+    private static Cart cart(String customerId, Item... items) {
+        Cart cart = new Cart();
+        cart.setCustomerId(customerId);
+        cart.setItems(new ArrayList<>(List.of(items)));
+        return cart;
+    }
+
+    private static Item item(String offerId, Item.Action action, Instant actionTimestamp) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(action);
+        item.setActionTimestamp(actionTimestamp);
+        return item;
+    }
+}
@@ -0,0 +1,132 @@
+package com.shoppingcart.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shoppingcart.config.IngestProperties;
+import com.shoppingcart.config.StatisticsProperties;
+import com.shoppingcart.dto.IngestResult;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.repository.CartRepository;
+import com.shoppingcart.repository.StatisticsRollupRepository;
+import com.shoppingcart.util.ResilienceProperties;
+import com.shoppingcart.util.ResilienceUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class CartIngestServiceTest {
+    private static final String CART = "{\"customerId\":\"%s\",\"items\":[{\"offerId\":\"offer-1\",\"action\":\"ADD\","
+        + "\"prices\":[{\"type\":\"ONE_TIME\",\"value\":1.00}]}]}";
+
+    private final CartRepository cartRepository = mock(CartRepository.class);
+    private final StatisticsRollupService statisticsRollupService = mock(StatisticsRollupService.class);
+    private final StatisticsCache statisticsCache = mock(StatisticsCache.class);
+    private final IngestProperties properties = new IngestProperties();
+    private CartIngestService service;
+
+    @BeforeEach
+    void setUp() {
+        properties.setBatchSize(2);
+        service = service(statisticsRollupService);
+        when(cartRepository.bulkInsert(anyList())).thenReturn(Map.of());
+    }
+
+    @Test
+    void testNdjsonIsInsertedInBatches() throws Exception {
+        IngestResult result = ingest(String.format(CART, "a") + "\n" + String.format(CART, "b") + "\n"
+            + String.format(CART, "c") + "\n");
+
+        assertEquals(new IngestResult(3, 3, 0, List.of()), result);
+        verify(cartRepository, times(2)).bulkInsert(anyList());
+        verify(statisticsRollupService, times(2)).recordCarts(anyList());
+        verify(statisticsCache, times(2)).invalidate(anyList());
+    }
+
+    @Test
+    void testInvalidRecordsAreReportedAndSkipped() throws Exception {
+        IngestResult result = ingest("[" + String.format(CART, "a") + ",{\"customerId\":\"b\",\"items\":[]},"
+            + "{\"customerId\":\"c\",\"items\":\"oops\"}," + String.format(CART, "d") + "]");
+
+        assertEquals(4, result.received());
+        assertEquals(2, result.inserted());
+        assertEquals(2, result.failed());
+        assertEquals(1, result.errors().get(0).index());
+        assertEquals("b", result.errors().get(0).customerId());
+        assertEquals(2, result.errors().get(1).index());
+        assertEquals("c", result.errors().get(1).customerId());
+    }
+
+    @Test
+    void testDuplicateCustomersFailOnlyTheirRecord() throws Exception {
+        when(cartRepository.bulkInsert(anyList())).thenReturn(Map.of(1, "E11000 duplicate key error"));
+
+        IngestResult result = ingest(String.format(CART, "a") + String.format(CART, "a"));
+
+        assertEquals(1, result.inserted());
+        assertEquals(new IngestResult.RecordError(1, "a", "E11000 duplicate key error"), result.errors().get(0));
+        verify(statisticsRollupService).recordCarts(argThat(carts -> carts.size() == 1));
+    }
+
+    @Test
+    void testMalformedJsonStopsAfterWritingPrecedingRecords() throws Exception {
+        IngestResult result = ingest(String.format(CART, "a") + "\n{\"customerId\":");
+
+        assertEquals(1, result.inserted());
+        assertEquals(1, result.failed());
+        assertNotNull(result.errors().get(0).message());
+        assertTrue(result.errors().get(0).message().startsWith("Malformed JSON"));
+        verify(cartRepository).bulkInsert(any());
+    }
+
+    @Test
+    void testFailedWriteIsNotRepeated() {
+        when(cartRepository.bulkInsert(anyList())).thenThrow(new RuntimeException("Connection reset"));
+
+        RuntimeException exception = assertThrows(RuntimeException.class,
+            () -> ingest(String.format(CART, "a") + String.format(CART, "b") + String.format(CART, "c")));
+
+        assertEquals("Connection reset", exception.getCause().getMessage());
+        verify(cartRepository, times(1)).bulkInsert(anyList());
+    }
+
+    @Test
+    void testRollupsAreWrittenOncePerBatch() throws Exception {
+        StatisticsRollupRepository rollupRepository = mock(StatisticsRollupRepository.class);
+        StatisticsProperties statisticsProperties = new StatisticsProperties();
+        statisticsProperties.getRollups().setEnabled(true);
+        service = service(new StatisticsRollupService(rollupRepository, cartRepository, statisticsProperties));
+
+        ingest(String.format(CART, "a") + String.format(CART, "b") + String.format(CART, "c"));
+
+        verify(rollupRepository, times(2)).increment(anyCollection());
+    }
+
+    private CartIngestService service(StatisticsRollupService rollupService) {
+        ResilienceProperties resilienceProperties = new ResilienceProperties();
+        resilienceProperties.setInitialWaitMs(1);
+        resilienceProperties.setMultiplier(1.0);
+        resilienceProperties.setMaxAttempts(1);
+        return new CartIngestService(cartRepository, rollupService, statisticsCache,
+            new ResilienceUtils(resilienceProperties, new SimpleMeterRegistry()),
+            new ObjectMapper().registerModule(new JavaTimeModule()),
+            Validation.buildDefaultValidatorFactory().getValidator(), properties);
+    }
+
+    private IngestResult ingest(String body) throws Exception {
+        return service.ingest(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,172 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.dto.CartSummary;
+import com.shoppingcart.dto.HistogramInterval;
+import com.shoppingcart.dto.StatisticsHistogram;
+import com.shoppingcart.dto.StatisticsResponse;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.model.Price;
+import com.shoppingcart.repository.CartRepository;
+import com.shoppingcart.repository.inmemory.InMemoryCartRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("in-memory")
+class CartServiceInMemoryTest {
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Test
+    void testCartLifecycleWithoutMongo() {
+        assertInstanceOf(InMemoryCartRepository.class, cartRepository);
+        assertEquals(0, applicationContext.getBeanNamesForType(MongoTemplate.class).length);
+
+        Cart cart = new Cart();
+        cart.setCustomerId("in-memory-user");
+        cart.setItems(new ArrayList<>(List.of(item("offer-1"))));
+        cartService.saveCart(cart);
+        cartService.addItemToCart("in-memory-user", item("offer-1"), null);
+
+        StatisticsResponse statistics = cartService.getStatistics("offer-1", "ADD", Instant.EPOCH, Instant.now().plusSeconds(1));
+        assertEquals(2, statistics.count());
+        assertEquals(1, statistics.uniqueCustomers());
+
+        cartService.deleteCartByCustomerId("in-memory-user", null);
+        assertTrue(cartService.getCartByCustomerId("in-memory-user").isEmpty());
+    }
+
+    @Test
+    void testSummaryFollowsModifyAndDelete() {
+        Cart cart = new Cart();
+        cart.setCustomerId("summary-user");
+        cart.setItems(new ArrayList<>(List.of(item("summary-offer-1"), item("summary-offer-2", Item.Action.ADD, recurring("2.50", 12)))));
+        cartService.saveCart(cart);
+        assertEquals(new CartSummary("summary-user", 2, new BigDecimal("1.00"), new BigDecimal("30.00"),
+            new BigDecimal("31.00")), cartService.getCartSummary("summary-user").orElseThrow());
+
+        cartService.addItemToCart("summary-user", item("summary-offer-1", Item.Action.MODIFY, oneTime("3.00")), null);
+        Cart updated = cartService.addItemToCart("summary-user", item("summary-offer-2", Item.Action.DELETE, recurring("2.50", 12)), null);
+
+        CartSummary summary = cartService.getCartSummary("summary-user").orElseThrow();
+        assertEquals(new CartSummary("summary-user", 1, new BigDecimal("3.00"), BigDecimal.ZERO, new BigDecimal("3.00")),
+            summary);
+        assertEquals(summary.total(), updated.getTotals().getTotal());
+        assertTrue(cartService.getCartSummary("no-cart").isEmpty());
+    }
+
+    @Test
+    void testWritesAtAStaleVersionConflict() {
+        Cart cart = new Cart();
+        cart.setCustomerId("version-user");
+        cart.setItems(new ArrayList<>(List.of(item("version-offer-1"))));
+        assertEquals(0, cartService.saveCart(cart).getVersion());
+
+        assertEquals(1, cartService.addItemToCart("version-user", item("version-offer-2"), 0L).getVersion());
+        assertThrows(OptimisticLockingFailureException.class,
+            () -> cartService.addItemToCart("version-user", item("version-offer-3"), 0L));
+        assertThrows(NoSuchElementException.class, () -> cartService.addItemToCart("no-cart", item("version-offer-3"), 0L));
+        assertEquals(2, cartService.getCartByCustomerId("version-user").orElseThrow().getItems().size());
+
+        assertThrows(OptimisticLockingFailureException.class, () -> cartService.deleteCartByCustomerId("version-user", 0L));
+        cartService.deleteCartByCustomerId("version-user", 1L);
+        assertTrue(cartService.getCartByCustomerId("version-user").isEmpty());
+    }
+
+    @Test
+    void testCachedStatisticsFollowWritesAndDeletes() {
+        Instant ten = Instant.parse("2025-07-24T10:00:00Z");
+        Instant eleven = ten.plus(Duration.ofHours(1));
+        Cart first = new Cart();
+        first.setCustomerId("cache-user-1");
+        Item item = item("cache-offer-1");
+        item.setActionTimestamp(ten.plusSeconds(60));
+        first.setItems(new ArrayList<>(List.of(item)));
+        cartService.saveCart(first);
+        assertEquals(1, cartService.getStatistics("cache-offer-1", "ADD", ten, eleven).count());
+
+        Cart second = new Cart();
+        second.setCustomerId("cache-user-2");
+        Item late = item("cache-offer-1");
+        late.setActionTimestamp(ten.plusSeconds(120));
+        second.setItems(new ArrayList<>(List.of(late)));
+        cartService.saveCart(second);
+        assertEquals(2, cartService.getStatistics("cache-offer-1", "ADD", ten, eleven).count());
+
+        cartService.deleteCartByCustomerId("cache-user-1", null);
+        assertEquals(new StatisticsResponse("cache-offer-1", "ADD", ten, eleven, 1, 1, 1),
+            cartService.getStatistics("cache-offer-1", "ADD", ten, eleven));
+    }
+
+    @Test
+    void testHistogramIncludesEmptyBuckets() {
+        Instant ten = Instant.parse("2025-07-24T10:00:00Z");
+        Cart cart = new Cart();
+        cart.setCustomerId("histogram-user");
+        Item first = item("histogram-offer-1");
+        first.setActionTimestamp(ten.plusSeconds(60));
+        Item third = item("histogram-offer-1");
+        third.setActionTimestamp(ten.plus(Duration.ofHours(2)).plusSeconds(60));
+        cart.setItems(new ArrayList<>(List.of(first, third)));
+        cartService.saveCart(cart);
+
+        StatisticsHistogram histogram = cartService.getStatisticsHistogram("histogram-offer-1", "ADD", ten.plusSeconds(30),
+            ten.plus(Duration.ofHours(3)), HistogramInterval.HOUR, ZoneOffset.UTC);
+
+        assertEquals(List.of(
+            new StatisticsHistogram.Bucket(ten, 1, 1, 1),
+            new StatisticsHistogram.Bucket(ten.plus(Duration.ofHours(1)), 0, 0, 0),
+            new StatisticsHistogram.Bucket(ten.plus(Duration.ofHours(2)), 1, 1, 1)), histogram.buckets());
+        assertThrows(IllegalArgumentException.class, () -> cartService.getStatisticsHistogram("histogram-offer-1", "ADD",
+            Instant.EPOCH, ten, HistogramInterval.MINUTE, ZoneOffset.UTC));
+    }
+
+    private static Item item(String offerId) {
+        return item(offerId, Item.Action.ADD, oneTime("1.00"));
+    }
+
+    private static Item item(String offerId, Item.Action action, Price price) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(action);
+        item.setPrices(List.of(price));
+        return item;
+    }
+
+    private static Price oneTime(String value) {
+        Price price = new Price();
+        price.setType(Price.PriceType.ONE_TIME);
+        price.setValue(new BigDecimal(value));
+        return price;
+    }
+
+    private static Price recurring(String value, int recurrences) {
+        Price price = new Price();
+        price.setType(Price.PriceType.RECURRING);
+        price.setValue(new BigDecimal(value));
+        price.setRecurrences(recurrences);
+        return price;
+    }
+}
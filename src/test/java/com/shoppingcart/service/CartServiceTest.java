@@ -1,19 +1,27 @@
 package com.shoppingcart.service;
 
 import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
 import com.shoppingcart.repository.CartRepository;
+import com.shoppingcart.util.ResilienceUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DuplicateKeyException;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
-@SpringBootTest
+@SpringBootTest(properties = "mongo-indexes.verify-on-startup=false")
 class CartServiceTest {
     @MockBean
     private CartRepository cartRepository;
@@ -21,6 +29,75 @@ class CartServiceTest {
     @Autowired
     private CartService cartService;
 
+    @Autowired
+    private ResilienceUtils resilienceUtils;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void resetCircuitBreakers() {
+        // Breakers are shared across calls, don't let one test's failures open them for the next
+        for (ResilienceUtils.Operation operation : ResilienceUtils.Operation.values()) {
+            resilienceUtils.getCircuitBreaker(operation).reset();
+        }
+    }
+
+    @Test
+    void testCartIsCachedUntilDeleted() {
+        String customerId = "cached-user";
+        Cart cart = new Cart();
+        cart.setId("cart3");
+        cart.setCustomerId(customerId);
+        when(cartRepository.findByCustomerId(customerId)).thenReturn(Optional.of(cart));
+
+        cartService.getCartByCustomerId(customerId);
+        cartService.getCartByCustomerId(customerId);
+        verify(cartRepository, times(1)).findByCustomerId(customerId);
+
+        cartService.deleteCartByCustomerId(customerId, null);
+        cartService.getCartByCustomerId(customerId);
+        // One lookup by the delete itself, one after the eviction
+        verify(cartRepository, times(3)).findByCustomerId(customerId);
+    }
+
+    @Test
+    void testWritesEvictTheCachedCart() {
+        String customerId = "written-user";
+        Cart cart = new Cart();
+        cart.setId("cart4");
+        cart.setCustomerId(customerId);
+        Cart updated = new Cart();
+        updated.setId("cart4");
+        updated.setCustomerId(customerId);
+        updated.setVersion(1L);
+        when(cartRepository.findByCustomerId(customerId)).thenReturn(Optional.of(cart));
+        when(cartRepository.appendItems(eq(customerId), anyList(), isNull())).thenReturn(updated);
+
+        cartService.getCartByCustomerId(customerId);
+        Item item = new Item();
+        item.setOfferId("offer-1");
+        item.setAction(Item.Action.ADD);
+        cartService.addItemToCart(customerId, item, null);
+        cartService.getCartByCustomerId(customerId);
+        // The returned cart is not cached, the next read loads the cart as last written
+        verify(cartRepository, times(2)).findByCustomerId(customerId);
+    }
+
+    @Test
+    void testConcurrentCreateIsAConflict() {
+        String customerId = "racing-user";
+        Cart cart = new Cart();
+        cart.setCustomerId(customerId);
+        cart.setItems(List.of());
+        when(cartRepository.findByCustomerId(customerId)).thenReturn(Optional.empty());
+        when(cartRepository.save(cart)).thenThrow(new DuplicateKeyException("E11000 duplicate key error"));
+
+        // Passed on as is for the 409 response, not retried
+        assertThrows(DuplicateKeyException.class, () -> cartService.saveCart(cart));
+        verify(cartRepository, times(1)).save(cart);
+    }
+
     @Test
     void testRetryPatternOnTimeout() {
         String customerId = "user1";
@@ -30,7 +107,7 @@ class CartServiceTest {
         doThrow(new RuntimeException("Timeout"))
             .when(cartRepository).deleteById(cart.getId());
 
-        Exception exception = assertThrows(RuntimeException.class, () -> cartService.deleteCartByCustomerId(customerId));
+        Exception exception = assertThrows(RuntimeException.class, () -> cartService.deleteCartByCustomerId(customerId, null));
         assertTrue(exception.getMessage().contains("Service temporarily unavailable"));
         verify(cartRepository, times(3)).deleteById(cart.getId());
     }
@@ -46,10 +123,36 @@ class CartServiceTest {
 
         for (int i = 0; i < 10; i++) {
             try {
-                cartService.deleteCartByCustomerId(customerId);
+                cartService.deleteCartByCustomerId(customerId, null);
             } catch (Exception ignored) {}
         }
-        Exception exception = assertThrows(RuntimeException.class, () -> cartService.deleteCartByCustomerId(customerId));
+        Exception exception = assertThrows(RuntimeException.class, () -> cartService.deleteCartByCustomerId(customerId, null));
         assertTrue(exception.getMessage().contains("Service temporarily unavailable"));
     }
+
+    @Test
+    void testOperationsAndScannedItemsAreMeasured() {
+        Instant now = Instant.now();
+        Cart cart = new Cart();
+        cart.setCustomerId("metrics-user");
+        cart.setItems(List.of(item("offer-metrics", now), item("offer-metrics", now.minusSeconds(3600)),
+            item("offer-other", now)));
+        when(cartRepository.findCartsByItemDynamic(eq("offer-metrics"), eq("ADD"), any(), any())).thenReturn(List.of(cart));
+
+        assertEquals(1, cartService.countOffersSold("offer-metrics", "ADD", now.minusSeconds(60), now.plusSeconds(60)));
+
+        assertEquals(1, meterRegistry.get("cart.service").tag("method", "countOffersSold").timer().count());
+        assertEquals(3.0, meterRegistry.get("cart.statistics.items").tags("query", "legacy", "stage", "scanned")
+            .counter().count());
+        assertEquals(1.0, meterRegistry.get("cart.statistics.items").tags("query", "legacy", "stage", "matched")
+            .counter().count());
+    }
+
+    private static Item item(String offerId, Instant actionTimestamp) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(Item.Action.ADD);
+        item.setActionTimestamp(actionTimestamp);
+        return item;
+    }
 }
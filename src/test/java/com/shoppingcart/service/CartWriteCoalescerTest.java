@@ -0,0 +1,173 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.config.CartMetrics;
+import com.shoppingcart.config.WriteCoalescingProperties;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CartWriteCoalescerTest {
+    private final WriteCoalescingProperties properties = new WriteCoalescingProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CartWriteCoalescer coalescer = new CartWriteCoalescer(properties, new CartMetrics(meterRegistry));
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    // The offer ids of every write, in order
+    private final List<List<String>> writes = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testItemsQueuedBehindAWriteAreWrittenTogether() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Function<List<Item>, Cart> write = items -> {
+            writing.countDown();
+            await(release);
+            return record(items);
+        };
+        Future<Cart> first = executor.submit(() -> coalescer.append("customer-1", item("offer-0"), write));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        List<Future<Cart>> queued = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Item item = item("offer-" + i);
+            queued.add(executor.submit(() -> coalescer.append("customer-1", item, write)));
+            // Keeps the arrival order
+            Thread.sleep(50);
+        }
+        // Another customer is not held up
+        assertEquals(1, coalescer.append("customer-2", item("offer-9"), this::record).getItems().size());
+        release.countDown();
+
+        assertEquals(1, first.get().getItems().size());
+        for (Future<Cart> future : queued) {
+            assertEquals(List.of("offer-1", "offer-2", "offer-3"), offerIds(future.get()));
+        }
+        assertEquals(List.of(List.of("offer-0"), List.of("offer-1", "offer-2", "offer-3"), List.of("offer-9")),
+            writes.stream().sorted((a, b) -> a.get(0).compareTo(b.get(0))).toList());
+        assertEquals(5, meterRegistry.get("cart.write.batch.items").summary().totalAmount());
+    }
+
+    @Test
+    void testEveryCallerOfAFailedWriteGetsItsException() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Cart> first = executor.submit(() -> coalescer.append("customer-1", item("offer-0"), items -> {
+            writing.countDown();
+            await(release);
+            return record(items);
+        }));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        Function<List<Item>, Cart> failing = items -> {
+            throw new NoSuchElementException("Cart not found");
+        };
+        Future<Cart> second = executor.submit(() -> coalescer.append("customer-1", item("offer-1"), failing));
+        Future<Cart> third = executor.submit(() -> coalescer.append("customer-1", item("offer-2"), failing));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertNotNull(first.get());
+        assertInstanceOf(NoSuchElementException.class, assertThrows(ExecutionException.class, second::get).getCause());
+        assertInstanceOf(NoSuchElementException.class, assertThrows(ExecutionException.class, third::get).getCause());
+        // The next write starts a new sequence
+        assertEquals(1, coalescer.append("customer-1", item("offer-3"), this::record).getItems().size());
+    }
+
+    @Test
+    void testErrorsOfAWriteAreRethrownAsTheyAre() throws Exception {
+        Function<List<Item>, Cart> failing = items -> {
+            throw new StackOverflowError();
+        };
+        assertThrows(StackOverflowError.class, () -> coalescer.append("customer-1", item("offer-0"), failing));
+
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Cart> first = executor.submit(() -> coalescer.append("customer-1", item("offer-1"), items -> {
+            writing.countDown();
+            await(release);
+            return record(items);
+        }));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        Future<Cart> queued = executor.submit(() -> coalescer.append("customer-1", item("offer-2"), failing));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertNotNull(first.get());
+        assertInstanceOf(StackOverflowError.class, assertThrows(ExecutionException.class, queued::get).getCause());
+    }
+
+    @Test
+    void testBatchesAreCappedAndDisabledCoalescingWritesEachItem() throws Exception {
+        properties.setMaxBatchSize(2);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Function<List<Item>, Cart> write = items -> {
+            writing.countDown();
+            await(release);
+            return record(items);
+        };
+        List<Future<Cart>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> coalescer.append("customer-1", item("offer-0"), write)));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            Item item = item("offer-" + i);
+            futures.add(executor.submit(() -> coalescer.append("customer-1", item, write)));
+            Thread.sleep(50);
+        }
+        release.countDown();
+        for (Future<Cart> future : futures) {
+            future.get();
+        }
+        assertEquals(List.of(List.of("offer-0"), List.of("offer-1", "offer-2"), List.of("offer-3", "offer-4"),
+            List.of("offer-5")), writes);
+
+        properties.setEnabled(false);
+        writes.clear();
+        coalescer.append("customer-1", item("offer-6"), this::record);
+        assertEquals(List.of(List.of("offer-6")), writes);
+    }
+
+    private Cart record(List<Item> items) {
+        writes.add(items.stream().map(Item::getOfferId).toList());
+        Cart cart = new Cart();
+        cart.setItems(new ArrayList<>(items));
+        return cart;
+    }
+
+    private static List<String> offerIds(Cart cart) {
+        return cart.getItems().stream().map(Item::getOfferId).toList();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Item item(String offerId) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(Item.Action.ADD);
+        return item;
+    }
+}
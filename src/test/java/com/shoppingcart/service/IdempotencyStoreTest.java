@@ -0,0 +1,191 @@
+package com.shoppingcart.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shoppingcart.config.IdempotencyProperties;
+import com.shoppingcart.model.Cart;
+import com.shoppingcart.model.Item;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyStoreTest {
+    private final AtomicInteger executions = new AtomicInteger();
+    private final IdempotencyStore store = new IdempotencyStore(new IdempotencyProperties(),
+        new ObjectMapper().findAndRegisterModules(), new SimpleMeterRegistry());
+
+    @Test
+    void testRetriesReplayTheStoredResponse() {
+        IdempotencyStore.Result first = add("customer-1", "key-1", item("offer-1"));
+        IdempotencyStore.Result retry = add("customer-1", "key-1", item("offer-1"));
+
+        assertFalse(first.replayed());
+        assertTrue(retry.replayed());
+        assertSame(first.cart(), retry.cart());
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    void testKeysAreScopedToOperationAndCustomer() {
+        add("customer-1", "key-1", item("offer-1"));
+        add("customer-2", "key-1", item("offer-1"));
+        store.execute(IdempotencyStore.SAVE_CART, "customer-1", "key-1", item("offer-1"), this::cart);
+
+        assertEquals(3, executions.get());
+    }
+
+    @Test
+    void testRequestsWithoutKeyAreNotStored() {
+        add("customer-1", null, item("offer-1"));
+        IdempotencyStore.Result second = add("customer-1", null, item("offer-1"));
+
+        assertFalse(second.replayed());
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    void testReusingKeyForDifferentRequestIsRejected() {
+        add("customer-1", "key-1", item("offer-1"));
+
+        assertThrows(IllegalStateException.class, () -> add("customer-1", "key-1", item("offer-2")));
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    void testInvalidKeysAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> add("customer-1", " ", item("offer-1")));
+        assertThrows(IllegalArgumentException.class, () -> add("customer-1", "k".repeat(256), item("offer-1")));
+        assertEquals(0, executions.get());
+    }
+
+    @Test
+    void testFailuresAreNotStored() {
+        assertThrows(IllegalStateException.class, () -> store.execute(IdempotencyStore.ADD_ITEM, "customer-1",
+            "key-1", item("offer-1"), () -> {
+                throw new IllegalStateException("version conflict");
+            }));
+
+        IdempotencyStore.Result retry = add("customer-1", "key-1", item("offer-1"));
+        assertFalse(retry.replayed());
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    void testFailuresAreNotLoggedByTheCache() {
+        List<LogRecord> records = new ArrayList<>();
+        Logger logger = Logger.getLogger("com.github.benmanes.caffeine.cache.LocalAsyncCache");
+        Handler handler = capture(records);
+        logger.addHandler(handler);
+        try {
+            assertThrows(NoSuchElementException.class, () -> store.execute(IdempotencyStore.ADD_ITEM, "customer-1",
+                "key-1", item("offer-1"), () -> {
+                    throw new NoSuchElementException("Cart not found");
+                }));
+        } finally {
+            logger.removeHandler(handler);
+        }
+
+        assertEquals(List.of(), records);
+    }
+
+    @Test
+    void testConcurrentRetriesWaitForTheFirstRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        Future<IdempotencyStore.Result> first = executor.submit(() -> store.execute(IdempotencyStore.ADD_ITEM,
+            "customer-1", "key-1", item("offer-1"), () -> {
+                started.countDown();
+                await(release);
+                return cart();
+            }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<IdempotencyStore.Result> second = executor.submit(() -> add("customer-1", "key-1", item("offer-1")));
+        Future<IdempotencyStore.Result> third = executor.submit(() -> add("customer-1", "key-1", item("offer-1")));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertSame(first.get().cart(), second.get().cart());
+        assertSame(first.get().cart(), third.get().cart());
+        assertTrue(second.get().replayed());
+        assertEquals(1, executions.get());
+        executor.shutdown();
+    }
+
+    @Test
+    void testDifferentRequestJoiningAFailedOneIsRejectedAsKeyReuse() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<IdempotencyStore.Result> first = executor.submit(() -> store.execute(IdempotencyStore.ADD_ITEM,
+            "customer-1", "key-1", item("offer-1"), () -> {
+                started.countDown();
+                await(release);
+                throw new NoSuchElementException("Cart not found");
+            }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<IdempotencyStore.Result> second = executor.submit(() -> add("customer-1", "key-1", item("offer-2")));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertInstanceOf(NoSuchElementException.class, assertThrows(ExecutionException.class, first::get).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, second::get).getCause());
+        assertEquals(0, executions.get());
+        executor.shutdown();
+    }
+
+    private IdempotencyStore.Result add(String customerId, String key, Item item) {
+        return store.execute(IdempotencyStore.ADD_ITEM, customerId, key, item, this::cart);
+    }
+
+    private Cart cart() {
+        executions.incrementAndGet();
+        return new Cart();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Item item(String offerId) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(Item.Action.ADD);
+        return item;
+    }
+
+    private static Handler capture(List<LogRecord> records) {
+        return new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
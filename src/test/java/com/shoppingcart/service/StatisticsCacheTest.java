@@ -0,0 +1,203 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.config.StatisticsProperties;
+import com.shoppingcart.dto.StatisticsResponse;
+import com.shoppingcart.model.Item;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatisticsCacheTest {
+    private static final Instant TEN = Instant.parse("2025-07-24T10:00:00Z");
+    private static final Instant ELEVEN = TEN.plus(Duration.ofHours(1));
+
+    private final AtomicInteger computations = new AtomicInteger();
+
+    @Test
+    void testCompletedPeriodsAreCachedAndLivePeriodsExpire() {
+        StatisticsCache cache = cache(Duration.ZERO);
+        Instant now = Instant.now();
+
+        get(cache, "offer-1", TEN, ELEVEN);
+        get(cache, "offer-1", TEN, ELEVEN);
+        get(cache, "offer-1", now.minusSeconds(60), now);
+        get(cache, "offer-1", now.minusSeconds(60), now);
+
+        assertEquals(3, computations.get());
+    }
+
+    @Test
+    void testWritesInvalidateOnlyAffectedOffersActionsAndPeriods() {
+        StatisticsCache cache = cache(Duration.ofMinutes(1));
+        get(cache, "offer-1", TEN, ELEVEN);
+        get(cache, "offer-2", TEN, ELEVEN);
+        get(cache, "offer-1", ELEVEN, ELEVEN.plus(Duration.ofHours(1)));
+
+        cache.invalidate(List.of(item("offer-1", Item.Action.ADD, TEN.plusSeconds(60)),
+            item("offer-2", Item.Action.DELETE, TEN.plusSeconds(60))));
+        assertEquals(3, computations.get());
+
+        get(cache, "offer-1", TEN, ELEVEN);
+        get(cache, "offer-2", TEN, ELEVEN);
+        get(cache, "offer-1", ELEVEN, ELEVEN.plus(Duration.ofHours(1)));
+        assertEquals(4, computations.get());
+    }
+
+    @Test
+    void testConcurrentRequestsShareOneComputation() throws Exception {
+        StatisticsCache cache = cache(Duration.ofMinutes(1));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Future<StatisticsResponse> first = executor.submit(() -> cache.get("offer-1", "ADD", TEN, ELEVEN, false, () -> {
+            started.countDown();
+            await(release);
+            return response(computations.incrementAndGet());
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<StatisticsResponse> second = executor.submit(() -> get(cache, "offer-1", TEN, ELEVEN));
+        Future<StatisticsResponse> third = executor.submit(() -> get(cache, "offer-1", TEN, ELEVEN));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertEquals(first.get(), second.get());
+        assertEquals(first.get(), third.get());
+        assertEquals(1, computations.get());
+        executor.shutdown();
+    }
+
+    @Test
+    void testFailuresAreNotLoggedByTheCache() {
+        StatisticsCache cache = cache(Duration.ofMinutes(1));
+        List<LogRecord> records = new ArrayList<>();
+        Logger logger = Logger.getLogger("com.github.benmanes.caffeine.cache.LocalAsyncCache");
+        Handler handler = capture(records);
+        logger.addHandler(handler);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> cache.get("offer-1", "ADD", TEN, ELEVEN, false, () -> {
+                throw new IllegalArgumentException("Unsupported action");
+            }));
+        } finally {
+            logger.removeHandler(handler);
+        }
+
+        assertEquals(List.of(), records);
+    }
+
+    @Test
+    void testPeriodsWithoutEndShareOneComputation() {
+        StatisticsCache cache = cache(Duration.ofHours(1));
+
+        get(cache, "offer-1", TEN, cache.liveEnd());
+        get(cache, "offer-1", TEN, cache.liveEnd());
+
+        assertEquals(1, computations.get());
+        assertFalse(cache.liveEnd().isAfter(Instant.now()));
+    }
+
+    @Test
+    void testEvictionsRacingWithGetsKeepEntriesInvalidatable() throws Exception {
+        StatisticsProperties properties = new StatisticsProperties();
+        properties.getCache().setMaximumSize(1);
+        StatisticsCache cache = new StatisticsCache(properties, new SimpleMeterRegistry());
+        Instant twelve = ELEVEN.plus(Duration.ofHours(1));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        for (int i = 0; i < 5_000; i++) {
+            get(cache, "offer-1", TEN, ELEVEN);
+            // Caching the other period evicts one of the two, racing with a get of the same period
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> evicting = executor.submit(() -> {
+                await(start);
+                get(cache, "offer-1", ELEVEN, twelve);
+            });
+            Future<?> getting = executor.submit(() -> {
+                await(start);
+                get(cache, "offer-1", TEN, ELEVEN);
+            });
+            start.countDown();
+            evicting.get();
+            getting.get();
+
+            int computed = computations.get();
+            cache.invalidate(List.of(item("offer-1", Item.Action.ADD, TEN.plusSeconds(60)),
+                item("offer-1", Item.Action.ADD, ELEVEN.plusSeconds(60))));
+            get(cache, "offer-1", TEN, ELEVEN);
+            assertEquals(computed + 1, computations.get(), "stale entry served after invalidation in round " + i);
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void testFailuresAreNotCached() {
+        StatisticsCache cache = cache(Duration.ofMinutes(1));
+
+        assertThrows(IllegalStateException.class, () -> cache.get("offer-1", "ADD", TEN, ELEVEN, false, () -> {
+            throw new IllegalStateException("unavailable");
+        }));
+
+        get(cache, "offer-1", TEN, ELEVEN);
+        assertEquals(1, computations.get());
+    }
+
+    private StatisticsCache cache(Duration liveTtl) {
+        StatisticsProperties properties = new StatisticsProperties();
+        properties.getCache().setLiveTtl(liveTtl);
+        return new StatisticsCache(properties, new SimpleMeterRegistry());
+    }
+
+    private StatisticsResponse get(StatisticsCache cache, String offerId, Instant from, Instant to) {
+        return cache.get(offerId, "ADD", from, to, false, () -> response(computations.incrementAndGet()));
+    }
+
+    private static StatisticsResponse response(long count) {
+        return new StatisticsResponse("offer-1", "ADD", TEN, ELEVEN, count, 1, count);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Item item(String offerId, Item.Action action, Instant actionTimestamp) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(action);
+        item.setActionTimestamp(actionTimestamp);
+        return item;
+    }
+
+    private static Handler capture(List<LogRecord> records) {
+        return new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
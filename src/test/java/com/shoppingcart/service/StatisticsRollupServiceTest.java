@@ -0,0 +1,171 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.config.StatisticsProperties;
+import com.shoppingcart.dto.CustomerItemCount;
+import com.shoppingcart.dto.OfferCustomerCount;
+import com.shoppingcart.dto.OfferCustomerItemCount;
+import com.shoppingcart.dto.OfferStatistics;
+import com.shoppingcart.dto.RollupIncrement;
+import com.shoppingcart.dto.StatisticsAggregate;
+import com.shoppingcart.dto.StatisticsEstimate;
+import com.shoppingcart.model.Item;
+import com.shoppingcart.model.StatisticsRollup;
+import com.shoppingcart.repository.CartRepository;
+import com.shoppingcart.repository.StatisticsRollupRepository;
+import com.shoppingcart.util.HyperLogLog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class StatisticsRollupServiceTest {
+    private final StatisticsRollupRepository rollupRepository = mock(StatisticsRollupRepository.class);
+    private final CartRepository cartRepository = mock(CartRepository.class);
+    private StatisticsRollupService service;
+
+    @BeforeEach
+    void setUp() {
+        StatisticsProperties properties = new StatisticsProperties();
+        properties.getRollups().setEnabled(true);
+        service = new StatisticsRollupService(rollupRepository, cartRepository, properties);
+    }
+
+    @Test
+    void testRecordGroupsItemsPerBucket() {
+        Instant ten = Instant.parse("2025-07-24T10:00:00Z");
+        service.record("customer-1", List.of(
+            item("offer-1", Item.Action.ADD, ten.plusSeconds(60)),
+            item("offer-1", Item.Action.ADD, ten.plusSeconds(120)),
+            item("offer-1", Item.Action.ADD, ten.plusSeconds(3600))));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<RollupIncrement>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(rollupRepository).increment(captor.capture());
+        List<RollupIncrement> increments = new ArrayList<>(captor.getValue());
+        increments.sort((a, b) -> a.bucket().compareTo(b.bucket()));
+        assertEquals(2, increments.size());
+        assertEquals(new RollupIncrement("offer-1", "ADD", ten, 2, Set.of("customer-1")), increments.get(0));
+        assertEquals(new RollupIncrement("offer-1", "ADD", ten.plusSeconds(3600), 1, Set.of("customer-1")), increments.get(1));
+    }
+
+    @Test
+    void testStatisticsCombineFullBucketsAndEdges() {
+        Instant from = Instant.parse("2025-07-24T10:30:00Z");
+        Instant to = Instant.parse("2025-07-24T14:15:00Z");
+        Instant firstFull = Instant.parse("2025-07-24T11:00:00Z");
+        Instant lastPartial = Instant.parse("2025-07-24T14:00:00Z");
+
+        StatisticsRollup rollup = new StatisticsRollup();
+        rollup.setItemCount(5);
+        when(rollupRepository.findBuckets("offer-1", "ADD", firstFull, lastPartial)).thenReturn(List.of(rollup));
+        // b is the only rollup customer without items at the edges
+        when(rollupRepository.countCustomers("offer-1", "ADD", firstFull, lastPartial, Set.of("a", "c"))).thenReturn(1L);
+        when(cartRepository.aggregateItemCountsByCustomer("offer-1", "ADD", from, firstFull))
+            .thenReturn(List.of(new CustomerItemCount("a", 1)));
+        when(cartRepository.aggregateItemCountsByCustomer("offer-1", "ADD", lastPartial.minusMillis(1), to))
+            .thenReturn(List.of(new CustomerItemCount("c", 2)));
+
+        StatisticsAggregate statistics = service.getStatistics("offer-1", "ADD", from, to);
+
+        assertEquals(new StatisticsAggregate(8, 3, 8), statistics);
+    }
+
+    @Test
+    void testEstimatedStatisticsMergeBucketSketchesAndEdges() {
+        Instant from = Instant.parse("2025-07-24T10:30:00Z");
+        Instant to = Instant.parse("2025-07-24T14:15:00Z");
+        Instant firstFull = Instant.parse("2025-07-24T11:00:00Z");
+        Instant lastPartial = Instant.parse("2025-07-24T14:00:00Z");
+
+        StatisticsRollup rollup = new StatisticsRollup();
+        rollup.setItemCount(5);
+        rollup.setCustomerSketch(HyperLogLog.of(List.of("a", "b")).toSparse());
+        // A bucket whose carts were all deleted
+        StatisticsRollup emptied = new StatisticsRollup();
+        emptied.setCustomerSketch(HyperLogLog.of(List.of("d")).toSparse());
+        when(rollupRepository.findSketches("offer-1", "ADD", firstFull, lastPartial)).thenReturn(List.of(rollup, emptied));
+        when(cartRepository.streamItemCountsByCustomer("offer-1", "ADD", from, firstFull))
+            .thenReturn(Stream.of(new CustomerItemCount("a", 1)));
+        when(cartRepository.streamItemCountsByCustomer("offer-1", "ADD", lastPartial.minusMillis(1), to))
+            .thenReturn(Stream.of(new CustomerItemCount("c", 2)));
+
+        StatisticsEstimate estimate = service.estimateStatistics("offer-1", "ADD", from, to);
+
+        assertEquals(new StatisticsEstimate(8, 3, 1, 8), estimate);
+        verify(rollupRepository, never()).findBuckets(anyString(), anyString(), any(), any());
+    }
+
+    @Test
+    void testEstimatedStatisticsSketchCartsWhenRollupsHaveNoSketch() {
+        Instant from = Instant.parse("2025-07-24T10:30:00Z");
+        Instant to = Instant.parse("2025-07-24T14:15:00Z");
+
+        // Written before sketches were added
+        StatisticsRollup rollup = new StatisticsRollup();
+        rollup.setItemCount(5);
+        when(rollupRepository.findSketches(eq("offer-1"), eq("ADD"), any(), any())).thenReturn(List.of(rollup));
+        when(cartRepository.streamItemCountsByCustomer("offer-1", "ADD", from, to))
+            .thenReturn(Stream.of(new CustomerItemCount("a", 3), new CustomerItemCount("b", 2), new CustomerItemCount("c", 2)));
+
+        assertEquals(new StatisticsEstimate(7, 3, 1, 7), service.estimateStatistics("offer-1", "ADD", from, to));
+        verify(cartRepository, never()).aggregateItemCountsByCustomer(anyString(), anyString(), any(), any());
+    }
+
+    @Test
+    void testBatchStatisticsCombineFullBucketsAndEdgesPerOffer() {
+        Instant from = Instant.parse("2025-07-24T10:30:00Z");
+        Instant to = Instant.parse("2025-07-24T14:15:00Z");
+        Instant firstFull = Instant.parse("2025-07-24T11:00:00Z");
+        Instant lastPartial = Instant.parse("2025-07-24T14:00:00Z");
+        List<String> offerIds = List.of("offer-1", "offer-2");
+        List<String> actions = List.of("ADD");
+
+        StatisticsRollup rollup = new StatisticsRollup();
+        rollup.setOfferId("offer-1");
+        rollup.setAction("ADD");
+        rollup.setItemCount(5);
+        when(rollupRepository.findBuckets(offerIds, actions, firstFull, lastPartial)).thenReturn(List.of(rollup));
+        List<OfferCustomerItemCount> edges = List.of(new OfferCustomerItemCount("offer-1", "ADD", "a", 1),
+            new OfferCustomerItemCount("offer-2", "ADD", "c", 2));
+        when(cartRepository.aggregateItemCountsByCustomer(offerIds, actions, from, firstFull))
+            .thenReturn(edges.subList(0, 1));
+        when(cartRepository.aggregateItemCountsByCustomer(offerIds, actions, lastPartial.minusMillis(1), to))
+            .thenReturn(edges.subList(1, 2));
+        when(rollupRepository.countCustomers(offerIds, actions, firstFull, lastPartial, edges))
+            .thenReturn(List.of(new OfferCustomerCount("offer-1", "ADD", 1)));
+
+        assertEquals(List.of(new OfferStatistics("offer-1", "ADD", 6, 2, 6), new OfferStatistics("offer-2", "ADD", 2, 1, 2)),
+            service.getStatistics(offerIds, actions, from, to));
+    }
+
+    @Test
+    void testStatisticsWithinSingleBucketUseCarts() {
+        Instant from = Instant.parse("2025-07-24T10:10:00Z");
+        Instant to = Instant.parse("2025-07-24T10:50:00Z");
+        when(cartRepository.aggregateItemCountsByCustomer("offer-1", "ADD", from, to))
+            .thenReturn(List.of(new CustomerItemCount("a", 3)));
+
+        assertEquals(new StatisticsAggregate(3, 1, 3), service.getStatistics("offer-1", "ADD", from, to));
+        verify(rollupRepository, never()).findBuckets(anyString(), anyString(), any(), any());
+    }
+
+    private static Item item(String offerId, Item.Action action, Instant timestamp) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(action);
+        item.setActionTimestamp(timestamp);
+        return item;
+    }
+}
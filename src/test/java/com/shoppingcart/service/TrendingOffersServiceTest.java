@@ -0,0 +1,66 @@
+package com.shoppingcart.service;
+
+import com.shoppingcart.config.StatisticsProperties;
+import com.shoppingcart.dto.TrendingOffers;
+import com.shoppingcart.model.Item;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TrendingOffersServiceTest {
+    private static final Instant TEN = Instant.parse("2025-07-24T10:00:00Z");
+
+    private final TrendingOffersService service = new TrendingOffersService(new StatisticsProperties());
+
+    @Test
+    void testTopOffersCoverTheSlotsOfTheWindow() {
+        service.record(List.of(item("offer-1", Item.Action.ADD, TEN.minus(Duration.ofMinutes(30))),
+            item("offer-2", Item.Action.ADD, TEN.minus(Duration.ofMinutes(30)))), TEN);
+        service.record(List.of(item("offer-2", Item.Action.ADD, TEN.minusSeconds(30)),
+            item("offer-2", Item.Action.ADD, TEN.minusSeconds(20)),
+            item("offer-3", Item.Action.ADD, TEN.minusSeconds(10)),
+            item("offer-3", Item.Action.DELETE, TEN.minusSeconds(10))), TEN.minusSeconds(5));
+
+        TrendingOffers lastHour = service.getTopOffers("ADD", Duration.ofHours(1), 2, TEN.plusSeconds(5));
+        TrendingOffers lastMinute = service.getTopOffers("ADD", Duration.ofMinutes(1), 5, TEN.plusSeconds(5));
+
+        assertEquals(List.of(new TrendingOffers.Offer("offer-2", 3, 0), new TrendingOffers.Offer("offer-1", 1, 0)),
+            lastHour.offers());
+        assertEquals(List.of(new TrendingOffers.Offer("offer-2", 2, 0), new TrendingOffers.Offer("offer-3", 1, 0)),
+            lastMinute.offers());
+        assertEquals(TEN.minus(Duration.ofMinutes(1)), lastMinute.from());
+        assertEquals(List.of(new TrendingOffers.Offer("offer-3", 1, 0)),
+            service.getTopOffers("DELETE", Duration.ofMinutes(1), 5, TEN.plusSeconds(5)).offers());
+        assertEquals(List.of(), service.getTopOffers("UNKNOWN", Duration.ofMinutes(1), 5, TEN).offers());
+    }
+
+    @Test
+    void testSlotsOutsideTheLongestWindowAreDropped() {
+        service.record(List.of(item("offer-1", Item.Action.ADD, TEN)), TEN);
+        // Too old, and in the future
+        service.record(List.of(item("offer-2", Item.Action.ADD, TEN.minus(Duration.ofHours(2))),
+            item("offer-2", Item.Action.ADD, TEN.plus(Duration.ofMinutes(5)))), TEN);
+        // Two hours later the ring entry of TEN is reused
+        service.record(List.of(item("offer-3", Item.Action.ADD, TEN.plus(Duration.ofMinutes(122)))),
+            TEN.plus(Duration.ofMinutes(122)));
+
+        assertEquals(List.of(new TrendingOffers.Offer("offer-3", 1, 0)),
+            service.getTopOffers("ADD", Duration.ofHours(1), 5, TEN.plus(Duration.ofMinutes(122))).offers());
+        assertThrows(IllegalArgumentException.class, () -> service.getTopOffers("ADD", Duration.ofHours(2), 5, TEN));
+        assertThrows(IllegalArgumentException.class, () -> service.getTopOffers("ADD", Duration.ZERO, 5, TEN));
+        assertThrows(IllegalArgumentException.class, () -> service.getTopOffers("ADD", Duration.ofMinutes(1), 0, TEN));
+    }
+
+    private static Item item(String offerId, Item.Action action, Instant actionTimestamp) {
+        Item item = new Item();
+        item.setOfferId(offerId);
+        item.setAction(action);
+        item.setActionTimestamp(actionTimestamp);
+        return item;
+    }
+}
@@ -0,0 +1,47 @@
+package com.shoppingcart.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HyperLogLogTest {
+
+    @Test
+    void testEstimatesAreWithinTheErrorBound() {
+        for (int cardinality : new int[]{10, 1_000, 100_000, 1_000_000}) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < cardinality; i++) {
+                sketch.add("customer-" + i);
+                // Duplicates do not change the estimate
+                sketch.add("customer-" + i);
+            }
+            assertTrue(Math.abs(sketch.estimate() - cardinality) <= sketch.errorBound(),
+                cardinality + " estimated as " + sketch.estimate() + " ± " + sketch.errorBound());
+        }
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    void testMergedSketchesEstimateTheUnion() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        HyperLogLog union = new HyperLogLog();
+        for (int i = 0; i < 30_000; i++) {
+            first.add("customer-" + i);
+            second.add("customer-" + (i + 20_000));
+            union.add("customer-" + i);
+            union.add("customer-" + (i + 20_000));
+        }
+
+        HyperLogLog merged = new HyperLogLog();
+        merged.merge(first);
+        merged.merge(second.toSparse());
+
+        assertEquals(union.toSparse(), merged.toSparse());
+        assertEquals(union.estimate(), merged.estimate());
+        assertEquals(HyperLogLog.of(List.of("a", "b")).toSparse(),
+            HyperLogLog.of(List.of("b", "a", "a")).toSparse());
+    }
+}
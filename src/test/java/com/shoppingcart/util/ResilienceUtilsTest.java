@@ -0,0 +1,169 @@
+package com.shoppingcart.util;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResilienceUtilsTest {
+    private SimpleMeterRegistry meterRegistry;
+    private ResilienceUtils resilienceUtils;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        resilienceUtils = new ResilienceUtils(properties(), meterRegistry);
+    }
+
+    private static ResilienceProperties properties() {
+        ResilienceProperties properties = new ResilienceProperties();
+        properties.setInitialWaitMs(1);
+        properties.setMultiplier(1.0);
+        properties.setMaxAttempts(2);
+        properties.setSlidingWindowSize(4);
+        properties.setMinimumNumberOfCalls(4);
+        ResilienceProperties.Policy statistics = new ResilienceProperties.Policy();
+        statistics.setTimeout(Duration.ofMillis(50));
+        properties.getOperations().put("statistics", statistics);
+        return properties;
+    }
+
+    @Test
+    void testCircuitBreakerTripsAcrossSeparateCalls() {
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            assertThrows(RuntimeException.class, () -> resilienceUtils.callWithResilience(ResilienceUtils.Operation.CART_DELETE, () -> {
+                attempts.incrementAndGet();
+                throw new RuntimeException("Timeout");
+            }));
+        }
+        assertEquals(4, attempts.get());
+        assertEquals(CircuitBreaker.State.OPEN, resilienceUtils.getCircuitBreaker(ResilienceUtils.Operation.CART_DELETE).getState());
+
+        ServiceUnavailableException exception = assertThrows(ServiceUnavailableException.class,
+            () -> resilienceUtils.callWithResilience(ResilienceUtils.Operation.CART_DELETE, () -> attempts.incrementAndGet()));
+        assertInstanceOf(CallNotPermittedException.class, exception.getCause());
+        assertEquals(Duration.ofSeconds(30), exception.getRetryAfter());
+        assertEquals(4, attempts.get());
+        // Other operations have their own breaker
+        assertEquals(1, resilienceUtils.callWithResilience(ResilienceUtils.Operation.CART_READ, () -> 1));
+    }
+
+    @Test
+    void testBusinessExceptionsAreNotRetriedOrCounted() {
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            assertThrows(NoSuchElementException.class, () -> resilienceUtils.callWithResilience(ResilienceUtils.Operation.CART_READ, () -> {
+                attempts.incrementAndGet();
+                throw new NoSuchElementException("Cart not found");
+            }));
+        }
+        assertEquals(10, attempts.get());
+        assertEquals(CircuitBreaker.State.CLOSED, resilienceUtils.getCircuitBreaker(ResilienceUtils.Operation.CART_READ).getState());
+    }
+
+    @Test
+    void testDuplicateKeysAreNotRetriedOrCounted() {
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            assertThrows(DuplicateKeyException.class, () -> resilienceUtils.callWithResilience(ResilienceUtils.Operation.CART_WRITE, () -> {
+                attempts.incrementAndGet();
+                throw new DuplicateKeyException("E11000 duplicate key error");
+            }));
+        }
+        assertEquals(10, attempts.get());
+        assertEquals(CircuitBreaker.State.CLOSED, resilienceUtils.getCircuitBreaker(ResilienceUtils.Operation.CART_WRITE).getState());
+    }
+
+    @Test
+    void testFullBulkheadsQueueForMaxWaitDurationThenReject() throws Exception {
+        ResilienceProperties properties = properties();
+        properties.setMaxConcurrentCalls(1);
+        ResilienceProperties.Policy read = new ResilienceProperties.Policy();
+        read.setMaxWaitDuration(Duration.ofSeconds(5));
+        properties.getOperations().put("cart-read", read);
+        ResilienceUtils bulkheaded = new ResilienceUtils(properties, new SimpleMeterRegistry());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Integer> running = occupy(bulkheaded, ResilienceUtils.Operation.CART_READ, executor, release);
+        Future<Integer> waiting = executor.submit(() -> bulkheaded.callWithResilience(ResilienceUtils.Operation.CART_READ, () -> 2));
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        release.countDown();
+        assertEquals(1, running.get());
+        assertEquals(2, waiting.get());
+
+        // Without a wait, a call to a full bulkhead is rejected right away
+        CountDownLatch deleteRelease = new CountDownLatch(1);
+        Future<Integer> delete = occupy(bulkheaded, ResilienceUtils.Operation.CART_DELETE, executor, deleteRelease);
+        ServiceUnavailableException exception = assertThrows(ServiceUnavailableException.class,
+            () -> bulkheaded.callWithResilience(ResilienceUtils.Operation.CART_DELETE, () -> 2));
+        assertInstanceOf(BulkheadFullException.class, exception.getCause());
+        assertEquals(Duration.ofSeconds(1), exception.getRetryAfter());
+        deleteRelease.countDown();
+        assertEquals(1, delete.get());
+        executor.shutdown();
+    }
+
+    // Starts a call of the operation that holds its bulkhead slot until released
+    private static Future<Integer> occupy(ResilienceUtils resilienceUtils, ResilienceUtils.Operation operation,
+                                          ExecutorService executor, CountDownLatch release) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<Integer> call = executor.submit(() -> resilienceUtils.callWithResilience(operation, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        }));
+        started.await();
+        return call;
+    }
+
+    @Test
+    void testTimeLimiterFailsSlowCalls() {
+        RuntimeException exception = assertThrows(RuntimeException.class,
+            () -> resilienceUtils.callWithResilience(ResilienceUtils.Operation.STATISTICS, () -> {
+                try {
+                    Thread.sleep(1_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 1;
+            }));
+        assertInstanceOf(TimeoutException.class, exception.getCause());
+    }
+
+    @Test
+    void testTimeLimitedCallsRunOnVirtualThreadsInVirtualThreadMode() {
+        ResilienceUtils virtual = new ResilienceUtils(properties(), new SimpleMeterRegistry(), true);
+        assertTrue(virtual.callWithResilience(ResilienceUtils.Operation.STATISTICS, () -> Thread.currentThread().isVirtual()));
+        assertFalse(resilienceUtils.callWithResilience(ResilienceUtils.Operation.STATISTICS, () -> Thread.currentThread().isVirtual()));
+        virtual.shutdown();
+    }
+
+    @Test
+    void testStateAndCallMetricsAreExported() {
+        resilienceUtils.callWithResilience(ResilienceUtils.Operation.CART_READ, () -> 1);
+        assertNotNull(meterRegistry.find("resilience4j.circuitbreaker.state").tag("name", "cart-read").gauge());
+        assertNotNull(meterRegistry.find("resilience4j.circuitbreaker.calls").tag("name", "cart-read").timer());
+        assertNotNull(meterRegistry.find("resilience4j.bulkhead.available.concurrent.calls").tag("name", "statistics").gauge());
+    }
+}
@@ -0,0 +1,48 @@
+package com.shoppingcart.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpaceSavingTest {
+
+    @Test
+    void testHeavyHittersAreKeptWithBoundedError() {
+        // Every offer with more than 10_000 / 20 items is kept
+        SpaceSaving summary = new SpaceSaving(20);
+        Map<String, Long> exact = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            // offer-hot gets a third of the items, offer-warm about 7%, the rest are spread over 1000 offers
+            String offerId = i % 3 == 0 ? "offer-hot" : i % 10 == 1 ? "offer-warm" : "offer-" + (i % 1_000);
+            summary.add(offerId);
+            exact.merge(offerId, 1L, Long::sum);
+        }
+
+        List<SpaceSaving.Estimate> top = SpaceSaving.top(List.of(summary), 2);
+
+        assertEquals(List.of("offer-hot", "offer-warm"), top.stream().map(SpaceSaving.Estimate::key).toList());
+        for (SpaceSaving.Estimate estimate : top) {
+            long count = exact.get(estimate.key());
+            assertTrue(estimate.count() >= count && estimate.count() - estimate.error() <= count, estimate.toString());
+        }
+    }
+
+    @Test
+    void testMergedSummariesAddTheMinimumOfSummariesMissingAKey() {
+        SpaceSaving first = new SpaceSaving(2);
+        List.of("a", "a", "a", "b", "c").forEach(first::add);
+        SpaceSaving second = new SpaceSaving(2);
+        List.of("b", "b").forEach(second::add);
+
+        // first evicted b for c: a=3, c=2 (error 1), b may have occurred up to 2 times there;
+        // second is not full, so keys missing there did not occur
+        assertEquals(List.of(new SpaceSaving.Estimate("b", 4, 2), new SpaceSaving.Estimate("a", 3, 0),
+                new SpaceSaving.Estimate("c", 2, 1)),
+            SpaceSaving.top(List.of(first, second), 3));
+        assertEquals(List.of(), SpaceSaving.top(List.of(), 3));
+    }
+}